@@ -0,0 +1,55 @@
+package github.daneren2005.dsub.domain;
+
+import junit.framework.TestCase;
+
+public class MusicDirectoryTest extends TestCase {
+
+	/**
+	 * tests that only entries still in the refreshed directory are updated and only a cover art change is reported
+	 */
+	public void testUpdateMetadata() {
+		MusicDirectory dir = new MusicDirectory();
+		dir.addChild(createEntry("1", "One", "art1"));
+		dir.addChild(createEntry("2", "Two", "art2"));
+
+		MusicDirectory refreshed = new MusicDirectory();
+		refreshed.addChild(createEntry("2", "Two renamed", "art2"));
+		refreshed.addChild(createEntry("3", "Three", "art3"));
+
+		assertFalse(dir.updateMetadata(refreshed));
+		assertEquals("One", dir.getChildren().get(0).getTitle());
+		assertEquals("Two renamed", dir.getChildren().get(1).getTitle());
+
+		refreshed.getChildren().get(0).setCoverArt("art2b");
+		assertTrue(dir.updateMetadata(refreshed));
+		assertEquals("art2b", dir.getChildren().get(1).getCoverArt());
+	}
+
+	/**
+	 * tests removing entries which are gone from the refreshed directory
+	 */
+	public void testUpdateEntriesListRemoves() {
+		MusicDirectory dir = new MusicDirectory();
+		dir.addChild(createEntry("1", "One", null));
+		dir.addChild(createEntry("2", "Two", null));
+		dir.addChild(createEntry("3", "Three", null));
+
+		MusicDirectory refreshed = new MusicDirectory();
+		refreshed.addChild(createEntry("3", "Three", null));
+		refreshed.addChild(createEntry("1", "One", null));
+
+		assertTrue(dir.updateEntriesList(null, 0, refreshed));
+		assertEquals(2, dir.getChildrenSize());
+		assertEquals("1", dir.getChildren().get(0).getId());
+		assertEquals("3", dir.getChildren().get(1).getId());
+
+		assertFalse(dir.updateEntriesList(null, 0, refreshed));
+	}
+
+	private static MusicDirectory.Entry createEntry(String id, String title, String coverArt) {
+		MusicDirectory.Entry entry = new MusicDirectory.Entry(id);
+		entry.setTitle(title);
+		entry.setCoverArt(coverArt);
+		return entry;
+	}
+}
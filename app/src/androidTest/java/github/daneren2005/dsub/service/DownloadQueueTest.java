@@ -0,0 +1,83 @@
+package github.daneren2005.dsub.service;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import github.daneren2005.dsub.domain.MusicDirectory;
+
+public class DownloadQueueTest extends AndroidTestCase {
+
+	/**
+	 * tests that indexOf stays right while songs come off the front and go in the middle
+	 */
+	public void testIndexOf() {
+		DownloadQueue queue = new DownloadQueue();
+		List<DownloadFile> expected = new ArrayList<DownloadFile>();
+		for(int i = 0; i < 40; i++) {
+			DownloadFile file = createFile("song" + i);
+			queue.add(file);
+			expected.add(file);
+		}
+
+		for(int i = 0; i < 25; i++) {
+			assertSame(expected.remove(0), queue.remove(0));
+		}
+		DownloadFile inserted = createFile("inserted");
+		queue.add(3, inserted);
+		expected.add(3, inserted);
+		DownloadFile front = createFile("front");
+		queue.add(0, front);
+		expected.add(0, front);
+
+		assertEquals(expected.size(), queue.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertSame(expected.get(i), queue.get(i));
+			assertEquals(i, queue.indexOf(expected.get(i)));
+		}
+		assertEquals(-1, queue.indexOf(createFile("song0")));
+	}
+
+	public void testSongFiles() {
+		DownloadQueue queue = new DownloadQueue();
+		DownloadFile first = createFile("a");
+		DownloadFile second = createFile("a");
+		queue.add(first);
+		queue.add(createFile("b"));
+		queue.add(second);
+
+		assertEquals(2, queue.getSongFiles("a").size());
+		assertSame(first, queue.getSongFiles("a").get(0));
+
+		queue.remove(0);
+		assertEquals(1, queue.getSongFiles("a").size());
+		assertSame(second, queue.getSongFiles("a").get(0));
+		assertTrue(queue.getSongFiles("c").isEmpty());
+	}
+
+	/**
+	 * tests that a snapshot is reused until the queue changes and isn't affected by the change
+	 */
+	public void testSnapshot() {
+		DownloadQueue queue = new DownloadQueue();
+		DownloadFile first = createFile("a");
+		queue.add(first);
+
+		List<DownloadFile> snapshot = queue.getSnapshot();
+		assertSame(snapshot, queue.getSnapshot());
+
+		queue.add(createFile("b"));
+		assertEquals(1, snapshot.size());
+		assertEquals(2, queue.getSnapshot().size());
+
+		queue.remove(0);
+		assertNotSame(first, queue.getSnapshot().get(0));
+	}
+
+	private DownloadFile createFile(String id) {
+		MusicDirectory.Entry entry = new MusicDirectory.Entry(id);
+		entry.setTitle(id);
+		return new DownloadFile(getContext(), entry, false);
+	}
+}
@@ -0,0 +1,115 @@
+package github.daneren2005.dsub.service;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.domain.PlayerQueue;
+import github.daneren2005.dsub.util.FileUtil;
+
+public class PlayerQueueJournalTest extends AndroidTestCase {
+	private PlayerQueueJournal journal;
+	private PlayerQueue state;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		FileUtil.deleteSerialized(getContext(), DownloadServiceLifecycleSupport.FILENAME_DOWNLOADS_SER);
+		FileUtil.deleteSerialized(getContext(), PlayerQueueJournal.FILENAME_JOURNAL);
+
+		state = new PlayerQueue();
+		for(int i = 0; i < 10; i++) {
+			state.songs.add(createEntry("song" + i));
+		}
+		state.currentPlayingIndex = 0;
+		state.changed = new Date();
+
+		journal = new PlayerQueueJournal(getContext());
+		journal.compact(state);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtil.deleteSerialized(getContext(), DownloadServiceLifecycleSupport.FILENAME_DOWNLOADS_SER);
+		FileUtil.deleteSerialized(getContext(), PlayerQueueJournal.FILENAME_JOURNAL);
+		super.tearDown();
+	}
+
+	public void testReplayChanges() {
+		// Add to the end
+		state.songs.add(createEntry("song10"));
+		save(1, 1000);
+
+		// Insert and remove in the middle
+		state.songs.add(3, createEntry("inserted"));
+		state.songs.remove(6);
+		save(2, 2000);
+
+		// Drag one song up and another down
+		state.songs.add(1, state.songs.remove(8));
+		save(2, 3000);
+		state.songs.add(9, state.songs.remove(2));
+		save(3, 4000);
+
+		// Starred in place
+		MusicDirectory.Entry starred = state.songs.get(4);
+		starred.setStarred(true);
+		journal.save(copy(), Arrays.asList(starred));
+
+		PlayerQueue restored = PlayerQueueJournal.load(getContext());
+		assertNotNull(restored);
+		assertEquals(getIds(state.songs), getIds(restored.songs));
+		assertEquals(3, restored.currentPlayingIndex);
+		assertEquals(4000, restored.currentPlayingPosition);
+		assertTrue(restored.songs.get(4).isStarred());
+	}
+
+	public void testIgnoreStaleJournal() {
+		state.songs.remove(0);
+		save(0, 1000);
+
+		// Journal written against the old snapshot should not be applied on top of a new one
+		PlayerQueue snapshot = copy();
+		snapshot.songs.add(createEntry("other"));
+		snapshot.changed = new Date(snapshot.changed.getTime() + 1);
+		FileUtil.serialize(getContext(), snapshot, DownloadServiceLifecycleSupport.FILENAME_DOWNLOADS_SER);
+
+		PlayerQueue restored = PlayerQueueJournal.load(getContext());
+		assertNotNull(restored);
+		assertEquals(getIds(snapshot.songs), getIds(restored.songs));
+	}
+
+	private void save(int index, int position) {
+		state.currentPlayingIndex = index;
+		state.currentPlayingPosition = position;
+		journal.save(copy(), null);
+	}
+
+	private PlayerQueue copy() {
+		PlayerQueue copy = new PlayerQueue();
+		copy.songs = new ArrayList<MusicDirectory.Entry>(state.songs);
+		copy.toDelete = new ArrayList<MusicDirectory.Entry>(state.toDelete);
+		copy.currentPlayingIndex = state.currentPlayingIndex;
+		copy.currentPlayingPosition = state.currentPlayingPosition;
+		copy.changed = new Date();
+		return copy;
+	}
+
+	private static MusicDirectory.Entry createEntry(String id) {
+		MusicDirectory.Entry entry = new MusicDirectory.Entry(id);
+		entry.setTitle(id);
+		return entry;
+	}
+
+	private static List<String> getIds(List<MusicDirectory.Entry> songs) {
+		List<String> ids = new ArrayList<String>();
+		for(MusicDirectory.Entry song: songs) {
+			ids.add(song.getId());
+		}
+		return ids;
+	}
+}
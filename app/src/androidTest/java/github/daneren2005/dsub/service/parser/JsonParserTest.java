@@ -0,0 +1,82 @@
+package github.daneren2005.dsub.service.parser;
+
+import android.test.AndroidTestCase;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.StringReader;
+
+import github.daneren2005.dsub.domain.ArtistInfo;
+import github.daneren2005.dsub.domain.MusicDirectory;
+
+public class JsonParserTest extends AndroidTestCase {
+
+	/**
+	 * tests that the fields which are their own elements in the XML still get read from JSON
+	 */
+	public void testArtistInfo() throws Exception {
+		String response = "{\"subsonic-response\": {\"status\": \"ok\", \"version\": \"1.13.0\", \"artistInfo2\": {" +
+				"\"similarArtist\": [{\"id\": \"2\", \"name\": \"Other Artist\", \"albumCount\": 3}, {\"id\": \"-1\", \"name\": \"Missing Artist\"}], " +
+				"\"biography\": \"Formed in 1990\", \"musicBrainzId\": \"a74b1b7f\", \"lastFmUrl\": \"http://www.last.fm/music/Artist\", " +
+				"\"smallImageUrl\": \"http://example.com/small.png\", \"largeImageUrl\": \"http://example.com/large.png\"}}}";
+		ArtistInfo info = new ArtistInfoParser(getContext(), 1).parse(new StringReader(response), null);
+
+		assertEquals("Formed in 1990", info.getBiography());
+		assertEquals("a74b1b7f", info.getMusicBrainzId());
+		assertEquals("http://www.last.fm/music/Artist", info.getLastFMUrl());
+		assertEquals("http://example.com/large.png", info.getImageUrl());
+		assertEquals(1, info.getSimilarArtists().size());
+		assertEquals("Other Artist", info.getSimilarArtists().get(0).getName());
+		assertEquals(1, info.getMissingArtists().size());
+		assertEquals("Missing Artist", info.getMissingArtists().get(0));
+	}
+
+	/**
+	 * tests that attributes written after a nested array aren't lost
+	 */
+	public void testAttributesAfterChildren() throws Exception {
+		String response = "{\"subsonic-response\": {\"directory\": {" +
+				"\"child\": [{\"title\": \"First Song\", \"isDir\": false, \"track\": 1, \"id\": \"11\"}, {\"id\": \"12\", \"title\": \"Second Song\", \"isDir\": false, \"track\": 2}], " +
+				"\"name\": \"Album\", \"id\": \"1\"}, \"version\": \"1.13.0\", \"status\": \"ok\"}}";
+		MusicDirectory dir = new MusicDirectoryParser(getContext(), 1).parse("Artist", new StringReader(response), null);
+
+		assertEquals("Album", dir.getName());
+		assertEquals("1", dir.getId());
+		assertEquals(2, dir.getChildrenSize());
+		assertEquals("11", dir.getChildren().get(0).getId());
+		assertEquals("First Song", dir.getChildren().get(0).getTitle());
+		assertEquals(Integer.valueOf(2), dir.getChildren().get(1).getTrack());
+	}
+
+	/**
+	 * tests that tags are handed back before the rest of a long response has been read
+	 */
+	public void testStreams() throws Exception {
+		StringBuilder response = new StringBuilder("{\"subsonic-response\": {\"status\": \"ok\", \"version\": \"1.13.0\", \"randomSongs\": {\"song\": [");
+		for(int i = 0; i < 1000; i++) {
+			response.append("{\"id\": \"").append(i).append("\", \"title\": \"Song\"}, ");
+		}
+		// Never finished, so reading this far would throw
+		response.append("{\"id\": ");
+
+		JsonPullParser parser = new JsonPullParser(new StringReader(response.toString()));
+		assertEquals(XmlPullParser.START_TAG, parser.next());
+		assertEquals("subsonic-response", parser.getName());
+		assertEquals("1.13.0", parser.getAttributeValue("version"));
+		assertEquals(XmlPullParser.START_TAG, parser.next());
+		assertEquals("randomSongs", parser.getName());
+		assertEquals(XmlPullParser.START_TAG, parser.next());
+		assertEquals("song", parser.getName());
+		assertEquals("0", parser.getAttributeValue("id"));
+	}
+
+	public void testErrorAfterFields() throws Exception {
+		String response = "{\"subsonic-response\": {\"error\": {\"message\": \"Not found\", \"code\": 70}, \"status\": \"failed\", \"version\": \"1.13.0\"}}";
+		try {
+			new ArtistInfoParser(getContext(), 1).parse(new StringReader(response), null);
+			fail("Error response should throw");
+		} catch(SubsonicRESTException e) {
+			assertEquals(70, e.getCode());
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package github.daneren2005.dsub.service.parser;
+
+import java.io.StringReader;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import github.daneren2005.dsub.domain.MusicDirectory;
+
+public class ParserBenchmarkTest extends AndroidTestCase {
+	private static final String TAG = ParserBenchmarkTest.class.getSimpleName();
+	private static final int SONG_COUNT = 500;
+	private static final int RUNS = 10;
+
+	/**
+	 * Both formats should give back the same songs
+	 */
+	public void testJsonMatchesXml() throws Exception {
+		MusicDirectory xml = new RandomSongsParser(getContext(), 1).parse(new StringReader(getXmlResponse()), null);
+		MusicDirectory json = new RandomSongsParser(getContext(), 1).parse(new StringReader(getJsonResponse()), null);
+
+		List<MusicDirectory.Entry> xmlSongs = xml.getChildren();
+		List<MusicDirectory.Entry> jsonSongs = json.getChildren();
+		assertEquals(SONG_COUNT, xmlSongs.size());
+		assertEquals(xmlSongs.size(), jsonSongs.size());
+		for(int i = 0; i < xmlSongs.size(); i++) {
+			MusicDirectory.Entry xmlSong = xmlSongs.get(i);
+			MusicDirectory.Entry jsonSong = jsonSongs.get(i);
+			assertEquals(xmlSong.getId(), jsonSong.getId());
+			assertEquals(xmlSong.getTitle(), jsonSong.getTitle());
+			assertEquals(xmlSong.getArtist(), jsonSong.getArtist());
+			assertEquals(xmlSong.getAlbum(), jsonSong.getAlbum());
+			assertEquals(xmlSong.getTrack(), jsonSong.getTrack());
+			assertEquals(xmlSong.getDuration(), jsonSong.getDuration());
+			assertEquals(xmlSong.getSize(), jsonSong.getSize());
+			assertEquals(xmlSong.isStarred(), jsonSong.isStarred());
+		}
+	}
+
+	public void testJsonError() throws Exception {
+		String response = "{\"subsonic-response\": {\"status\": \"failed\", \"version\": \"1.13.0\", \"error\": {\"code\": 70, \"message\": \"Not found\"}}}";
+		try {
+			new RandomSongsParser(getContext(), 1).parse(new StringReader(response), null);
+			fail("Error response should throw");
+		} catch(SubsonicRESTException e) {
+			assertEquals(70, e.getCode());
+		}
+	}
+
+	/**
+	 * Not a pass/fail test, logs how long each format takes to parse a large getRandomSongs response
+	 */
+	public void testParseSpeed() throws Exception {
+		String xml = getXmlResponse();
+		String json = getJsonResponse();
+
+		// Warm up both paths first
+		new RandomSongsParser(getContext(), 1).parse(new StringReader(xml), null);
+		new RandomSongsParser(getContext(), 1).parse(new StringReader(json), null);
+
+		long start = System.nanoTime();
+		for(int i = 0; i < RUNS; i++) {
+			new RandomSongsParser(getContext(), 1).parse(new StringReader(xml), null);
+		}
+		long xmlTime = (System.nanoTime() - start) / RUNS / 1000000L;
+
+		start = System.nanoTime();
+		for(int i = 0; i < RUNS; i++) {
+			new RandomSongsParser(getContext(), 1).parse(new StringReader(json), null);
+		}
+		long jsonTime = (System.nanoTime() - start) / RUNS / 1000000L;
+
+		Log.i(TAG, "Parsing " + SONG_COUNT + " songs took " + xmlTime + "ms as XML and " + jsonTime + "ms as JSON");
+	}
+
+	private String getXmlResponse() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		builder.append("<subsonic-response xmlns=\"http://subsonic.org/restapi\" status=\"ok\" version=\"1.13.0\">\n");
+		builder.append("<randomSongs>\n");
+		for(int i = 0; i < SONG_COUNT; i++) {
+			builder.append("<song id=\"").append(i).append("\" parent=\"").append(i / 10).append("\" isDir=\"false\" title=\"Song ").append(i)
+					.append("\" album=\"Album ").append(i / 10).append("\" artist=\"Artist ").append(i / 100).append("\" track=\"").append(i % 10 + 1)
+					.append("\" year=\"2008\" genre=\"Rock\" coverArt=\"").append(i / 10).append("\" size=\"").append(4000000 + i)
+					.append("\" contentType=\"audio/mpeg\" suffix=\"mp3\" duration=\"").append(180 + i % 60).append("\" bitRate=\"320\" path=\"Artist ")
+					.append(i / 100).append("/Album ").append(i / 10).append("/").append(i).append(".mp3\"");
+			if(i % 7 == 0) {
+				builder.append(" starred=\"2015-01-01T00:00:00\"");
+			}
+			builder.append(" isVideo=\"false\" type=\"music\"/>\n");
+		}
+		builder.append("</randomSongs>\n");
+		builder.append("</subsonic-response>");
+		return builder.toString();
+	}
+
+	private String getJsonResponse() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\"subsonic-response\": {\"status\": \"ok\", \"version\": \"1.13.0\", \"randomSongs\": {\"song\": [\n");
+		for(int i = 0; i < SONG_COUNT; i++) {
+			if(i > 0) {
+				builder.append(",\n");
+			}
+			builder.append("{\"id\": \"").append(i).append("\", \"parent\": \"").append(i / 10).append("\", \"isDir\": false, \"title\": \"Song ").append(i)
+					.append("\", \"album\": \"Album ").append(i / 10).append("\", \"artist\": \"Artist ").append(i / 100).append("\", \"track\": ").append(i % 10 + 1)
+					.append(", \"year\": 2008, \"genre\": \"Rock\", \"coverArt\": \"").append(i / 10).append("\", \"size\": ").append(4000000 + i)
+					.append(", \"contentType\": \"audio/mpeg\", \"suffix\": \"mp3\", \"duration\": ").append(180 + i % 60).append(", \"bitRate\": 320, \"path\": \"Artist ")
+					.append(i / 100).append("/Album ").append(i / 10).append("/").append(i).append(".mp3\"");
+			if(i % 7 == 0) {
+				builder.append(", \"starred\": \"2015-01-01T00:00:00\"");
+			}
+			builder.append(", \"isVideo\": false, \"type\": \"music\"}");
+		}
+		builder.append("\n]}}}");
+		return builder.toString();
+	}
+}
@@ -0,0 +1,90 @@
+package github.daneren2005.dsub.util;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import github.daneren2005.dsub.domain.MusicDirectory.Entry;
+
+public class InternerTest extends TestCase {
+	private static final String TAG = InternerTest.class.getSimpleName();
+	private static final int ARTISTS = 100;
+	private static final int ALBUMS_PER_ARTIST = 5;
+	private static final int SONGS_PER_ALBUM = 10;
+
+	public void testIntern() {
+		String first = new String("Rock");
+		String second = new String("Rock");
+		assertNotSame(first, second);
+		assertSame(Interner.intern(first), Interner.intern(second));
+
+		assertSame(Interner.intern(new Integer(2015)), Interner.intern(new Integer(2015)));
+		assertNull(Interner.intern((String) null));
+	}
+
+	/**
+	 * Builds a library the way the parser does with a new copy of every value, and compares how many bytes of repeated
+	 * values are held before and after interning
+	 */
+	public void testLibraryMemory() {
+		List<Entry> songs = createLibrary();
+		long before = getValueBytes(songs);
+
+		for(Entry song: songs) {
+			song.intern();
+		}
+		long after = getValueBytes(songs);
+		Log.i(TAG, songs.size() + " songs hold " + before + " bytes of values before interning and " + after + " after");
+
+		assertTrue(after * 4 < before);
+		assertEquals("Artist 1", songs.get(ALBUMS_PER_ARTIST * SONGS_PER_ALBUM).getArtist());
+		assertSame(songs.get(0).getAlbum(), songs.get(1).getAlbum());
+	}
+
+	private List<Entry> createLibrary() {
+		List<Entry> songs = new ArrayList<Entry>();
+		for(int artist = 0; artist < ARTISTS; artist++) {
+			for(int album = 0; album < ALBUMS_PER_ARTIST; album++) {
+				for(int track = 0; track < SONGS_PER_ALBUM; track++) {
+					Entry song = new Entry(new String("song-" + artist + "-" + album + "-" + track));
+					song.setTitle(new String("Track " + track));
+					song.setArtist(new String("Artist " + artist));
+					song.setArtistId(new String("ar-" + artist));
+					song.setAlbum(new String("Album " + artist + "-" + album));
+					song.setAlbumId(new String("al-" + artist + "-" + album));
+					song.setParent(new String("al-" + artist + "-" + album));
+					song.setCoverArt(new String("al-" + artist + "-" + album));
+					song.setGenre(new String("Genre " + (artist % 10)));
+					song.setContentType(new String("audio/mpeg"));
+					song.setSuffix(new String("mp3"));
+					song.setYear(new Integer(1990 + album));
+					song.setBitRate(new Integer(320));
+					song.setDuration(new Integer(180 + track));
+					songs.add(song);
+				}
+			}
+		}
+		return songs;
+	}
+
+	// Rough size of each distinct value object, counting shared ones once
+	private long getValueBytes(List<Entry> songs) {
+		Map<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+		long bytes = 0;
+		for(Entry song: songs) {
+			Object[] values = {song.getArtist(), song.getArtistId(), song.getAlbum(), song.getAlbumId(), song.getParent(), song.getCoverArt(),
+					song.getGenre(), song.getContentType(), song.getSuffix(), song.getYear(), song.getBitRate(), song.getDuration()};
+			for(Object value: values) {
+				if(value != null && seen.put(value, true) == null) {
+					bytes += value instanceof String ? 24 + 16 + 2 * ((String) value).length() : 16;
+				}
+			}
+		}
+		return bytes;
+	}
+}
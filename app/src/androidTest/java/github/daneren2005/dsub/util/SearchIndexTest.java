@@ -0,0 +1,42 @@
+package github.daneren2005.dsub.util;
+
+import android.test.AndroidTestCase;
+
+import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.domain.SearchResult;
+
+public class SearchIndexTest extends AndroidTestCase {
+
+	/**
+	 * tests that every word typed has to start a word in the name, ignoring case and accents
+	 */
+	public void testSearch() {
+		SearchIndex index = new SearchIndex();
+		MusicDirectory dir = new MusicDirectory();
+		dir.addChild(createEntry("1", "Abbey Road", true));
+		dir.addChild(createEntry("2", "Café Tacvba", true));
+		dir.addChild(createEntry("3", "Come Together", false));
+		index.add(getContext(), dir);
+
+		SearchResult result = index.search(getContext(), "road ab", 10, 10, 10);
+		assertEquals(1, result.getAlbums().size());
+		assertEquals("1", result.getAlbums().get(0).getId());
+
+		result = index.search(getContext(), "CAFE", 10, 10, 10);
+		assertEquals(1, result.getAlbums().size());
+		assertEquals("2", result.getAlbums().get(0).getId());
+
+		result = index.search(getContext(), "toge", 10, 10, 10);
+		assertEquals(1, result.getSongs().size());
+		assertTrue(result.getAlbums().isEmpty());
+
+		assertTrue(index.search(getContext(), "oad", 10, 10, 10).getAlbums().isEmpty());
+	}
+
+	private static MusicDirectory.Entry createEntry(String id, String title, boolean directory) {
+		MusicDirectory.Entry entry = new MusicDirectory.Entry(id);
+		entry.setTitle(title);
+		entry.setDirectory(directory);
+		return entry;
+	}
+}
@@ -80,6 +80,7 @@ import github.daneren2005.dsub.util.Constants;
 import github.daneren2005.dsub.util.DrawableTint;
 import github.daneren2005.dsub.util.ImageLoader;
 import github.daneren2005.dsub.util.SilentBackgroundTask;
+import github.daneren2005.dsub.util.SongDBHandler;
 import github.daneren2005.dsub.util.ThemeUtil;
 import github.daneren2005.dsub.util.Util;
 import github.daneren2005.dsub.view.UpdateView;
@@ -1173,7 +1174,7 @@ public class SubsonicActivity extends AppCompatActivity implements OnItemSelecte
 
 			@Override
 			protected void done(Integer result) {
-				if(result == scrobbleCount) {
+				if(result == scrobbleCount + starsCount) {
 					Util.toast(SubsonicActivity.this, getResources().getString(R.string.offline_sync_success, result));
 				} else {
 					Util.toast(SubsonicActivity.this, getResources().getString(R.string.offline_sync_partial, result, scrobbleCount + starsCount));
@@ -1189,10 +1190,7 @@ public class SubsonicActivity extends AppCompatActivity implements OnItemSelecte
 		}.execute();
 	}
 	private void deleteOffline() {
-		SharedPreferences.Editor offline = Util.getOfflineSync(this).edit();
-		offline.putInt(Constants.OFFLINE_SCROBBLE_COUNT, 0);
-		offline.putInt(Constants.OFFLINE_STAR_COUNT, 0);
-		offline.commit();
+		SongDBHandler.getHandler(this).clearOfflineActions();
 	}
 	
 	public int getDrawerItemId(String fragmentType) {
@@ -27,8 +27,12 @@ import android.util.Log;
 
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.io.File;
 import java.io.Serializable;
 import java.util.Collections;
@@ -37,6 +41,7 @@ import java.util.Locale;
 
 import github.daneren2005.dsub.service.DownloadService;
 import github.daneren2005.dsub.util.Constants;
+import github.daneren2005.dsub.util.Interner;
 import github.daneren2005.dsub.util.UpdateHelper;
 import github.daneren2005.dsub.util.Util;
 
@@ -82,6 +87,17 @@ public class MusicDirectory implements Serializable {
 		this.parent = parent;
 	}
 
+	/**
+	 * Copy with its own list of children, so sorting or filtering one doesn't change the other
+	 */
+	public synchronized MusicDirectory copy() {
+		MusicDirectory copy = new MusicDirectory(new ArrayList<Entry>(children));
+		copy.name = name;
+		copy.id = id;
+		copy.parent = parent;
+		return copy;
+	}
+
 	public void addChild(Entry child) {
 		if(child != null) {
 			children.add(child);
@@ -141,73 +157,56 @@ public class MusicDirectory implements Serializable {
 	}
 
 	public synchronized boolean updateMetadata(MusicDirectory refreshedDirectory) {
+		final Map<String, Entry> refreshedEntries = refreshedDirectory.getChildrenById();
+
 		boolean metadataUpdated = false;
-		Iterator<Entry> it = children.iterator();
-		while(it.hasNext()) {
-			Entry entry = it.next();
-			int index = refreshedDirectory.children.indexOf(entry);
-			if(index != -1) {
-				final Entry refreshed = refreshedDirectory.children.get(index);
-
-				entry.setTitle(refreshed.getTitle());
-				entry.setAlbum(refreshed.getAlbum());
-				entry.setArtist(refreshed.getArtist());
-				entry.setTrack(refreshed.getTrack());
-				entry.setYear(refreshed.getYear());
-				entry.setGenre(refreshed.getGenre());
-				entry.setTranscodedContentType(refreshed.getTranscodedContentType());
-				entry.setTranscodedSuffix(refreshed.getTranscodedSuffix());
-				entry.setDiscNumber(refreshed.getDiscNumber());
-				entry.setStarred(refreshed.isStarred());
-				entry.setRating(refreshed.getRating());
-				entry.setType(refreshed.getType());
+		List<Entry> changed = new ArrayList<Entry>();
+		for(Entry entry: children) {
+			Entry refreshed = refreshedEntries.get(entry.getId());
+			if(refreshed != null && !entry.isMetadataEqual(refreshed)) {
 				if(!Util.equals(entry.getCoverArt(), refreshed.getCoverArt())) {
 					metadataUpdated = true;
-					entry.setCoverArt(refreshed.getCoverArt());
 				}
-
-				new UpdateHelper.EntryInstanceUpdater(entry) {
-					@Override
-					public void update(Entry found) {
-						found.setTitle(refreshed.getTitle());
-						found.setAlbum(refreshed.getAlbum());
-						found.setArtist(refreshed.getArtist());
-						found.setTrack(refreshed.getTrack());
-						found.setYear(refreshed.getYear());
-						found.setGenre(refreshed.getGenre());
-						found.setTranscodedContentType(refreshed.getTranscodedContentType());
-						found.setTranscodedSuffix(refreshed.getTranscodedSuffix());
-						found.setDiscNumber(refreshed.getDiscNumber());
-						found.setStarred(refreshed.isStarred());
-						found.setRating(refreshed.getRating());
-						found.setType(refreshed.getType());
-						if(!Util.equals(found.getCoverArt(), refreshed.getCoverArt())) {
-							found.setCoverArt(refreshed.getCoverArt());
-							metadataUpdate = DownloadService.METADATA_UPDATED_COVER_ART;
-						}
-					}
-				}.execute();
+				entry.updateMetadata(refreshed);
+				changed.add(entry);
 			}
 		}
 
+		// Update every other copy of the changed entries in one go instead of going through the play queue for each one
+		new UpdateHelper.EntryListUpdater(changed) {
+			@Override
+			public void update(Entry found) {
+				Entry refreshed = refreshedEntries.get(found.getId());
+				if(!Util.equals(found.getCoverArt(), refreshed.getCoverArt())) {
+					metadataUpdate = DownloadService.METADATA_UPDATED_COVER_ART;
+				}
+				found.updateMetadata(refreshed);
+			}
+		}.execute();
+
 		return metadataUpdated;
 	}
 	public synchronized boolean updateEntriesList(Context context, int instance, MusicDirectory refreshedDirectory) {
+		Map<String, Entry> refreshedEntries = refreshedDirectory.getChildrenById();
+
 		boolean changed = false;
+		Set<String> existing = new HashSet<String>();
 		Iterator<Entry> it = children.iterator();
 		while(it.hasNext()) {
 			Entry entry = it.next();
 			// No longer exists in here
-			if(refreshedDirectory.children.indexOf(entry) == -1) {
+			if(!refreshedEntries.containsKey(entry.getId())) {
 				it.remove();
 				changed = true;
+			} else {
+				existing.add(entry.getId());
 			}
 		}
 
 		// Make sure we contain all children from refreshed set
 		boolean resort = false;
 		for(Entry refreshed: refreshedDirectory.children) {
-			if(!this.children.contains(refreshed)) {
+			if(existing.add(refreshed.getId())) {
 				this.children.add(refreshed);
 				resort = true;
 				changed = true;
@@ -220,6 +219,13 @@ public class MusicDirectory implements Serializable {
 
 		return changed;
 	}
+	private synchronized Map<String, Entry> getChildrenById() {
+		Map<String, Entry> entries = new HashMap<String, Entry>(children.size() * 2);
+		for(Entry entry: children) {
+			entries.put(entry.getId(), entry);
+		}
+		return entries;
+	}
 
     public static class Entry implements Serializable {
 		public static final int TYPE_SONG = 0;
@@ -272,6 +278,27 @@ public class MusicDirectory implements Serializable {
 			this.linkedArtist = artist;
 		}
 		
+		/**
+		 * Share the values which are the same for every song on an album or server instead of keeping a copy of each per entry
+		 */
+		public void intern() {
+			parent = Interner.intern(parent);
+			grandParent = Interner.intern(grandParent);
+			albumId = Interner.intern(albumId);
+			artistId = Interner.intern(artistId);
+			album = Interner.intern(album);
+			artist = Interner.intern(artist);
+			year = Interner.intern(year);
+			genre = Interner.intern(genre);
+			contentType = Interner.intern(contentType);
+			suffix = Interner.intern(suffix);
+			transcodedContentType = Interner.intern(transcodedContentType);
+			transcodedSuffix = Interner.intern(transcodedSuffix);
+			coverArt = Interner.intern(coverArt);
+			duration = Interner.intern(duration);
+			bitRate = Interner.intern(bitRate);
+		}
+
 		@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
 		public void loadMetadata(File file) {
 			try {
@@ -624,6 +651,32 @@ public class MusicDirectory implements Serializable {
             return id.hashCode();
         }
 
+		/**
+		 * Copy over everything that can change on the server without it becoming a different entry
+		 */
+		public void updateMetadata(Entry refreshed) {
+			setTitle(refreshed.getTitle());
+			setAlbum(refreshed.getAlbum());
+			setArtist(refreshed.getArtist());
+			setTrack(refreshed.getTrack());
+			setYear(refreshed.getYear());
+			setGenre(refreshed.getGenre());
+			setTranscodedContentType(refreshed.getTranscodedContentType());
+			setTranscodedSuffix(refreshed.getTranscodedSuffix());
+			setDiscNumber(refreshed.getDiscNumber());
+			setStarred(refreshed.isStarred());
+			setRating(refreshed.getRating());
+			setType(refreshed.getType());
+			setCoverArt(refreshed.getCoverArt());
+		}
+		public boolean isMetadataEqual(Entry refreshed) {
+			return Util.equals(title, refreshed.title) && Util.equals(album, refreshed.album) && Util.equals(artist, refreshed.artist) &&
+					Util.equals(track, refreshed.track) && Util.equals(year, refreshed.year) && Util.equals(genre, refreshed.genre) &&
+					Util.equals(transcodedContentType, refreshed.transcodedContentType) && Util.equals(transcodedSuffix, refreshed.transcodedSuffix) &&
+					Util.equals(discNumber, refreshed.discNumber) && starred == refreshed.starred && getRating() == refreshed.getRating() &&
+					type == refreshed.type && Util.equals(coverArt, refreshed.coverArt);
+		}
+
         @Override
         public String toString() {
             return title;
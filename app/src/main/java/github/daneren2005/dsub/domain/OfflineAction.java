@@ -0,0 +1,133 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+
+package github.daneren2005.dsub.domain;
+
+/**
+ * Something done while offline which still has to be sent to the server
+ */
+public class OfflineAction {
+	public static final int TYPE_SCROBBLE = 0;
+	public static final int TYPE_STAR = 1;
+	public static final int TYPE_RATING = 2;
+	public static final int TYPE_BOOKMARK = 3;
+
+	// What a star is for, since artists and albums are starred by a different parameter than songs
+	public static final int KIND_SONG = 0;
+	public static final int KIND_ARTIST = 1;
+	public static final int KIND_ALBUM = 2;
+
+	private long rowId;
+	private int type;
+	// Either the id on the server, or what to search for to find it when all that is known is a local path
+	private String id;
+	private String search;
+	// Starred or not, rating, or bookmark position with -1 meaning delete the bookmark
+	private int value;
+	private int kind = KIND_SONG;
+	private String comment;
+	private long time;
+	private int attempts;
+
+	public OfflineAction() {
+
+	}
+	public OfflineAction(int type, String id, String search, int value, long time) {
+		this.type = type;
+		this.id = id;
+		this.search = search;
+		this.value = value;
+		this.time = time;
+	}
+
+	public long getRowId() {
+		return rowId;
+	}
+	public void setRowId(long rowId) {
+		this.rowId = rowId;
+	}
+
+	public int getType() {
+		return type;
+	}
+	public void setType(int type) {
+		this.type = type;
+	}
+
+	public String getId() {
+		return id;
+	}
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getSearch() {
+		return search;
+	}
+	public void setSearch(String search) {
+		this.search = search;
+	}
+
+	public int getValue() {
+		return value;
+	}
+	public void setValue(int value) {
+		this.value = value;
+	}
+
+	public int getKind() {
+		return kind;
+	}
+	public void setKind(int kind) {
+		this.kind = kind;
+	}
+
+	public String getComment() {
+		return comment;
+	}
+	public void setComment(String comment) {
+		this.comment = comment;
+	}
+
+	public long getTime() {
+		return time;
+	}
+	public void setTime(long time) {
+		this.time = time;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	/**
+	 * @return Key that a later action replaces an earlier one with.  Every scrobble is kept, but only the last star, rating
+	 * or bookmark for something matters.
+	 */
+	public String getCollapseKey() {
+		String target = id != null ? id : search;
+		if(type == TYPE_SCROBBLE) {
+			return type + ":" + target + "@" + time;
+		} else if(kind != KIND_SONG) {
+			// Artist and album ids can overlap with song ids
+			return type + ":" + kind + ":" + target;
+		} else {
+			return type + ":" + target;
+		}
+	}
+}
@@ -105,7 +105,7 @@ public class ServerInfo implements Serializable {
 		ServerInfo current = SERVERS.get(instance);
 		if(!this.equals(current)) {
 			SERVERS.put(instance, this);
-			FileUtil.serialize(context, this, getCacheName(context, instance));
+			FileUtil.serialize(context, this, getCacheName(context, instance), instance);
 		}
 	}
 	
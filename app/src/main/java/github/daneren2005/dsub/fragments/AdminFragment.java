@@ -20,7 +20,6 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,6 +29,7 @@ import github.daneren2005.dsub.domain.User;
 import github.daneren2005.dsub.service.MusicService;
 import github.daneren2005.dsub.service.parser.SubsonicRESTException;
 import github.daneren2005.dsub.util.Constants;
+import github.daneren2005.dsub.util.FileUtil;
 import github.daneren2005.dsub.util.ProgressListener;
 import github.daneren2005.dsub.util.UserUtil;
 import github.daneren2005.dsub.util.Util;
@@ -107,8 +107,7 @@ public class AdminFragment extends SelectRecyclerFragment<User> {
 			// Delete cached users if not allowed to get them
 			String s = Util.getRestUrl(context, null, false);
 			String cache = "users-" + s.hashCode() + ".ser";
-			File file = new File(context.getCacheDir(), cache);
-			file.delete();
+			FileUtil.deleteSerialized(context, cache);
 
 			List<User> users = new ArrayList<User>();
 			User user = musicService.getUser(refresh, UserUtil.getCurrentUsername(context), context, listener);
@@ -37,6 +37,7 @@ import github.daneren2005.dsub.service.MusicServiceFactory;
 import github.daneren2005.dsub.service.DownloadService;
 import github.daneren2005.dsub.util.BackgroundTask;
 import github.daneren2005.dsub.util.Constants;
+import github.daneren2005.dsub.util.SearchIndex;
 import github.daneren2005.dsub.util.TabBackgroundTask;
 import github.daneren2005.dsub.util.Util;
 import github.daneren2005.dsub.view.UpdateView;
@@ -48,6 +49,8 @@ public class SearchFragment extends SubsonicFragment implements SectionAdapter.O
 	private static final int MAX_ALBUMS = 20;
 	private static final int MAX_SONGS = 50;
 	private static final int MIN_CLOSENESS = 1;
+	// How long typing has to pause before the server is asked
+	private static final long SEARCH_DELAY = 300L;
 
 	protected RecyclerView recyclerView;
 	protected SearchAdapter adapter;
@@ -56,6 +59,8 @@ public class SearchFragment extends SubsonicFragment implements SectionAdapter.O
 	private SearchResult searchResult;
 	private boolean skipSearch = false;
 	private String currentQuery;
+	private BackgroundTask<SearchResult> currentTask;
+	private Runnable pendingSearch;
 
 	public SearchFragment() {
 		super();
@@ -193,7 +198,23 @@ public class SearchFragment extends SubsonicFragment implements SectionAdapter.O
 		}
 		currentQuery = query;
 
-		BackgroundTask<SearchResult> task = new TabBackgroundTask<SearchResult>(this) {
+		// Results for the last query aren't wanted anymore
+		if(currentTask != null) {
+			currentTask.cancel();
+		}
+		if(pendingSearch != null) {
+			recyclerView.removeCallbacks(pendingSearch);
+			pendingSearch = null;
+		}
+
+		// Show whatever matches from what has already been loaded while waiting on the server
+		final SearchResult localResult = SearchIndex.getInstance().search(context, query, MAX_ARTISTS, MAX_ALBUMS, MAX_SONGS);
+		if(!autoplay && (localResult.hasArtists() || localResult.hasAlbums() || localResult.hasSongs())) {
+			searchResult = localResult;
+			recyclerView.setAdapter(adapter = new SearchAdapter(context, searchResult, getImageLoader(), largeAlbums, this));
+		}
+
+		final BackgroundTask<SearchResult> task = new TabBackgroundTask<SearchResult>(this) {
 			@Override
 			protected SearchResult doInBackground() throws Throwable {
 				SearchCritera criteria = new SearchCritera(query, MAX_ARTISTS, MAX_ALBUMS, MAX_SONGS);
@@ -203,7 +224,12 @@ public class SearchFragment extends SubsonicFragment implements SectionAdapter.O
 
 			@Override
 			protected void done(SearchResult result) {
-				searchResult = result;
+				if(currentTask == this) {
+					currentTask = null;
+				}
+
+				// Autoplay picks from the top results, so leave those the way the server ranked them
+				searchResult = autoplay ? result : SearchIndex.merge(localResult, result);
 				recyclerView.setAdapter(adapter = new SearchAdapter(context, searchResult, getImageLoader(), largeAlbums, SearchFragment.this));
 				if (autoplay) {
 					autoplay(query, artist, album, title);
@@ -211,7 +237,22 @@ public class SearchFragment extends SubsonicFragment implements SectionAdapter.O
 
 			}
 		};
-		task.execute();
+		currentTask = task;
+		if(autoplay) {
+			task.execute();
+		} else {
+			// Local results are already showing, so wait to see if another query replaces this one before asking the server
+			pendingSearch = new Runnable() {
+				@Override
+				public void run() {
+					pendingSearch = null;
+					if(currentTask == task) {
+						task.execute();
+					}
+				}
+			};
+			recyclerView.postDelayed(pendingSearch, SEARCH_DELAY);
+		}
 
 		if(searchItem != null) {
 			MenuItemCompat.collapseActionView(searchItem);
@@ -56,6 +56,7 @@ import github.daneren2005.dsub.service.ServerTooOldException;
 import github.daneren2005.dsub.util.Constants;
 import github.daneren2005.dsub.util.LoadingTask;
 import github.daneren2005.dsub.util.Pair;
+import github.daneren2005.dsub.util.Prefetcher;
 import github.daneren2005.dsub.util.SilentBackgroundTask;
 import github.daneren2005.dsub.util.TabBackgroundTask;
 import github.daneren2005.dsub.util.UpdateHelper;
@@ -606,6 +607,7 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Section
 
 			albums = dir.getChildren(true, false);
 			entries = dir.getChildren();
+			Prefetcher.getInstance(context).prefetchDirectories(albums);
 
 			// This isn't really an artist if no albums on it!
 			if(albums.size() == 0) {
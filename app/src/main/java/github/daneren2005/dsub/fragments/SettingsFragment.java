@@ -79,6 +79,7 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 	private CacheLocationPreference cacheLocation;
 	private ListPreference preloadCountWifi;
 	private ListPreference preloadCountMobile;
+	private ListPreference concurrentDownloads;
 	private ListPreference keepPlayedCount;
 	private ListPreference tempLoss;
 	private ListPreference pauseDisconnect;
@@ -178,6 +179,12 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 			DownloadService downloadService = DownloadService.getInstance();
 			downloadService.setSleepTimerDuration(Integer.parseInt(sharedPreferences.getString(key, "60")));
 		}
+		else if(Constants.PREFERENCES_KEY_CONCURRENT_DOWNLOADS.equals(key)) {
+			DownloadService downloadService = DownloadService.getInstance();
+			if(downloadService != null) {
+				downloadService.checkDownloads();
+			}
+		}
 		else if(Constants.PREFERENCES_KEY_SYNC_MOST_RECENT.equals(key)) {
 			SyncUtil.removeMostRecentSyncFiles(context);
 		} else if(Constants.PREFERENCES_KEY_REPLAY_GAIN.equals(key) || Constants.PREFERENCES_KEY_REPLAY_GAIN_BUMP.equals(key) || Constants.PREFERENCES_KEY_REPLAY_GAIN_UNTAGGED.equals(key)) {
@@ -237,6 +244,7 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 		cacheLocation = (CacheLocationPreference) this.findPreference(Constants.PREFERENCES_KEY_CACHE_LOCATION);
 		preloadCountWifi = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_PRELOAD_COUNT_WIFI);
 		preloadCountMobile = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_PRELOAD_COUNT_MOBILE);
+		concurrentDownloads = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_CONCURRENT_DOWNLOADS);
 		keepPlayedCount = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_KEEP_PLAYED_CNT);
 		tempLoss = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_TEMP_LOSS);
 		pauseDisconnect = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_PAUSE_DISCONNECT);
@@ -394,6 +402,7 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 			cacheLocation.setSummary(cacheLocation.getText());
 			preloadCountWifi.setSummary(preloadCountWifi.getEntry());
 			preloadCountMobile.setSummary(preloadCountMobile.getEntry());
+			concurrentDownloads.setSummary(concurrentDownloads.getEntry());
 
 			try {
 				if(megabyteFromat == null) {
@@ -567,6 +576,12 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 		serverSyncPreference.setSummary(R.string.settings_server_sync_summary);
 		serverSyncPreference.setTitle(R.string.settings_server_sync);
 
+		final CheckBoxPreference serverJsonPreference = new CheckBoxPreference(context);
+		serverJsonPreference.setKey(Constants.PREFERENCES_KEY_SERVER_JSON + instance);
+		serverJsonPreference.setChecked(Util.isJsonEnabled(context, instance));
+		serverJsonPreference.setSummary(R.string.settings_server_json_summary);
+		serverJsonPreference.setTitle(R.string.settings_server_json);
+
 		final Preference serverOpenBrowser = new Preference(context);
 		serverOpenBrowser.setKey(Constants.PREFERENCES_KEY_OPEN_BROWSER);
 		serverOpenBrowser.setPersistent(false);
@@ -598,6 +613,7 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 
 						// Don't use Util.getActiveServer since it is 0 if offline
 						int activeServer = Util.getPreferences(context).getInt(Constants.PREFERENCES_KEY_SERVER_INSTANCE, 1);
+						FileUtil.deleteSerializedCache(context, instance);
 						for (int i = instance; i <= serverCount; i++) {
 							Util.removeInstanceName(context, i, activeServer);
 						}
@@ -641,6 +657,7 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 		screen.addPreference(serverPasswordPreference);
 		screen.addPreference(serverTagPreference);
 		screen.addPreference(serverSyncPreference);
+		screen.addPreference(serverJsonPreference);
 		screen.addPreference(serverTestConnectionPreference);
 		screen.addPreference(serverOpenBrowser);
 		screen.addPreference(serverRemoveServerPreference);
@@ -104,6 +104,12 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static github.daneren2005.dsub.domain.MusicDirectory.Entry;
 
@@ -926,6 +932,9 @@ public class SubsonicFragment extends Fragment implements SwipeRefreshLayout.OnR
 				}
 
 				songs = new LinkedList<Entry>();
+				// Conditions for a standard play now operation
+				boolean playNow = !append && !save && autoplay && !playNext && !shuffle && !background;
+				playWhileLoading = playNow;
 				getSongsRecursively(root, songs);
 
 				if(shuffle && !shuffleByAlbum) {
@@ -934,9 +943,11 @@ public class SubsonicFragment extends Fragment implements SwipeRefreshLayout.OnR
 
 				DownloadService downloadService = getDownloadService();
 				boolean transition = false;
-				if (!songs.isEmpty() && downloadService != null) {
-					// Conditions for a standard play now operation
-					if(!append && !save && autoplay && !playNext && !shuffle && !background) {
+				if(queuedCount > 0) {
+					// Already playing
+					transition = true;
+				} else if (!songs.isEmpty() && downloadService != null) {
+					if(playNow) {
 						playNowOverride = true;
 						return false;
 					}
@@ -974,13 +985,18 @@ public class SubsonicFragment extends Fragment implements SwipeRefreshLayout.OnR
 				songs = new LinkedList<Entry>();
 				MusicDirectory root = new MusicDirectory();
 				root.addChildren(albums);
+				// Conditions for a standard play now operation
+				boolean playNow = !append && !shuffle;
+				playWhileLoading = playNow;
 				getSongsRecursively(root, songs);
 
 				DownloadService downloadService = getDownloadService();
 				boolean transition = false;
-				if (!songs.isEmpty() && downloadService != null) {
-					// Conditions for a standard play now operation
-					if(!append && !shuffle) {
+				if(queuedCount > 0) {
+					// Already playing
+					transition = true;
+				} else if (!songs.isEmpty() && downloadService != null) {
+					if(playNow) {
 						playNowOverride = true;
 						return false;
 					}
@@ -2013,11 +2029,25 @@ public class SubsonicFragment extends Fragment implements SwipeRefreshLayout.OnR
 		return null;
 	}
 
+	// Shared by every RecursiveLoader so loading several things at once still only makes a few requests at a time
+	private static final int RECURSIVE_LOAD_THREADS = 4;
+	private static ThreadPoolExecutor recursiveLoadExecutor;
+	private static synchronized ThreadPoolExecutor getRecursiveLoadExecutor() {
+		if(recursiveLoadExecutor == null) {
+			recursiveLoadExecutor = new ThreadPoolExecutor(RECURSIVE_LOAD_THREADS, RECURSIVE_LOAD_THREADS, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+			recursiveLoadExecutor.allowCoreThreadTimeOut(true);
+		}
+		return recursiveLoadExecutor;
+	}
+
 	public abstract class RecursiveLoader extends LoadingTask<Boolean> {
 		protected MusicService musicService;
 		protected static final int MAX_SONGS = 500;
 		protected boolean playNowOverride = false;
 		protected List<Entry> songs = new ArrayList<>();
+		// Start playing songs as soon as the first directory is loaded and add the rest to the queue as they come in
+		protected boolean playWhileLoading = false;
+		protected int queuedCount = 0;
 
 		public RecursiveLoader(Activity context) {
 			super(context);
@@ -2060,22 +2090,35 @@ public class SubsonicFragment extends Fragment implements SwipeRefreshLayout.OnR
 			getSongsRecursively(parent, songs, false);
 		}
 		protected void getSongsRecursively(MusicDirectory parent, List<Entry> songs, boolean allowVideo) throws Exception {
-			if (songs.size() > MAX_SONGS) {
+			if (songs.size() > MAX_SONGS || isCancelled()) {
 				return;
 			}
 
+			List<Entry> dirs = new ArrayList<Entry>();
 			for (Entry dir : parent.getChildren(true, false)) {
-				if(dir.getRating() == 1) {
-					continue;
+				if(dir.getRating() != 1) {
+					dirs.add(dir);
 				}
+			}
 
-				MusicDirectory musicDirectory;
-				if(Util.isTagBrowsing(context) && !Util.isOffline(context)) {
-					musicDirectory = musicService.getAlbum(dir.getId(), dir.getTitle(), false, context, this);
-				} else {
-					musicDirectory = musicService.getMusicDirectory(dir.getId(), dir.getTitle(), false, context, this);
+			// Load the next few directories while going through the current one, but still add their songs in order
+			List<Future<MusicDirectory>> loads = new ArrayList<Future<MusicDirectory>>();
+			try {
+				for (int i = 0; i < dirs.size(); i++) {
+					while (loads.size() < dirs.size() && loads.size() < i + RECURSIVE_LOAD_THREADS) {
+						loads.add(loadDirectory(dirs.get(loads.size())));
+					}
+					if (songs.size() > MAX_SONGS || isCancelled()) {
+						break;
+					}
+
+					getSongsRecursively(getLoaded(loads.get(i)), songs);
+				}
+			} finally {
+				// Anything loaded ahead which isn't going to be used anymore
+				for (Future<MusicDirectory> load : loads) {
+					load.cancel(true);
 				}
-				getSongsRecursively(musicDirectory, songs);
 			}
 
 			for (Entry song : parent.getChildren(false, true)) {
@@ -2083,6 +2126,77 @@ public class SubsonicFragment extends Fragment implements SwipeRefreshLayout.OnR
 					songs.add(song);
 				}
 			}
+
+			if(playWhileLoading && songs == this.songs) {
+				queueLoadedSongs();
+			}
+		}
+
+		private Future<MusicDirectory> loadDirectory(final Entry dir) {
+			final ProgressListener listener = this;
+			return getRecursiveLoadExecutor().submit(new Callable<MusicDirectory>() {
+				@Override
+				public MusicDirectory call() throws Exception {
+					if(Util.isTagBrowsing(context) && !Util.isOffline(context)) {
+						return musicService.getAlbum(dir.getId(), dir.getTitle(), false, context, listener);
+					} else {
+						return musicService.getMusicDirectory(dir.getId(), dir.getTitle(), false, context, listener);
+					}
+				}
+			});
+		}
+		private MusicDirectory getLoaded(Future<MusicDirectory> load) throws Exception {
+			try {
+				return load.get();
+			} catch(ExecutionException e) {
+				if(e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+			}
+		}
+
+		// Give DownloadService whatever has been loaded since last time, starting playback with the first of them
+		private void queueLoadedSongs() {
+			if(songs.size() <= queuedCount || isCancelled()) {
+				return;
+			}
+
+			if(getDownloadService() == null) {
+				playWhileLoading = false;
+				return;
+			}
+
+			final List<Entry> loaded = new ArrayList<Entry>(songs.subList(queuedCount, songs.size()));
+			final boolean first = queuedCount == 0;
+			if(first) {
+				// Let the user pick where to start from once everything is loaded instead
+				for(Entry song: loaded) {
+					if(song.getBookmark() != null) {
+						playWhileLoading = false;
+						return;
+					}
+				}
+			}
+			queuedCount = songs.size();
+
+			// Still loading in the background, so hand them over on the main thread like everything else that changes the queue
+			getHandler().post(new Runnable() {
+				@Override
+				public void run() {
+					DownloadService downloadService = getDownloadService();
+					if(downloadService == null || isCancelled()) {
+						return;
+					}
+
+					if(first) {
+						downloadService.clear();
+						downloadService.download(loaded, false, true, true, false);
+					} else {
+						downloadService.download(loaded, false, false, false, false);
+					}
+				}
+			});
 		}
 
 		@Override
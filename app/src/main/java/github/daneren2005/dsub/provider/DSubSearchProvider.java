@@ -38,6 +38,7 @@ import github.daneren2005.dsub.domain.SearchCritera;
 import github.daneren2005.dsub.domain.SearchResult;
 import github.daneren2005.dsub.service.MusicService;
 import github.daneren2005.dsub.service.MusicServiceFactory;
+import github.daneren2005.dsub.util.SearchIndex;
 import github.daneren2005.dsub.util.Util;
 
 /**
@@ -56,15 +57,36 @@ public class DSubSearchProvider extends ContentProvider {
 			SearchManager.SUGGEST_COLUMN_INTENT_EXTRA_DATA,
 			SearchManager.SUGGEST_COLUMN_ICON_1};
 
+	private static final int MAX_ARTISTS = 5;
+	private static final int MAX_ALBUMS = 10;
+	private static final int MAX_SONGS = 10;
+	// Suggestions are asked for on every keystroke, so only go to the server when the index has next to nothing for it
+	private static final int MIN_LOCAL_RESULTS = 3;
+
+	// Server the saved artist list was last loaded into the search index for
+	private int loadedServer = -1;
+
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 		if(selectionArgs[0].isEmpty()) {
 			return null;
 		}
 
-		String query = selectionArgs[0] + "*";
-		SearchResult searchResult = search(query);
-		return createCursor(selectionArgs[0], searchResult);
+		String query = selectionArgs[0];
+		SearchIndex index = SearchIndex.getInstance();
+		if(index.isEmpty(getContext())) {
+			loadIndex();
+		}
+
+		// Answer from what has already been loaded, and only ask the server when that turns up too little to be useful
+		SearchResult searchResult = index.search(getContext(), query, MAX_ARTISTS, MAX_ALBUMS, MAX_SONGS);
+		if(isSparse(searchResult)) {
+			SearchResult serverResult = search(query + "*");
+			if(serverResult != null) {
+				searchResult = SearchIndex.merge(searchResult, serverResult);
+			}
+		}
+		return createCursor(query, searchResult);
 	}
 
 	private SearchResult search(String query) {
@@ -74,12 +96,32 @@ public class DSubSearchProvider extends ContentProvider {
 		}
 
 		try {
-			return musicService.search(new SearchCritera(query, 5, 10, 10), getContext(), null);
+			return musicService.search(new SearchCritera(query, MAX_ARTISTS, MAX_ALBUMS, MAX_SONGS), getContext(), null);
 		} catch (Exception e) {
 			return null;
 		}
 	}
 
+	private boolean isSparse(SearchResult searchResult) {
+		return searchResult.getArtists().size() + searchResult.getAlbums().size() + searchResult.getSongs().size() < MIN_LOCAL_RESULTS;
+	}
+
+	// Loading the saved artist list puts it into the index, so suggestions start working before anything has been browsed
+	private void loadIndex() {
+		int server = Util.getActiveServer(getContext());
+		if(loadedServer == server || Util.isOffline(getContext())) {
+			return;
+		}
+		loadedServer = server;
+
+		MusicService musicService = MusicServiceFactory.getMusicService(getContext());
+		try {
+			musicService.getIndexes(Util.getSelectedMusicFolderId(getContext()), false, getContext(), null);
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to load artists for search suggestions", e);
+		}
+	}
+
 	private Cursor createCursor(String query, SearchResult searchResult) {
 		MatrixCursor cursor = new MatrixCursor(COLUMNS);
 		if (searchResult == null) {
@@ -35,6 +35,7 @@ import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.os.Environment;
+import android.support.v4.util.LruCache;
 import android.util.Log;
 import android.view.View;
 import android.widget.RemoteViews;
@@ -44,12 +45,15 @@ import github.daneren2005.dsub.activity.SubsonicFragmentActivity;
 import github.daneren2005.dsub.domain.MusicDirectory;
 import github.daneren2005.dsub.domain.PlayerQueue;
 import github.daneren2005.dsub.service.DownloadService;
-import github.daneren2005.dsub.service.DownloadServiceLifecycleSupport;
+import github.daneren2005.dsub.service.PlayerQueueJournal;
 import github.daneren2005.dsub.util.Constants;
-import github.daneren2005.dsub.util.FileUtil;
 import github.daneren2005.dsub.util.ImageLoader;
 import github.daneren2005.dsub.util.Util;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Simple widget to show currently playing album art along
  * with play/pause and next track buttons.
@@ -65,20 +69,72 @@ public class DSubWidgetProvider extends AppWidgetProvider {
 	private static DSubWidget4x3 instance4x3;
 	private static DSubWidget4x4 instance4x4;
 
+	// Play/pause and metadata changes come in bursts, so wait this long and only render the last state
+	private static final long UPDATE_DELAY = 50L;
+	private static final int MAX_RENDERED_ART = 4;
+	private static ScheduledExecutorService updateExecutor;
+	private static boolean updatePending = false;
+	private static Context pendingContext;
+	private static DownloadService pendingService;
+	private static boolean pendingPlaying;
+	// Rounded cover art by cover art id and size, along with the image it was rendered from
+	private static final LruCache<String, RenderedArt> renderedArt = new LruCache<String, RenderedArt>(MAX_RENDERED_ART);
+
+	// What was last pushed to every instance of this widget, so the same thing isn't sent to the launcher again
+	private volatile String lastUpdate;
+	private volatile Bitmap lastArt;
+
 	public static synchronized void notifyInstances(Context context, DownloadService service, boolean playing) {
-		if(instance4x1 == null) {
-			instance4x1 = new DSubWidget4x1();
-		}
-		if(instance4x2 == null) {
-			instance4x2 = new DSubWidget4x2();
-		}
-		if(instance4x3 == null) {
-			instance4x3 = new DSubWidget4x3();
+		pendingContext = context.getApplicationContext();
+		pendingService = service;
+		pendingPlaying = playing;
+
+		if(!updatePending) {
+			if(updateExecutor == null) {
+				updateExecutor = Executors.newSingleThreadScheduledExecutor();
+			}
+
+			updatePending = true;
+			updateExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						updateInstances();
+					} catch(Exception e) {
+						Log.e(TAG, "Failed to update widgets", e);
+					}
+				}
+			}, UPDATE_DELAY, TimeUnit.MILLISECONDS);
 		}
-		if(instance4x4 == null) {
-			instance4x4 = new DSubWidget4x4();
+	}
+
+	private static void updateInstances() {
+		Context context;
+		DownloadService service;
+		boolean playing;
+		synchronized (DSubWidgetProvider.class) {
+			context = pendingContext;
+			service = pendingService;
+			playing = pendingPlaying;
+			pendingContext = null;
+			pendingService = null;
+			updatePending = false;
+
+			if(instance4x1 == null) {
+				instance4x1 = new DSubWidget4x1();
+			}
+			if(instance4x2 == null) {
+				instance4x2 = new DSubWidget4x2();
+			}
+			if(instance4x3 == null) {
+				instance4x3 = new DSubWidget4x3();
+			}
+			if(instance4x4 == null) {
+				instance4x4 = new DSubWidget4x4();
+			}
 		}
-		
+
+		// Render outside of the lock so new changes can keep coming in while this runs
 		instance4x1.notifyChange(context, service, playing);
 		instance4x2.notifyChange(context, service, playing);
 		instance4x3.notifyChange(context, service, playing);
@@ -88,6 +144,16 @@ public class DSubWidgetProvider extends AppWidgetProvider {
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         defaultAppWidget(context, appWidgetIds);
+
+		// Those widgets no longer show what was last pushed to them
+		synchronized (DSubWidgetProvider.class) {
+			for(DSubWidgetProvider instance: new DSubWidgetProvider[] {instance4x1, instance4x2, instance4x3, instance4x4}) {
+				if(instance != null) {
+					instance.lastUpdate = null;
+					instance.lastArt = null;
+				}
+			}
+		}
     }
     
 	@Override
@@ -132,7 +198,10 @@ public class DSubWidgetProvider extends AppWidgetProvider {
     public void notifyChange(Context context, DownloadService service, boolean playing) {
         if (hasInstances(context)) {
             performUpdate(context, service, null, playing);
-        }
+        } else {
+			lastUpdate = null;
+			lastArt = null;
+		}
     }
 
     /**
@@ -151,6 +220,7 @@ public class DSubWidgetProvider extends AppWidgetProvider {
         final Resources res = context.getResources();
         final RemoteViews views = new RemoteViews(context.getPackageName(), getLayout());
 
+		boolean hidden = false;
 		if(playing) {
 			views.setViewVisibility(R.id.widget_root, View.VISIBLE);
 		} else {
@@ -158,6 +228,7 @@ public class DSubWidgetProvider extends AppWidgetProvider {
 			SharedPreferences prefs = Util.getPreferences(context);
 			if(prefs.getBoolean(Constants.PREFERENCES_KEY_HIDE_WIDGET, false)) {
 				views.setViewVisibility(R.id.widget_root, View.GONE);
+				hidden = true;
 			}
 		}
 
@@ -166,7 +237,7 @@ public class DSubWidgetProvider extends AppWidgetProvider {
         if(service == null) {
         	// Deserialize from playling list to setup
             try {
-                PlayerQueue state = FileUtil.deserialize(context, DownloadServiceLifecycleSupport.FILENAME_DOWNLOADS_SER, PlayerQueue.class);
+                PlayerQueue state = PlayerQueueJournal.load(context);
                 if (state != null && state.currentPlayingIndex != -1) {
                     currentPlaying = state.songs.get(state.currentPlayingIndex);
                 }
@@ -218,6 +289,7 @@ public class DSubWidgetProvider extends AppWidgetProvider {
         }
 
         // Set the cover art
+		Bitmap art = null;
         try {
             boolean large = false;
 			if(getLayout() != R.layout.appwidget4x1 && getLayout() != R.layout.appwidget4x2) {
@@ -230,8 +302,8 @@ public class DSubWidgetProvider extends AppWidgetProvider {
                 // Set default cover art
                 views.setImageViewResource(R.id.appwidget_coverart, R.drawable.appwidget_art_unknown);
             } else {
-                bitmap = getRoundedCornerBitmap(bitmap);
-                views.setImageViewBitmap(R.id.appwidget_coverart, bitmap);
+                art = getRenderedArt(currentPlaying, bitmap, large);
+                views.setImageViewBitmap(R.id.appwidget_coverart, art);
             }
         } catch (Exception x) {
             Log.e(TAG, "Failed to load cover art", x);
@@ -241,8 +313,40 @@ public class DSubWidgetProvider extends AppWidgetProvider {
         // Link actions buttons to intents
         linkButtons(context, views, currentPlaying != null);
 
+		// Skip sending the launcher the exact same views it already has
+		String update = hidden + "\n" + playing + "\n" + errorState + "\n" + title + "\n" + artist + "\n" + album + "\n" + (currentPlaying != null);
+		if(appWidgetIds == null) {
+			if(update.equals(lastUpdate) && art == lastArt) {
+				return;
+			}
+
+			lastUpdate = update;
+			lastArt = art;
+		}
+
         pushUpdate(context, appWidgetIds, views);
     }
+
+	/**
+	 * Get the rounded cover art for a song, only rendering it again if the cover art has changed since last time
+	 */
+	private static Bitmap getRenderedArt(MusicDirectory.Entry entry, Bitmap bitmap, boolean large) {
+		if(entry == null) {
+			return getRoundedCornerBitmap(bitmap);
+		}
+
+		String id = entry.getCoverArt() != null ? entry.getCoverArt() : entry.getId();
+		String key = id + (large ? ":large" : ":small");
+
+		RenderedArt cached = renderedArt.get(key);
+		if(cached != null && cached.source == bitmap) {
+			return cached.rendered;
+		}
+
+		Bitmap rendered = getRoundedCornerBitmap(bitmap);
+		renderedArt.put(key, new RenderedArt(bitmap, rendered));
+		return rendered;
+	}
     
     /**
      * Round the corners of a bitmap for the cover art image
@@ -302,4 +406,14 @@ public class DSubWidgetProvider extends AppWidgetProvider {
         pendingIntent = PendingIntent.getService(context, 0, intent, 0);
         views.setOnClickPendingIntent(R.id.control_previous, pendingIntent);
     }
+
+	private static class RenderedArt {
+		final Bitmap source;
+		final Bitmap rendered;
+
+		RenderedArt(Bitmap source, Bitmap rendered) {
+			this.source = source;
+			this.rendered = rendered;
+		}
+	}
 }
@@ -26,6 +26,7 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 import android.content.Context;
@@ -51,8 +52,13 @@ import github.daneren2005.dsub.domain.SearchCritera;
 import github.daneren2005.dsub.domain.SearchResult;
 import github.daneren2005.dsub.domain.Share;
 import github.daneren2005.dsub.domain.User;
+import github.daneren2005.dsub.util.CacheStore;
+import github.daneren2005.dsub.util.Pair;
+import github.daneren2005.dsub.util.Prefetcher;
+import github.daneren2005.dsub.util.SearchIndex;
 import github.daneren2005.dsub.util.SilentBackgroundTask;
 import github.daneren2005.dsub.util.ProgressListener;
+import github.daneren2005.dsub.util.SingleFlight;
 import github.daneren2005.dsub.util.SongDBHandler;
 import github.daneren2005.dsub.util.SyncUtil;
 import github.daneren2005.dsub.util.TimeLimitedCache;
@@ -72,6 +78,13 @@ public class CachedMusicService implements MusicService {
 	public static final int CACHE_UPDATE_LIST = 1;
 	public static final int CACHE_UPDATE_METADATA = 2;
 	private static final int CACHED_LAST_FM = 24 * 60;
+	// How long a saved copy is trusted before opening it also checks the server for changes in the background
+	private static final long FRESH_DIRECTORY = TTL_MUSIC_DIR * 1000L;
+	private static final long FRESH_ARTIST = 3 * TTL_MUSIC_DIR * 1000L;
+	// Only this many background checks per window so going through a long list doesn't start one for every album
+	private static final int REVALIDATE_BUDGET = 4;
+	private static final long REVALIDATE_WINDOW = 10 * 1000L;
+	private static final int LOG_REVALIDATE_STATS_EVERY = 20;
 
 	private final RESTMusicService musicService;
     private final TimeLimitedCache<Boolean> cachedLicenseValid = new TimeLimitedCache<Boolean>(120, TimeUnit.SECONDS);
@@ -79,9 +92,26 @@ public class CachedMusicService implements MusicService {
     private final TimeLimitedCache<List<Playlist>> cachedPlaylists = new TimeLimitedCache<List<Playlist>>(3600, TimeUnit.SECONDS);
     private final TimeLimitedCache<List<MusicFolder>> cachedMusicFolders = new TimeLimitedCache<List<MusicFolder>>(10 * 3600, TimeUnit.SECONDS);
 	private final TimeLimitedCache<List<PodcastChannel>> cachedPodcastChannels = new TimeLimitedCache<List<PodcastChannel>>(10 * 3600, TimeUnit.SECONDS);
+	private final SingleFlight<String, MusicDirectory> directoryRequests = new SingleFlight<String, MusicDirectory>() {
+		@Override
+		protected MusicDirectory copy(MusicDirectory dir) {
+			// Callers sort and filter what they get back
+			return dir == null ? null : dir.copy();
+		}
+	};
+	private final SingleFlight<String, ArtistInfo> artistInfoRequests = new SingleFlight<String, ArtistInfo>();
+	private final SingleFlight<String, Void> coverArtRequests = new SingleFlight<String, Void>();
     private String restUrl;
 	private String musicFolderId;
 	private boolean isTagBrowsing = false;
+	// Anything saved before the server's library last changed has to be checked again no matter how recent it is
+	private long libraryChanged = 0;
+	private long revalidateWindowStart = 0;
+	private int revalidateWindowCount = 0;
+	private int revalidatedCount = 0;
+	private int deferredCount = 0;
+	private int skippedCount = 0;
+	private long skippedBytes = 0;
 
     public CachedMusicService(RESTMusicService musicService) {
         this.musicService = musicService;
@@ -105,7 +135,7 @@ public class CachedMusicService implements MusicService {
 
 				// Only save a copy license is valid
 				if(result) {
-					FileUtil.serialize(context, (Boolean) result, getCacheName(context, "license"));
+					FileUtil.serialize(context, (Boolean) result, getCacheName(context, "license"), musicService.getInstance(context));
 				}
 			}
             cachedLicenseValid.set(result, result ? 30L * 60L : 2L * 60L, TimeUnit.SECONDS);
@@ -127,7 +157,7 @@ public class CachedMusicService implements MusicService {
 
         	if(result == null) {
             	result = musicService.getMusicFolders(refresh, context, progressListener);
-            	FileUtil.serialize(context, new ArrayList<MusicFolder>(result), getCacheName(context, "musicFolders"));
+            	FileUtil.serialize(context, new ArrayList<MusicFolder>(result), getCacheName(context, "musicFolders"), musicService.getInstance(context));
         	}
 
 			MusicFolder.sort(result);
@@ -152,15 +182,27 @@ public class CachedMusicService implements MusicService {
         if (result == null) {
 			String name = Util.isTagBrowsing(context, musicService.getInstance(context)) ? "artists" : "indexes";
 			name = getCacheName(context, name, musicFolderId);
+			Indexes cached = FileUtil.deserialize(context, name, Indexes.class);
 			if(!refresh) {
-				result = FileUtil.deserialize(context, name, Indexes.class);
+				result = cached;
 			}
 
         	if(result == null) {
-            	result = musicService.getIndexes(musicFolderId, refresh, context, progressListener);
-            	FileUtil.serialize(context, result, name);
+				long ifModifiedSince = cached != null ? cached.getLastModified() : 0L;
+            	result = musicService.getIndexes(musicFolderId, refresh, ifModifiedSince, context, progressListener);
+				if(cached != null && isUnmodified(result, cached)) {
+					CacheStore.getStore(context).touch(name);
+					onRevalidateSkipped(getStoredSize(context, name, CacheStore.getStore(context).getInfo(name)));
+					result = cached;
+				} else {
+					if(cached != null && result.getLastModified() != cached.getLastModified()) {
+						onLibraryChanged();
+					}
+					FileUtil.serialize(context, result, name, musicService.getInstance(context));
+				}
         	}
             cachedIndexes.set(result);
+			SearchIndex.getInstance().add(context, result);
         }
         return result;
     }
@@ -169,52 +211,57 @@ public class CachedMusicService implements MusicService {
     public MusicDirectory getMusicDirectory(final String id, final String name, final boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		MusicDirectory dir = null;
 		final MusicDirectory cached = FileUtil.deserialize(context, getCacheName(context, "directory", id), MusicDirectory.class);
+		Prefetcher.getInstance(context).onDirectoryOpened(id, cached != null);
 		if(!refresh && cached != null) {
 			dir = cached;
 
-			new SilentBackgroundTask<Void>(context) {
-				MusicDirectory refreshed;
-				private boolean metadataUpdated;
-
-				@Override
-				protected Void doInBackground() throws Throwable {
-					refreshed = musicService.getMusicDirectory(id, name, true, context, null);
-					updateAllSongs(context, refreshed);
-					metadataUpdated = cached.updateMetadata(refreshed);
-					deleteRemovedEntries(context, refreshed, cached);
-					FileUtil.serialize(context, refreshed, getCacheName(context, "directory", id));
-					return null;
-				}
+			if(shouldRevalidate(context, getCacheName(context, "directory", id), FRESH_DIRECTORY)) {
+				new SilentBackgroundTask<Void>(context) {
+					MusicDirectory refreshed;
+					private boolean metadataUpdated;
 
-				// Update which entries exist
-				@Override
-				public void done(Void result) {
-					if(progressListener != null) {
-						if(cached.updateEntriesList(context, musicService.getInstance(context), refreshed)) {
-							progressListener.updateCache(CACHE_UPDATE_LIST);
-						}
-						if(metadataUpdated) {
-							progressListener.updateCache(CACHE_UPDATE_METADATA);
+					@Override
+					protected Lane getLane() {
+						return Lane.BACKGROUND;
+					}
+
+					@Override
+					protected Void doInBackground() throws Throwable {
+						refreshed = fetchMusicDirectory(id, name, true, context, null);
+						metadataUpdated = cached.updateMetadata(refreshed);
+						deleteRemovedEntries(context, refreshed, cached);
+						return null;
+					}
+
+					// Update which entries exist
+					@Override
+					public void done(Void result) {
+						if(progressListener != null) {
+							if(cached.updateEntriesList(context, musicService.getInstance(context), refreshed)) {
+								progressListener.updateCache(CACHE_UPDATE_LIST);
+							}
+							if(metadataUpdated) {
+								progressListener.updateCache(CACHE_UPDATE_METADATA);
+							}
 						}
 					}
-				}
 
-				@Override
-				public void error(Throwable error) {
-					Log.e(TAG, "Failed to refresh music directory", error);
-				}
-			}.execute();
+					@Override
+					public void error(Throwable error) {
+						Log.e(TAG, "Failed to refresh music directory", error);
+					}
+				}.execute();
+			}
 		}
 
 		if(dir == null) {
-			dir = musicService.getMusicDirectory(id, name, refresh, context, progressListener);
-			updateAllSongs(context, dir);
-			FileUtil.serialize(context, dir, getCacheName(context, "directory", id));
+			dir = fetchMusicDirectory(id, name, refresh, context, progressListener);
 
 			// If a cached copy exists to check against, look for removes
 			deleteRemovedEntries(context, dir, cached);
 		}
 		dir.sortChildren(context, musicService.getInstance(context));
+		SearchIndex.getInstance().add(context, dir);
 
 		return dir;
     }
@@ -226,43 +273,49 @@ public class CachedMusicService implements MusicService {
 		if(!refresh && cached != null) {
 			dir = cached;
 
-			new SilentBackgroundTask<Void>(context) {
-				MusicDirectory refreshed;
+			if(shouldRevalidate(context, getCacheName(context, "artist", id), FRESH_ARTIST)) {
+				new SilentBackgroundTask<Void>(context) {
+					MusicDirectory refreshed;
 
-				@Override
-				protected Void doInBackground() throws Throwable {
-					refreshed = musicService.getArtist(id, name, refresh, context, null);
-					cached.updateMetadata(refreshed);
-					deleteRemovedEntries(context, refreshed, cached);
-					FileUtil.serialize(context, refreshed, getCacheName(context, "artist", id));
-					return null;
-				}
+					@Override
+					protected Lane getLane() {
+						return Lane.BACKGROUND;
+					}
 
-				// Update which entries exist
-				@Override
-				public void done(Void result) {
-					if(progressListener != null) {
-						if(cached.updateEntriesList(context, musicService.getInstance(context), refreshed)) {
-							progressListener.updateCache(CACHE_UPDATE_LIST);
+					@Override
+					protected Void doInBackground() throws Throwable {
+						refreshed = fetchArtist(id, name, refresh, context, null);
+						cached.updateMetadata(refreshed);
+						deleteRemovedEntries(context, refreshed, cached);
+						return null;
+					}
+
+					// Update which entries exist
+					@Override
+					public void done(Void result) {
+						if(progressListener != null) {
+							if(cached.updateEntriesList(context, musicService.getInstance(context), refreshed)) {
+								progressListener.updateCache(CACHE_UPDATE_LIST);
+							}
 						}
 					}
-				}
 
-				@Override
-				public void error(Throwable error) {
-					Log.e(TAG, "Failed to refresh getArtist", error);
-				}
-			}.execute();
+					@Override
+					public void error(Throwable error) {
+						Log.e(TAG, "Failed to refresh getArtist", error);
+					}
+				}.execute();
+			}
 		}
 
 		if(dir == null) {
-			dir = musicService.getArtist(id, name, refresh, context, progressListener);
-			FileUtil.serialize(context, dir, getCacheName(context, "artist", id));
+			dir = fetchArtist(id, name, refresh, context, progressListener);
 
 			// If a cached copy exists to check against, look for removes
 			deleteRemovedEntries(context, dir, cached);
 		}
 		dir.sortChildren(context, musicService.getInstance(context));
+		SearchIndex.getInstance().add(context, dir);
 
 		return dir;
 	}
@@ -271,59 +324,122 @@ public class CachedMusicService implements MusicService {
 	public MusicDirectory getAlbum(final String id, final String name, final boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		MusicDirectory dir = null;
 		final MusicDirectory cached = FileUtil.deserialize(context, getCacheName(context, "album", id), MusicDirectory.class);
+		Prefetcher.getInstance(context).onDirectoryOpened(id, cached != null);
 		if(!refresh && cached != null) {
 			dir = cached;
 
-			new SilentBackgroundTask<Void>(context) {
-				MusicDirectory refreshed;
-				private boolean metadataUpdated;
-
-				@Override
-				protected Void doInBackground() throws Throwable {
-					refreshed = musicService.getAlbum(id, name, refresh, context, null);
-					updateAllSongs(context, refreshed);
-					metadataUpdated = cached.updateMetadata(refreshed);
-					deleteRemovedEntries(context, refreshed, cached);
-					FileUtil.serialize(context, refreshed, getCacheName(context, "album", id));
-					return null;
-				}
+			if(shouldRevalidate(context, getCacheName(context, "album", id), FRESH_DIRECTORY)) {
+				new SilentBackgroundTask<Void>(context) {
+					MusicDirectory refreshed;
+					private boolean metadataUpdated;
 
-				// Update which entries exist
-				@Override
-				public void done(Void result) {
-					if(progressListener != null) {
-						if(cached.updateEntriesList(context, musicService.getInstance(context), refreshed)) {
-							progressListener.updateCache(CACHE_UPDATE_LIST);
-						}
-						if(metadataUpdated) {
-							progressListener.updateCache(CACHE_UPDATE_METADATA);
+					@Override
+					protected Lane getLane() {
+						return Lane.BACKGROUND;
+					}
+
+					@Override
+					protected Void doInBackground() throws Throwable {
+						refreshed = fetchAlbum(id, name, refresh, context, null);
+						metadataUpdated = cached.updateMetadata(refreshed);
+						deleteRemovedEntries(context, refreshed, cached);
+						return null;
+					}
+
+					// Update which entries exist
+					@Override
+					public void done(Void result) {
+						if(progressListener != null) {
+							if(cached.updateEntriesList(context, musicService.getInstance(context), refreshed)) {
+								progressListener.updateCache(CACHE_UPDATE_LIST);
+							}
+							if(metadataUpdated) {
+								progressListener.updateCache(CACHE_UPDATE_METADATA);
+							}
 						}
 					}
-				}
 
-				@Override
-				public void error(Throwable error) {
-					Log.e(TAG, "Failed to refresh getAlbum", error);
-				}
-			}.execute();
+					@Override
+					public void error(Throwable error) {
+						Log.e(TAG, "Failed to refresh getAlbum", error);
+					}
+				}.execute();
+			}
 		}
 
 		if(dir == null) {
-			dir = musicService.getAlbum(id, name, refresh, context, progressListener);
-			updateAllSongs(context, dir);
-			FileUtil.serialize(context, dir, getCacheName(context, "album", id));
+			dir = fetchAlbum(id, name, refresh, context, progressListener);
 
 			// If a cached copy exists to check against, look for removes
 			deleteRemovedEntries(context, dir, cached);
 		}
 		dir.sortChildren(context, musicService.getInstance(context));
+		SearchIndex.getInstance().add(context, dir);
 
 		return dir;
 	}
 
+	// Fetch and save a directory from the server, sharing the request with anyone else who is already waiting on the same one
+	private MusicDirectory fetchMusicDirectory(final String id, final String name, final boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
+		final String cacheName = getCacheName(context, "directory", id);
+		return directoryRequests.execute(cacheName, new Callable<MusicDirectory>() {
+			@Override
+			public MusicDirectory call() throws Exception {
+				MusicDirectory dir = musicService.getMusicDirectory(id, name, refresh, context, progressListener);
+				updateAllSongs(context, dir);
+				FileUtil.serialize(context, dir, cacheName, musicService.getInstance(context));
+				return dir;
+			}
+		});
+	}
+	private MusicDirectory fetchArtist(final String id, final String name, final boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
+		final String cacheName = getCacheName(context, "artist", id);
+		return directoryRequests.execute(cacheName, new Callable<MusicDirectory>() {
+			@Override
+			public MusicDirectory call() throws Exception {
+				MusicDirectory dir = musicService.getArtist(id, name, refresh, context, progressListener);
+				FileUtil.serialize(context, dir, cacheName, musicService.getInstance(context));
+				return dir;
+			}
+		});
+	}
+	private MusicDirectory fetchAlbum(final String id, final String name, final boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
+		final String cacheName = getCacheName(context, "album", id);
+		return directoryRequests.execute(cacheName, new Callable<MusicDirectory>() {
+			@Override
+			public MusicDirectory call() throws Exception {
+				MusicDirectory dir = musicService.getAlbum(id, name, refresh, context, progressListener);
+				updateAllSongs(context, dir);
+				FileUtil.serialize(context, dir, cacheName, musicService.getInstance(context));
+				return dir;
+			}
+		});
+	}
+
+	/**
+	 * Fetch and save a directory ahead of it being opened
+	 * @return Whether it had to be fetched, false if a copy was already saved
+	 */
+	public boolean prefetchDirectory(Context context, Entry entry) throws Exception {
+		boolean tagBrowsing = Util.isTagBrowsing(context);
+		String cacheName = getCacheName(context, tagBrowsing ? "album" : "directory", entry.getId());
+		if(FileUtil.deserialize(context, cacheName, MusicDirectory.class) != null) {
+			return false;
+		}
+
+		if(tagBrowsing) {
+			fetchAlbum(entry.getId(), entry.getTitle(), false, context, null);
+		} else {
+			fetchMusicDirectory(entry.getId(), entry.getTitle(), false, context, null);
+		}
+		return true;
+	}
+
 	@Override
     public SearchResult search(SearchCritera criteria, Context context, ProgressListener progressListener) throws Exception {
-        return musicService.search(criteria, context, progressListener);
+		SearchResult result = musicService.search(criteria, context, progressListener);
+		SearchIndex.getInstance().add(context, result);
+		return result;
     }
 
     @Override
@@ -336,7 +452,7 @@ public class CachedMusicService implements MusicService {
 		if(dir == null) {
 			dir = musicService.getPlaylist(refresh, id, name, context, progressListener);
 			updateAllSongs(context, dir);
-			FileUtil.serialize(context, dir, getCacheName(context, "playlist", id));
+			FileUtil.serialize(context, dir, getCacheName(context, "playlist", id), musicService.getInstance(context));
 
 			File playlistFile = FileUtil.getPlaylistFile(context, Util.getServerName(context, musicService.getInstance(context)), dir.getName());
 			if(cachedPlaylist == null || !playlistFile.exists() || !cachedPlaylist.getChildren().equals(dir.getChildren())) {
@@ -377,7 +493,7 @@ public class CachedMusicService implements MusicService {
         	
         	if(result == null) {
 	        	result = musicService.getPlaylists(refresh, context, progressListener);
-	        	FileUtil.serialize(context, new ArrayList<Playlist>(result), getCacheName(context, "playlist"));
+	        	FileUtil.serialize(context, new ArrayList<Playlist>(result), getCacheName(context, "playlist"), musicService.getInstance(context));
         	}
             cachedPlaylists.set(result);
         }
@@ -387,7 +503,7 @@ public class CachedMusicService implements MusicService {
     @Override
     public void createPlaylist(String id, String name, List<Entry> entries, Context context, ProgressListener progressListener) throws Exception {
 		cachedPlaylists.clear();
-		Util.delete(new File(context.getCacheDir(), getCacheName(context, "playlist")));
+		FileUtil.deleteSerialized(context, getCacheName(context, "playlist"));
         musicService.createPlaylist(id, name, entries, context, progressListener);
     }
 	
@@ -570,7 +686,7 @@ public class CachedMusicService implements MusicService {
 									// Only save if actually added to artist
 									if (changed) {
 										musicDirectory.replaceChildren(objects);
-										FileUtil.serialize(context, musicDirectory, cacheName);
+										FileUtil.serialize(context, musicDirectory, cacheName, musicService.getInstance(context));
 									}
 								}
 							}.execute();
@@ -600,7 +716,7 @@ public class CachedMusicService implements MusicService {
 								public void save(ArrayList<Artist> objects) {
 									if (changed) {
 										indexes.setArtists(objects);
-										FileUtil.serialize(context, indexes, cacheName);
+										FileUtil.serialize(context, indexes, cacheName, musicService.getInstance(context));
 										cachedIndexes.set(indexes);
 									}
 								}
@@ -613,10 +729,11 @@ public class CachedMusicService implements MusicService {
 				while (recents.size() > 0) {
 					recents.remove(0);
 				}
-				FileUtil.serialize(context, recents, recentlyAddedFile);
+				FileUtil.serialize(context, recents, recentlyAddedFile, musicService.getInstance(context));
 			}
 
-			FileUtil.serialize(context, dir, getCacheName(context, type, Integer.toString(offset)));
+			FileUtil.serialize(context, dir, getCacheName(context, type, Integer.toString(offset)), musicService.getInstance(context));
+			SearchIndex.getInstance().add(context, dir);
 			return dir;
 		} catch(IOException e) {
 			Log.w(TAG, "Failed to refresh album list: ", e);
@@ -644,7 +761,8 @@ public class CachedMusicService implements MusicService {
 	public MusicDirectory getAlbumList(String type, String extra, int size, int offset, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
 		try {
 			MusicDirectory dir = musicService.getAlbumList(type, extra, size, offset, refresh, context, progressListener);
-			FileUtil.serialize(context, dir, getCacheName(context, type + extra, Integer.toString(offset)));
+			FileUtil.serialize(context, dir, getCacheName(context, type + extra, Integer.toString(offset)), musicService.getInstance(context));
+			SearchIndex.getInstance().add(context, dir);
 			return dir;
 		} catch(IOException e) {
 			Log.w(TAG, "Failed to refresh album list: ", e);
@@ -708,6 +826,7 @@ public class CachedMusicService implements MusicService {
 				new StarUpdater(context, totalList).execute();
 			}
 			FileUtil.serialize(context, dir, "starred");
+			SearchIndex.getInstance().add(context, dir);
 
 			return dir;
 		} catch(IOException e) {
@@ -731,18 +850,51 @@ public class CachedMusicService implements MusicService {
 	}
 
 	@Override
-    public Bitmap getCoverArt(Context context, Entry entry, int size, ProgressListener progressListener, SilentBackgroundTask task) throws Exception {
+    public Bitmap getCoverArt(final Context context, final Entry entry, int size, final ProgressListener progressListener, final SilentBackgroundTask task) throws Exception {
 		Bitmap bitmap = FileUtil.getAlbumArtBitmap(context, entry, size);
 		if (bitmap != null) {
 			return bitmap;
+		}
+
+		// Download the full size art once no matter how many sizes are being asked for at the same time and scale locally
+		coverArtRequests.execute(getCacheName(context, "coverArt", entry.getCoverArt()), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				musicService.getCoverArt(context, entry, 0, progressListener, task);
+				return null;
+			}
+		});
+
+		bitmap = FileUtil.getAlbumArtBitmap(context, entry, size);
+		if(bitmap != null || (task != null && task.isCancelled())) {
+			return bitmap;
 		} else {
 			return musicService.getCoverArt(context, entry, size, progressListener, task);
 		}
     }
 
+	/**
+	 * Download the full size cover art ahead of it being shown
+	 * @return Whether it had to be downloaded, false if it was already saved
+	 */
+	public boolean prefetchCoverArt(final Context context, final Entry entry) throws Exception {
+		if(FileUtil.getAlbumArtFile(context, entry).exists()) {
+			return false;
+		}
+
+		coverArtRequests.execute(getCacheName(context, "coverArt", entry.getCoverArt()), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				musicService.getCoverArt(context, entry, 0, null, null);
+				return null;
+			}
+		});
+		return true;
+	}
+
     @Override
-    public HttpURLConnection getDownloadInputStream(Context context, Entry song, long offset, int maxBitrate, SilentBackgroundTask task) throws Exception {
-        return musicService.getDownloadInputStream(context, song, offset, maxBitrate, task);
+    public HttpURLConnection getDownloadInputStream(Context context, Entry song, long offset, long end, int maxBitrate, SilentBackgroundTask task) throws Exception {
+        return musicService.getDownloadInputStream(context, song, offset, end, maxBitrate, task);
     }
 
 	@Override
@@ -854,7 +1006,7 @@ public class CachedMusicService implements MusicService {
 
 		if(result == null) {
 			result = musicService.getGenres(refresh, context, progressListener);
-			FileUtil.serialize(context, new ArrayList<Genre>(result), getCacheName(context, "genre"));
+			FileUtil.serialize(context, new ArrayList<Genre>(result), getCacheName(context, "genre"), musicService.getInstance(context));
 		}
 
 		return result;
@@ -864,7 +1016,7 @@ public class CachedMusicService implements MusicService {
 	public MusicDirectory getSongsByGenre(String genre, int count, int offset, Context context, ProgressListener progressListener) throws Exception {
 		try {
 			MusicDirectory dir = musicService.getSongsByGenre(genre, count, offset, context, progressListener);
-			FileUtil.serialize(context, dir, getCacheName(context, "genreSongs", Integer.toString(offset)));
+			FileUtil.serialize(context, dir, getCacheName(context, "genreSongs", Integer.toString(offset)), musicService.getInstance(context));
 
 			return dir;
 		} catch(IOException e) {
@@ -901,7 +1053,7 @@ public class CachedMusicService implements MusicService {
 			
 			if(result == null) {
 				result = musicService.getPodcastChannels(refresh, context, progressListener);
-				FileUtil.serialize(context, new ArrayList<PodcastChannel>(result), getCacheName(context, "podcast"));
+				FileUtil.serialize(context, new ArrayList<PodcastChannel>(result), getCacheName(context, "podcast"), musicService.getInstance(context));
 			}
 			cachedPodcastChannels.set(result);
 		}
@@ -921,7 +1073,7 @@ public class CachedMusicService implements MusicService {
 		if(result == null) {
 			result = musicService.getPodcastEpisodes(refresh, id, context, progressListener);
 			updateAllSongs(context, result);
-			FileUtil.serialize(context, result, getCacheName(context, "directory", altId));
+			FileUtil.serialize(context, result, getCacheName(context, "directory", altId), musicService.getInstance(context));
 		}
 
 		return result;
@@ -934,7 +1086,7 @@ public class CachedMusicService implements MusicService {
 		String cacheName = getCacheName(context, "newestPodcastEpisodes");
 		try {
 			result = musicService.getNewestPodcastEpisodes(refresh, context, progressListener, count);
-			FileUtil.serialize(context, result, cacheName);
+			FileUtil.serialize(context, result, cacheName, musicService.getInstance(context));
 		} catch(IOException e) {
 			result = FileUtil.deserialize(context, cacheName, MusicDirectory.class, 24);
 		} finally {
@@ -1071,7 +1223,7 @@ public class CachedMusicService implements MusicService {
 
 		try {
 			result = musicService.getUser(refresh, username, context, progressListener);
-			FileUtil.serialize(context, result, getCacheName(context, "user-" + username));
+			FileUtil.serialize(context, result, getCacheName(context, "user-" + username), musicService.getInstance(context));
 		} catch(Exception e) {
 			// Don't care
 		}
@@ -1093,7 +1245,7 @@ public class CachedMusicService implements MusicService {
 
 		if(result == null) {
 			result = musicService.getUsers(refresh, context, progressListener);
-			FileUtil.serialize(context, new ArrayList<User>(result), getCacheName(context, "users"));
+			FileUtil.serialize(context, new ArrayList<User>(result), getCacheName(context, "users"), musicService.getInstance(context));
 		}
 
 		return result;
@@ -1170,8 +1322,8 @@ public class CachedMusicService implements MusicService {
 	}
 
 	@Override
-	public ArtistInfo getArtistInfo(String id, boolean refresh, boolean allowNetwork, Context context, ProgressListener progressListener) throws Exception {
-		String cacheName = getCacheName(context, "artistInfo", id);
+	public ArtistInfo getArtistInfo(final String id, final boolean refresh, final boolean allowNetwork, final Context context, final ProgressListener progressListener) throws Exception {
+		final String cacheName = getCacheName(context, "artistInfo", id);
 		ArtistInfo info = null;
 		if(!refresh) {
 			info = FileUtil.deserialize(context, cacheName, ArtistInfo.class, CACHED_LAST_FM);
@@ -1179,8 +1331,14 @@ public class CachedMusicService implements MusicService {
 
 		if(info == null && allowNetwork) {
 			try {
-				info = musicService.getArtistInfo(id, refresh, allowNetwork, context, progressListener);
-				FileUtil.serialize(context, info, cacheName);
+				info = artistInfoRequests.execute(cacheName, new Callable<ArtistInfo>() {
+					@Override
+					public ArtistInfo call() throws Exception {
+						ArtistInfo result = musicService.getArtistInfo(id, refresh, allowNetwork, context, progressListener);
+						FileUtil.serialize(context, result, cacheName, musicService.getInstance(context));
+						return result;
+					}
+				});
 			} catch(Exception e) {
 				Log.w(TAG, "Failed to refresh Artist Info");
 				info = FileUtil.deserialize(context, cacheName, ArtistInfo.class);
@@ -1242,7 +1400,7 @@ public class CachedMusicService implements MusicService {
 
 		if(result == null) {
 			result = musicService.getInternetRadioStations(refresh, context, progressListener);
-			FileUtil.serialize(context, new ArrayList<>(result), getCacheName(context, "internetRadioStations"));
+			FileUtil.serialize(context, new ArrayList<>(result), getCacheName(context, "internetRadioStations"), musicService.getInstance(context));
 		}
 
 		return result;
@@ -1267,6 +1425,59 @@ public class CachedMusicService implements MusicService {
   		return name + "-" + s.hashCode() + ".ser";
   	}
 
+	/**
+	 * Whether a copy loaded from the cache needs to be checked against the server.  It doesn't if it was saved recently and
+	 * the library hasn't changed since then, or if too many checks have been started recently.
+	 */
+	private boolean shouldRevalidate(Context context, String cacheName, long freshFor) {
+		Pair<Long, Long> info = CacheStore.getStore(context).getInfo(cacheName);
+		long now = System.currentTimeMillis();
+
+		synchronized(this) {
+			if(info != null && info.getFirst() > libraryChanged && now - info.getFirst() < freshFor) {
+				onRevalidateSkipped(getStoredSize(context, cacheName, info));
+				return false;
+			}
+
+			if(now - revalidateWindowStart > REVALIDATE_WINDOW) {
+				revalidateWindowStart = now;
+				revalidateWindowCount = 0;
+			}
+			if(revalidateWindowCount >= REVALIDATE_BUDGET) {
+				// Left stale until the next time it is opened
+				deferredCount++;
+				return false;
+			}
+
+			revalidateWindowCount++;
+			revalidatedCount++;
+			return true;
+		}
+	}
+	private synchronized void onRevalidateSkipped(long bytes) {
+		skippedCount++;
+		skippedBytes += bytes;
+
+		if(skippedCount % LOG_REVALIDATE_STATS_EVERY == 0) {
+			Log.i(TAG, "Skipped " + skippedCount + " refreshes saving " + Util.formatBytes(skippedBytes) + ", refreshed " + revalidatedCount + ", deferred " + deferredCount + " over budget");
+		}
+	}
+	private synchronized void onLibraryChanged() {
+		libraryChanged = System.currentTimeMillis();
+	}
+	private long getStoredSize(Context context, String cacheName, Pair<Long, Long> info) {
+		if(info != null && info.getSecond() > 0) {
+			return info.getSecond();
+		} else {
+			return new File(context.getCacheDir(), cacheName).length();
+		}
+	}
+
+	// An empty list with the same lastModified is what the server sends back when nothing changed since ifModifiedSince
+	private boolean isUnmodified(Indexes result, Indexes cached) {
+		return result.getArtists().isEmpty() && result.getShortcuts().isEmpty() && result.getEntries().isEmpty() && result.getLastModified() <= cached.getLastModified();
+	}
+
 	private void deleteRemovedEntries(Context context, MusicDirectory dir, MusicDirectory cached) {
 		if(cached != null) {
 			List<Entry> oldList = new ArrayList<Entry>();
@@ -1314,7 +1525,7 @@ public class CachedMusicService implements MusicService {
   		public abstract boolean checkResult(T check);
   		public abstract void updateResult(List<T> objects, T result);
 		public void save(ArrayList<T> objects) {
-			FileUtil.serialize(context, objects, cacheName);
+			FileUtil.serialize(context, objects, cacheName, musicService.getInstance(context));
 		}
   		
   		public void execute() {
@@ -1391,7 +1602,7 @@ public class CachedMusicService implements MusicService {
 		}
 		public void save(ArrayList<Entry> objects) {
 			musicDirectory.replaceChildren(objects);
-			FileUtil.serialize(context, musicDirectory, cacheName);
+			FileUtil.serialize(context, musicDirectory, cacheName, musicService.getInstance(context));
 		}
 	}
 	private abstract class PlaylistDirectoryUpdater {
@@ -1630,7 +1841,7 @@ public class CachedMusicService implements MusicService {
 
 		public void save(ArrayList<Artist> objects) {
 			indexes.setArtists(objects);
-			FileUtil.serialize(context, indexes, cacheName);
+			FileUtil.serialize(context, indexes, cacheName, musicService.getInstance(context));
 			cachedIndexes.set(indexes);
 		}
 	}
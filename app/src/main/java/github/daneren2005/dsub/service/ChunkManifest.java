@@ -0,0 +1,281 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+
+package github.daneren2005.dsub.service;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+
+import github.daneren2005.dsub.util.Util;
+
+/**
+ * Sidecar kept next to a partial file while it is downloaded in fixed size ranges.  The partial file itself only ever holds
+ * the ranges from the start of the song which are known to be complete, so it is always safe to play.  Ranges fetched
+ * ahead of that are kept in their own files until everything before them is done.
+ */
+public class ChunkManifest {
+	private static final String TAG = ChunkManifest.class.getSimpleName();
+	private static final int VERSION = 1;
+	// Keep the names containing .partial. so CacheCleaner treats them the same as the partial file
+	private static final String MANIFEST_SUFFIX = ".chunks";
+	private static final String CHUNK_SUFFIX = ".chunk";
+
+	private final File partialFile;
+	private final File manifestFile;
+	private final long totalSize;
+	private final int chunkSize;
+	// Bytes at the start of the partial file which are known to be good
+	private long verified;
+	// Ranges past verified that have been written to their own files
+	private final BitSet done = new BitSet();
+	// Ranges past verified that someone is downloading right now
+	private final BitSet claimed = new BitSet();
+	private boolean stopped = false;
+	private boolean deleted = false;
+
+	private ChunkManifest(File partialFile, long totalSize, int chunkSize) {
+		this.partialFile = partialFile;
+		this.manifestFile = getManifestFile(partialFile);
+		this.totalSize = totalSize;
+		this.chunkSize = chunkSize;
+	}
+
+	public static ChunkManifest create(File partialFile, long totalSize, int chunkSize) throws IOException {
+		delete(partialFile);
+
+		ChunkManifest manifest = new ChunkManifest(partialFile, totalSize, chunkSize);
+		manifest.trim();
+		manifest.save();
+		return manifest;
+	}
+
+	/**
+	 * @return Manifest for the partial file, or null if it was not being downloaded in ranges
+	 */
+	public static ChunkManifest load(File partialFile) {
+		File manifestFile = getManifestFile(partialFile);
+		if(!manifestFile.exists()) {
+			return null;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(manifestFile));
+			if(in.readInt() != VERSION) {
+				delete(partialFile);
+				return null;
+			}
+
+			ChunkManifest manifest = new ChunkManifest(partialFile, in.readLong(), in.readInt());
+			manifest.verified = in.readLong();
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				int index = in.readInt();
+
+				// Only trust ranges that made it to disk in full
+				File chunkFile = manifest.getChunkFile(index);
+				if(chunkFile.length() == manifest.getChunkEnd(index) - manifest.getChunkStart(index)) {
+					manifest.done.set(index);
+				} else {
+					Util.delete(chunkFile);
+				}
+			}
+
+			// Anything written past the last complete range might be cut off part way through
+			manifest.verified = Math.min(manifest.verified, partialFile.length() / manifest.chunkSize * manifest.chunkSize);
+			manifest.trim();
+			return manifest;
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to read " + manifestFile, e);
+			delete(partialFile);
+			return null;
+		} finally {
+			Util.close(in);
+		}
+	}
+
+	public synchronized void save() {
+		if(deleted) {
+			return;
+		}
+
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new FileOutputStream(manifestFile));
+			out.writeInt(VERSION);
+			out.writeLong(totalSize);
+			out.writeInt(chunkSize);
+			out.writeLong(verified);
+			out.writeInt(done.cardinality());
+			for(int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1)) {
+				out.writeInt(i);
+			}
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to save " + manifestFile, e);
+		} finally {
+			Util.close(out);
+		}
+	}
+
+	/**
+	 * Cut the partial file back to the ranges that are known to be complete
+	 */
+	public synchronized void trim() throws IOException {
+		if(partialFile.length() != verified) {
+			RandomAccessFile file = new RandomAccessFile(partialFile, "rw");
+			try {
+				file.setLength(verified);
+			} finally {
+				file.close();
+			}
+		}
+	}
+
+	public synchronized boolean isComplete() {
+		return verified >= totalSize;
+	}
+	public synchronized long getVerified() {
+		return verified;
+	}
+	public long getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * @return Index of the range that has to be added to the partial file next
+	 */
+	public synchronized int getNextChunk() {
+		return (int) (verified / chunkSize);
+	}
+	public long getChunkStart(int index) {
+		return (long) index * chunkSize;
+	}
+	public long getChunkEnd(int index) {
+		return Math.min(totalSize, getChunkStart(index) + chunkSize);
+	}
+	public File getChunkFile(int index) {
+		return new File(partialFile.getPath() + CHUNK_SUFFIX + index);
+	}
+
+	/**
+	 * Mark the next range as added to the partial file
+	 */
+	public synchronized void setChunkVerified(int index) {
+		verified = getChunkEnd(index);
+		done.clear(index);
+		Util.delete(getChunkFile(index));
+		save();
+		notifyAll();
+	}
+
+	/**
+	 * Claim the first range within lookAhead of the next one which is not already done or being downloaded
+	 * @return Index of the range, or -1 if there is nothing left to claim
+	 */
+	public synchronized int claimAhead(int lookAhead) throws InterruptedException {
+		int lastChunk = (int) ((totalSize - 1) / chunkSize);
+		while(!stopped && !deleted) {
+			int next = getNextChunk();
+			int last = Math.min(next + lookAhead, lastChunk);
+			for(int i = next + 1; i <= last; i++) {
+				if(!done.get(i) && !claimed.get(i)) {
+					claimed.set(i);
+					return i;
+				}
+			}
+
+			if(last == lastChunk) {
+				return -1;
+			}
+
+			// Don't get any further ahead until the partial file catches up
+			wait();
+		}
+		return -1;
+	}
+	public synchronized void release(int index, boolean success) {
+		claimed.clear(index);
+		if(success) {
+			done.set(index);
+			save();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Wait for someone else to finish the range if it has been claimed
+	 * @return Whether the range is sitting in its own file ready to be added to the partial file
+	 */
+	public synchronized boolean waitForChunk(int index) throws InterruptedException {
+		while(claimed.get(index)) {
+			wait();
+		}
+		return done.get(index);
+	}
+	/**
+	 * Forget a range whose file turned out to be missing or the wrong size
+	 */
+	public synchronized void discardChunk(int index) {
+		done.clear(index);
+		Util.delete(getChunkFile(index));
+		save();
+	}
+
+	/**
+	 * Stop handing out ranges to download ahead
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		notifyAll();
+	}
+
+	/**
+	 * Remove the manifest and any ranges fetched ahead, leaving the partial file alone
+	 */
+	public synchronized void delete() {
+		deleted = true;
+		for(int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1)) {
+			Util.delete(getChunkFile(i));
+		}
+		Util.delete(manifestFile);
+		notifyAll();
+	}
+	public static void delete(File partialFile) {
+		Util.delete(getManifestFile(partialFile));
+
+		final String prefix = partialFile.getName() + CHUNK_SUFFIX;
+		File parent = partialFile.getParentFile();
+		File[] chunkFiles = parent == null ? null : parent.listFiles();
+		if(chunkFiles != null) {
+			for(File chunkFile: chunkFiles) {
+				if(chunkFile.getName().startsWith(prefix)) {
+					Util.delete(chunkFile);
+				}
+			}
+		}
+	}
+
+	public static File getManifestFile(File partialFile) {
+		return new File(partialFile.getPath() + MANIFEST_SUFFIX);
+	}
+}
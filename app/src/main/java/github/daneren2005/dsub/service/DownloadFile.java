@@ -19,12 +19,15 @@
 package github.daneren2005.dsub.service;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.content.Context;
 import android.net.wifi.WifiManager;
@@ -38,11 +41,21 @@ import github.daneren2005.dsub.util.SilentBackgroundTask;
 import github.daneren2005.dsub.util.FileUtil;
 import github.daneren2005.dsub.util.Util;
 import github.daneren2005.dsub.util.CacheCleaner;
+import github.daneren2005.dsub.util.SongDBHandler;
+import github.daneren2005.dsub.util.tags.BastpUtil;
+import github.daneren2005.dsub.view.UpdateView;
 import github.daneren2005.serverproxy.BufferFile;
 
 public class DownloadFile implements BufferFile {
     private static final String TAG = DownloadFile.class.getSimpleName();
     private static final int MAX_FAILURES = 5;
+	// Files the server will hand out in pieces are fetched a range at a time so a failure only has to redo that range
+	private static final int CHUNK_SIZE = 1024 * 1024;
+	private static final int MAX_CHUNK_ATTEMPTS = 3;
+	// Large files like videos and long podcasts get a few more connections fetching ranges ahead
+	private static final long PARALLEL_CHUNKS_MIN_SIZE = 32L * 1024 * 1024;
+	private static final int MAX_PARALLEL_CHUNKS = 3;
+	private static final int CHUNK_LOOK_AHEAD = 8;
     private final Context context;
     private final MusicDirectory.Entry song;
     private final File partialFile;
@@ -61,6 +74,10 @@ public class DownloadFile implements BufferFile {
 	private Long contentLength = null;
 	private long currentSpeed = 0;
 	private boolean rateLimit = false;
+	// How far the partial file has been written while a download is copying into it, -1 otherwise
+	private volatile long bufferedPosition = -1;
+	private volatile int bufferedWaiters = 0;
+	private final Object bufferedLock = new Object();
 
     public DownloadFile(Context context, MusicDirectory.Entry song, boolean save) {
         this.context = context;
@@ -155,6 +172,41 @@ public class DownloadFile implements BufferFile {
 		return currentSpeed;
 	}
 
+	/**
+	 * Wait for the download to write past position, or just sleep for timeout if nothing is being downloaded right now
+	 * @return Whether the byte at position has been written
+	 */
+	public boolean waitForBuffered(long position, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		synchronized (bufferedLock) {
+			bufferedWaiters++;
+			try {
+				long remaining = timeout;
+				while(remaining > 0) {
+					long buffered = bufferedPosition;
+					if(buffered > position) {
+						return true;
+					}
+
+					bufferedLock.wait(remaining);
+					remaining = end - System.currentTimeMillis();
+				}
+				return false;
+			} finally {
+				bufferedWaiters--;
+			}
+		}
+	}
+	private void setBufferedPosition(long position) {
+		bufferedPosition = position;
+		// Only pay for the lock when BufferTask is actually waiting on this download
+		if(bufferedWaiters > 0) {
+			synchronized (bufferedLock) {
+				bufferedLock.notifyAll();
+			}
+		}
+	}
+
     public synchronized void download() {
     	rateLimit = false;
         preDownload();
@@ -177,6 +229,7 @@ public class DownloadFile implements BufferFile {
 			bitRate = getActualBitrate();
 		}
 		downloadTask = new DownloadTask(context);
+		notifyUpdate();
     }
 
     public synchronized void cancelDownload() {
@@ -227,6 +280,24 @@ public class DownloadFile implements BufferFile {
     public synchronized boolean isWorkDone() {
         return saveFile.exists() || (completeFile.exists() && !save) || saveWhenDone || completeWhenDone;
     }
+	/**
+	 * Same as isWorkDone but answered from the in memory cache index, for views which check a lot of songs at once.  Goes
+	 * to disk like isWorkDone until the index has been loaded.
+	 */
+	public synchronized boolean isWorkDoneIndexed() {
+		SongDBHandler dbHandler = SongDBHandler.getHandler(context);
+		if(!dbHandler.hasCachedFilePaths()) {
+			return isWorkDone();
+		}
+		return dbHandler.isCachedFile(saveFile) || (dbHandler.isCachedFile(completeFile) && !save) || saveWhenDone || completeWhenDone;
+	}
+	public boolean isSavedIndexed() {
+		SongDBHandler dbHandler = SongDBHandler.getHandler(context);
+		if(!dbHandler.hasCachedFilePaths()) {
+			return isSaved();
+		}
+		return dbHandler.isCachedFile(saveFile);
+	}
 
 	@Override
 	public void onStart() {
@@ -275,7 +346,9 @@ public class DownloadFile implements BufferFile {
         Util.delete(partialFile);
         Util.delete(completeFile);
         Util.delete(saveFile);
+		ChunkManifest.delete(partialFile);
 		FileUtil.deleteEmptyDir(parent);
+		deleteFromCacheIndex(completeFile, saveFile);
     }
 
     public void unpin() {
@@ -283,6 +356,7 @@ public class DownloadFile implements BufferFile {
         	// Delete old store entry before renaming to pinned file
             saveFile.renameTo(completeFile);
 			renameInStore(saveFile, completeFile);
+			renameInCacheIndex(saveFile, completeFile);
         }
     }
 
@@ -290,9 +364,11 @@ public class DownloadFile implements BufferFile {
         boolean ok = true;
         if (completeFile.exists() || saveFile.exists()) {
             ok = Util.delete(partialFile);
+			ChunkManifest.delete(partialFile);
         }
-        if (saveFile.exists()) {
+        if (saveFile.exists() && completeFile.exists()) {
             ok &= Util.delete(completeFile);
+			deleteFromCacheIndex(completeFile);
         }
         return ok;
     }
@@ -306,10 +382,19 @@ public class DownloadFile implements BufferFile {
 
     private void updateModificationDate(File file) {
         if (file.exists()) {
-            boolean ok = file.setLastModified(System.currentTimeMillis());
+			long now = System.currentTimeMillis();
+            boolean ok = file.setLastModified(now);
             if (!ok) {
                 Log.w(TAG, "Failed to set last-modified date on " + file);
             }
+
+			if(file != partialFile) {
+				try {
+					SongDBHandler.getHandler(context).setCachedFileAccessed(file, now);
+				} catch(Exception e) {
+					Log.w(TAG, "Failed to update cache index", e);
+				}
+			}
         }
     }
 	
@@ -318,14 +403,17 @@ public class DownloadFile implements BufferFile {
 			if(saveWhenDone && !isPlaying) {
 				Util.renameFile(completeFile, saveFile);
 				renameInStore(completeFile, saveFile);
+				renameInCacheIndex(completeFile, saveFile);
 				saveWhenDone = false;
 			} else if(completeWhenDone && !isPlaying) {
 				if(save) {
 					Util.renameFile(partialFile, saveFile);
                     saveToStore();
+					addToCacheIndex(saveFile);
 				} else {
 					Util.renameFile(partialFile, completeFile);
 					saveToStore();
+					addToCacheIndex(completeFile);
 				}
 				completeWhenDone = false;
 			}
@@ -339,6 +427,7 @@ public class DownloadFile implements BufferFile {
 		try {
 			Util.renameFile(partialFile, completeFile);
 			saveToStore();
+			addToCacheIndex(completeFile);
 		} catch(IOException ex) {
 			Log.w(TAG, "Failed to rename file " + partialFile + " to " + completeFile, ex);
 		}
@@ -371,6 +460,45 @@ public class DownloadFile implements BufferFile {
 		}
 	}
 
+	private void addToCacheIndex(File file) {
+		try {
+			SongDBHandler dbHandler = SongDBHandler.getHandler(context);
+			dbHandler.addCachedFile(file, file == saveFile);
+			dbHandler.addOfflineSong(file, song, true);
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to add to cache index", e);
+		}
+		notifyUpdate();
+	}
+	private void scanReplayGain(File target) {
+		// Parse tags now while we are already on a background thread so track changes only have to look them up
+		try {
+			BastpUtil.scanReplayGainValues(context, partialFile, target, true);
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to scan replay gain for " + song, e);
+		}
+	}
+	private void renameInCacheIndex(File start, File end) {
+		try {
+			SongDBHandler.getHandler(context).renameCachedFile(start, end, end == saveFile);
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to rename in cache index", e);
+		}
+		notifyUpdate();
+	}
+	private void deleteFromCacheIndex(File... files) {
+		try {
+			SongDBHandler.getHandler(context).removeCachedFiles(files);
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to remove from cache index", e);
+		}
+		notifyUpdate();
+	}
+	private void notifyUpdate() {
+		// Album rows show whether anything under them is cached so let them know too
+		UpdateView.triggerUpdate(song.getId(), song.getParent(), song.getAlbumId());
+	}
+
 	public boolean isStream() {
 		return song != null && song instanceof InternetRadioStation;
 	}
@@ -404,11 +532,19 @@ public class DownloadFile implements BufferFile {
 
     private class DownloadTask extends SilentBackgroundTask<Void> {
 		private MusicService musicService;
+		// Whatever copy is reading from, so the one watchdog thread for this download can close it when cancelled
+		private volatile InputStream copyStream;
+		private volatile boolean watching = false;
 
 		public DownloadTask(Context context) {
 			super(context);
 		}
 
+		@Override
+		protected Lane getLane() {
+			return Lane.DOWNLOAD;
+		}
+
         @Override
         public Void doInBackground() throws InterruptedException {
             InputStream in = null;
@@ -438,6 +574,7 @@ public class DownloadFile implements BufferFile {
 						} else {
 							Util.renameFile(completeFile, saveFile);
 							renameInStore(completeFile, saveFile);
+							renameInCacheIndex(completeFile, saveFile);
 						}
                     } else {
                         Log.i(TAG, completeFile + " already exists. Skipping.");
@@ -457,26 +594,49 @@ public class DownloadFile implements BufferFile {
 				} catch(Exception e) {
 					compare = true;
 				}
-				if(compare) {
-					// Attempt partial HTTP GET, appending to the file if it exists.
-					HttpURLConnection connection = musicService.getDownloadInputStream(context, song, partialFile.length(), bitRate, DownloadTask.this);
-					long contentLength = connection.getContentLength();
-					if(contentLength > 0) {
-						Log.i(TAG, "Content Length: " + contentLength);
-						DownloadFile.this.contentLength = contentLength;
+				// Ranges which are known to be complete beat guessing from how large the file is
+				ChunkManifest manifest = ChunkManifest.load(partialFile);
+				if(manifest != null || compare) {
+					HttpURLConnection connection = null;
+					if(manifest == null) {
+						// Ask for just the first range to see whether the server will hand the file out in pieces
+						boolean tryChunks = partialFile.length() == 0 && isRangeSafe();
+						connection = musicService.getDownloadInputStream(context, song, partialFile.length(), tryChunks ? CHUNK_SIZE - 1 : -1, bitRate, DownloadTask.this);
+						if(tryChunks) {
+							long totalSize = getTotalSize(connection);
+							if(totalSize > 0 && (song.isVideo() || song.getSize() == null || song.getSize() == totalSize)) {
+								manifest = ChunkManifest.create(partialFile, totalSize, CHUNK_SIZE);
+							} else if(connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+								// Only got a piece without knowing what it is a piece of, go back for the whole thing
+								connection.disconnect();
+								connection = musicService.getDownloadInputStream(context, song, 0, -1, bitRate, DownloadTask.this);
+							}
+						}
 					}
 
-					in = connection.getInputStream();
-					boolean partial = connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
-					if (partial) {
-						Log.i(TAG, "Executed partial HTTP GET, skipping " + partialFile.length() + " bytes");
-					}
+					if(manifest != null) {
+						downloadChunks(musicService, manifest, connection);
+					} else {
+						// Attempt partial HTTP GET, appending to the file if it exists.
+						long contentLength = connection.getContentLength();
+						if(contentLength > 0) {
+							Log.i(TAG, "Content Length: " + contentLength);
+							DownloadFile.this.contentLength = contentLength;
+						}
 
-					out = new FileOutputStream(partialFile, partial);
-					long n = copy(in, out);
-					Log.i(TAG, "Downloaded " + n + " bytes to " + partialFile);
-					out.flush();
-					out.close();
+						in = connection.getInputStream();
+						boolean partial = connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+						if (partial) {
+							Log.i(TAG, "Executed partial HTTP GET, skipping " + partialFile.length() + " bytes");
+						}
+
+						setBufferedPosition(partial ? partialFile.length() : 0);
+						out = new FileOutputStream(partialFile, partial);
+						long n = copy(in, out);
+						Log.i(TAG, "Downloaded " + n + " bytes to " + partialFile);
+						out.flush();
+						out.close();
+					}
 
 					if (isCancelled()) {
 						throw new Exception("Download of '" + song + "' was cancelled");
@@ -485,6 +645,7 @@ public class DownloadFile implements BufferFile {
 					}
 
 					downloadAndSaveCoverArt(musicService);
+					scanReplayGain(save ? saveFile : completeFile);
 				}
 
 				if(isPlaying) {
@@ -492,8 +653,10 @@ public class DownloadFile implements BufferFile {
 				} else {
 					if(save) {
 						Util.renameFile(partialFile, saveFile);
+						addToCacheIndex(saveFile);
 					} else {
 						Util.renameFile(partialFile, completeFile);
+						addToCacheIndex(completeFile);
 					}
 					DownloadFile.this.saveToStore();
 				}
@@ -524,8 +687,10 @@ public class DownloadFile implements BufferFile {
                     Log.w(TAG, "Failed to download '" + song + "'.", x);
                 }
             } finally {
+				watching = false;
                 Util.close(in);
                 Util.close(out);
+				setBufferedPosition(-1);
                 if (wakeLock != null) {
                     wakeLock.release();
                     Log.i(TAG, "Released wake lock " + wakeLock);
@@ -533,6 +698,7 @@ public class DownloadFile implements BufferFile {
 				if (wifiLock != null) {
 					wifiLock.release();
 				}
+				notifyUpdate();
 			}
 			
 			// Only run these if not interrupted, ie: cancelled
@@ -575,62 +741,297 @@ public class DownloadFile implements BufferFile {
             }
         }
 
+		private boolean isRangeSafe() {
+			// Pieces of a transcoded stream aren't guaranteed to line up from one request to the next
+			if(song.isVideo()) {
+				return "raw".equals(Util.getVideoPlayerType(context));
+			}
+
+			String transcodedSuffix = song.getTranscodedSuffix();
+			boolean sameFormat = transcodedSuffix == null || transcodedSuffix.equals(song.getSuffix());
+			return sameFormat && song.getBitRate() != null && (bitRate == 0 || bitRate >= song.getBitRate());
+		}
+
+		/**
+		 * @return Size of the whole file from the Content-Range of a partial response, or -1 if it isn't known
+		 */
+		private long getTotalSize(HttpURLConnection connection) throws IOException {
+			if(connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+				return -1;
+			}
+
+			String range = connection.getHeaderField("Content-Range");
+			int slash = range == null ? -1 : range.lastIndexOf('/');
+			if(slash == -1) {
+				return -1;
+			}
+
+			try {
+				return Long.parseLong(range.substring(slash + 1).trim());
+			} catch(NumberFormatException e) {
+				// bytes 0-1023/*
+				return -1;
+			}
+		}
+
+		private void downloadChunks(MusicService musicService, ChunkManifest manifest, HttpURLConnection connection) throws Exception {
+			DownloadFile.this.contentLength = manifest.getTotalSize();
+			Log.i(TAG, "Downloading " + song + " in ranges, " + manifest.getVerified() + " of " + manifest.getTotalSize() + " bytes already done");
+
+			List<ChunkWorker> workers = new ArrayList<ChunkWorker>();
+			if(manifest.getTotalSize() >= PARALLEL_CHUNKS_MIN_SIZE) {
+				for(int i = 1; i < MAX_PARALLEL_CHUNKS; i++) {
+					ChunkWorker worker = new ChunkWorker(musicService, manifest);
+					workers.add(worker);
+					worker.start();
+				}
+			}
+
+			setBufferedPosition(manifest.getVerified());
+			OutputStream out = new FileOutputStream(partialFile, true);
+			int attempts = 0;
+			try {
+				while(!manifest.isComplete() && !isCancelled()) {
+					int index = manifest.getNextChunk();
+					long start = manifest.getChunkStart(index);
+					long end = manifest.getChunkEnd(index);
+					File chunkFile = manifest.getChunkFile(index);
+
+					InputStream in = null;
+					try {
+						if(manifest.waitForChunk(index) && chunkFile.length() == end - start) {
+							// Already fetched ahead of time
+							in = new FileInputStream(chunkFile);
+						} else {
+							if(connection == null) {
+								connection = musicService.getDownloadInputStream(context, song, start, end - 1, bitRate, DownloadTask.this);
+							}
+							if(connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+								// Go back to downloading it the normal way next time
+								manifest.delete();
+								throw new Exception("Server stopped returning ranges of " + song);
+							}
+							in = connection.getInputStream();
+						}
+
+						copy(in, out);
+						if(partialFile.length() != end) {
+							throw new IOException("Got " + (partialFile.length() - start) + " of " + (end - start) + " bytes at " + start);
+						}
+						manifest.setChunkVerified(index);
+						attempts = 0;
+					} catch(IOException e) {
+						if(isCancelled()) {
+							break;
+						} else if(++attempts >= MAX_CHUNK_ATTEMPTS) {
+							throw e;
+						}
+						Log.w(TAG, "Retrying bytes " + start + "-" + end + " of " + song, e);
+
+						// Throw away whatever part of the range made it and start it over from the server
+						Util.close(out);
+						manifest.discardChunk(index);
+						manifest.trim();
+						out = new FileOutputStream(partialFile, true);
+						setBufferedPosition(manifest.getVerified());
+					} finally {
+						Util.close(in);
+						if(connection != null) {
+							connection.disconnect();
+							connection = null;
+						}
+					}
+				}
+			} finally {
+				manifest.stop();
+				Util.close(out);
+				stopWorkers(workers);
+			}
+
+			if(manifest.isComplete()) {
+				if(partialFile.length() != manifest.getTotalSize()) {
+					throw new IOException("Downloaded " + partialFile.length() + " bytes of " + song + " but expected " + manifest.getTotalSize());
+				}
+				manifest.delete();
+			}
+		}
+
+		/**
+		 * Wait for the workers to finish whatever range they are on, cutting them off first if the download was cancelled
+		 */
+		private void stopWorkers(List<ChunkWorker> workers) {
+			if(isCancelled()) {
+				for(ChunkWorker worker: workers) {
+					worker.disconnect();
+				}
+			}
+
+			try {
+				for(ChunkWorker worker: workers) {
+					worker.join();
+				}
+			} catch(InterruptedException e) {
+				for(ChunkWorker worker: workers) {
+					worker.disconnect();
+				}
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Extra connection which downloads ranges ahead of the one being added to the partial file into their own files
+		 */
+		private class ChunkWorker extends Thread {
+			private final MusicService musicService;
+			private final ChunkManifest manifest;
+			// Range being fetched right now, so the download can cut it off
+			private volatile HttpURLConnection connection;
+
+			public ChunkWorker(MusicService musicService, ChunkManifest manifest) {
+				super("DownloadFile_chunk");
+				this.musicService = musicService;
+				this.manifest = manifest;
+			}
+
+			@Override
+			public void run() {
+				try {
+					int index;
+					while(!isCancelled() && (index = manifest.claimAhead(CHUNK_LOOK_AHEAD)) != -1) {
+						boolean success = false;
+						for(int i = 0; i < MAX_CHUNK_ATTEMPTS && !success && !isCancelled(); i++) {
+							success = downloadChunk(index);
+						}
+						manifest.release(index, success);
+
+						// Leave whatever is left to the main download
+						if(!success) {
+							return;
+						}
+					}
+				} catch(InterruptedException e) {
+					Log.w(TAG, "Interrupted while waiting for a range of " + song);
+				}
+			}
+
+			private boolean downloadChunk(int index) {
+				long start = manifest.getChunkStart(index);
+				long end = manifest.getChunkEnd(index);
+				File chunkFile = manifest.getChunkFile(index);
+
+				HttpURLConnection connection = null;
+				InputStream in = null;
+				OutputStream out = null;
+				try {
+					connection = musicService.getDownloadInputStream(context, song, start, end - 1, bitRate, DownloadTask.this);
+					this.connection = connection;
+					if(connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+						return false;
+					}
+
+					in = connection.getInputStream();
+					out = new FileOutputStream(chunkFile);
+					byte[] buffer = new byte[1024 * 16];
+					int n;
+					while(!isCancelled() && (n = in.read(buffer)) != -1) {
+						out.write(buffer, 0, n);
+					}
+					out.close();
+
+					return chunkFile.length() == end - start;
+				} catch(Exception e) {
+					Log.w(TAG, "Failed to download bytes " + start + "-" + end + " of " + song, e);
+					return false;
+				} finally {
+					Util.close(in);
+					Util.close(out);
+					if(connection != null) {
+						this.connection = null;
+						connection.disconnect();
+					}
+				}
+			}
+
+			public void disconnect() {
+				HttpURLConnection connection = this.connection;
+				if(connection != null) {
+					connection.disconnect();
+				}
+			}
+		}
+
         private long copy(final InputStream in, OutputStream out) throws IOException, InterruptedException {
 
             // Start a thread that will close the input stream if the task is
-            // cancelled, thus causing the copy() method to return.
-            new Thread("DownloadFile_copy") {
-                @Override
-                public void run() {
-                    while (true) {
-                        Util.sleepQuietly(3000L);
-                        if (isCancelled()) {
-                            Util.close(in);
-                            return;
-                        }
-                        if (!isRunning()) {
-                            return;
-                        }
-                    }
-                }
-            }.start();
-
-            byte[] buffer = new byte[1024 * 16];
-            long count = 0;
-            int n;
-            long lastLog = System.currentTimeMillis();
-			long lastCount = 0;
-
-			boolean activeLimit = rateLimit;
-            while (!isCancelled() && (n = in.read(buffer)) != -1) {
-                out.write(buffer, 0, n);
-                count += n;
-				lastCount += n;
-
-                long now = System.currentTimeMillis();
-                if (now - lastLog > 3000L) {  // Only every so often.
-                    Log.i(TAG, "Downloaded " + Util.formatBytes(count) + " of " + song);
-					currentSpeed = lastCount / ((now - lastLog) / 1000L);
-                    lastLog = now;
-					lastCount = 0;
-					
-					// Re-establish every few seconds whether screen is on or not
-					if(rateLimit) {
-						PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-						if(pm.isScreenOn()) {
-							activeLimit = true;
-						} else {
-							activeLimit = false;
+            // cancelled, thus causing the copy() method to return.  Only one for the
+            // whole download, however many ranges get copied.
+			copyStream = in;
+			if(!watching) {
+				watching = true;
+				new Thread("DownloadFile_copy") {
+					@Override
+					public void run() {
+						while (watching) {
+							Util.sleepQuietly(3000L);
+							if (isCancelled()) {
+								Util.close(copyStream);
+								return;
+							}
+							if (!isRunning()) {
+								return;
+							}
 						}
 					}
-                }
-                
-                // If screen is on and rateLimit is true, stop downloading from exhausting bandwidth
-                if(activeLimit) {
-                	Thread.sleep(10L);
-                }
-            }
-            return count;
+				}.start();
+			}
+
+			try {
+				byte[] buffer = new byte[1024 * 16];
+				long count = 0;
+				int n;
+				long lastLog = System.currentTimeMillis();
+				long lastUpdate = lastLog;
+				long lastCount = 0;
+
+				boolean activeLimit = rateLimit;
+				while (!isCancelled() && (n = in.read(buffer)) != -1) {
+					out.write(buffer, 0, n);
+					setBufferedPosition(bufferedPosition + n);
+					count += n;
+					lastCount += n;
+
+					long now = System.currentTimeMillis();
+					if(now - lastUpdate > 1000L) {
+						// Keep the percentage shown on the song rows moving
+						notifyUpdate();
+						lastUpdate = now;
+					}
+					if (now - lastLog > 3000L) {  // Only every so often.
+						Log.i(TAG, "Downloaded " + Util.formatBytes(count) + " of " + song);
+						currentSpeed = lastCount / ((now - lastLog) / 1000L);
+						lastLog = now;
+						lastCount = 0;
+
+						// Re-establish every few seconds whether screen is on or not
+						if(rateLimit) {
+							PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+							if(pm.isScreenOn()) {
+								activeLimit = true;
+							} else {
+								activeLimit = false;
+							}
+						}
+					}
+
+					// If screen is on and rateLimit is true, stop downloading from exhausting bandwidth
+					if(activeLimit) {
+						Thread.sleep(10L);
+					}
+				}
+				return count;
+			} finally {
+				copyStream = null;
+			}
         }
     }
 }
@@ -0,0 +1,255 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+
+package github.daneren2005.dsub.service;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * List of DownloadFiles which keeps track of where each one is and which ones are for each song, so indexOf and looking up
+ * a song don't have to go through the whole queue.  Adding or removing at either end keeps the index up to date, anything
+ * else just marks it to be rebuilt the next time it is needed.  Changes are made under DownloadService's lock, but anything
+ * else can read it through {@link #getSnapshot()} without waiting on that.
+ */
+public class DownloadQueue extends AbstractList<DownloadFile> implements RandomAccess {
+	// Don't bother moving everything down until at least this many have been removed from the front
+	private static final int MIN_COMPACT = 16;
+
+	private final ArrayList<DownloadFile> items = new ArrayList<DownloadFile>();
+	// Slots at the start of items which have been removed but not cleared out yet
+	private int head = 0;
+
+	// Position in items of the first time each file shows up
+	private final IdentityHashMap<DownloadFile, Integer> positions = new IdentityHashMap<DownloadFile, Integer>();
+	// Every file for each song id, in queue order
+	private final Map<String, List<DownloadFile>> songs = new HashMap<String, List<DownloadFile>>();
+	private boolean indexValid = true;
+	// Whether the same file is in here more than once, which the cheap updates can't keep track of
+	private boolean duplicates = false;
+	// Read only copy handed out to other threads, cleared whenever the queue changes
+	private volatile List<DownloadFile> snapshot;
+
+	@Override
+	public synchronized DownloadFile get(int index) {
+		checkIndex(index, size());
+		return items.get(head + index);
+	}
+
+	@Override
+	public synchronized int size() {
+		return items.size() - head;
+	}
+
+	@Override
+	public synchronized void add(int index, DownloadFile file) {
+		int size = size();
+		checkIndex(index, size + 1);
+
+		if(index == size) {
+			items.add(file);
+			if(indexValid) {
+				addToIndex(file, items.size() - 1);
+			}
+		} else if(index == 0 && head > 0) {
+			head--;
+			items.set(head, file);
+			if(indexValid) {
+				if(positions.containsKey(file)) {
+					duplicates = true;
+				}
+				positions.put(file, head);
+				getSongList(file).add(0, file);
+			}
+		} else {
+			items.add(head + index, file);
+			indexValid = false;
+		}
+		modCount++;
+		snapshot = null;
+	}
+
+	@Override
+	public synchronized DownloadFile set(int index, DownloadFile file) {
+		checkIndex(index, size());
+		DownloadFile old = items.set(head + index, file);
+		if(old != file) {
+			indexValid = false;
+			snapshot = null;
+		}
+		return old;
+	}
+
+	@Override
+	public synchronized DownloadFile remove(int index) {
+		int size = size();
+		checkIndex(index, size);
+
+		DownloadFile file;
+		if(index == 0) {
+			file = items.set(head, null);
+			head++;
+			if(indexValid) {
+				removeFromIndex(file, true);
+			}
+
+			if(head >= MIN_COMPACT && head > items.size() / 2) {
+				items.subList(0, head).clear();
+				head = 0;
+				indexValid = false;
+			}
+		} else if(index == size - 1) {
+			file = items.remove(items.size() - 1);
+			if(indexValid) {
+				removeFromIndex(file, false);
+			}
+		} else {
+			file = items.remove(head + index);
+			indexValid = false;
+		}
+		modCount++;
+		snapshot = null;
+
+		if(size == 1) {
+			clear();
+		}
+		return file;
+	}
+
+	@Override
+	public synchronized boolean remove(Object o) {
+		int index = indexOf(o);
+		if(index == -1) {
+			return false;
+		}
+
+		remove(index);
+		return true;
+	}
+
+	@Override
+	public synchronized void clear() {
+		items.clear();
+		head = 0;
+		positions.clear();
+		songs.clear();
+		indexValid = true;
+		duplicates = false;
+		modCount++;
+		snapshot = null;
+	}
+
+	@Override
+	public synchronized int indexOf(Object o) {
+		if(!(o instanceof DownloadFile)) {
+			return super.indexOf(o);
+		}
+
+		checkIndexValid();
+		Integer position = positions.get(o);
+		return position == null ? -1 : position - head;
+	}
+
+	@Override
+	public synchronized boolean contains(Object o) {
+		return indexOf(o) != -1;
+	}
+
+	/**
+	 * @return Every file in the queue for the song with this id, in queue order
+	 */
+	public synchronized List<DownloadFile> getSongFiles(String id) {
+		checkIndexValid();
+		List<DownloadFile> files = songs.get(id);
+		return files == null ? Collections.<DownloadFile>emptyList() : Collections.unmodifiableList(files);
+	}
+
+	/**
+	 * @return Copy of the queue as it is right now which is safe to use from any thread.  The same copy is reused until the
+	 * queue changes, so this is normally just a field read.
+	 */
+	public List<DownloadFile> getSnapshot() {
+		List<DownloadFile> current = snapshot;
+		if(current == null) {
+			synchronized(this) {
+				current = snapshot;
+				if(current == null) {
+					current = Collections.unmodifiableList(new ArrayList<DownloadFile>(items.subList(head, items.size())));
+					snapshot = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	private void addToIndex(DownloadFile file, int position) {
+		if(positions.containsKey(file)) {
+			duplicates = true;
+		} else {
+			positions.put(file, position);
+		}
+		getSongList(file).add(file);
+	}
+	private void removeFromIndex(DownloadFile file, boolean first) {
+		if(duplicates) {
+			indexValid = false;
+			return;
+		}
+
+		positions.remove(file);
+		List<DownloadFile> files = songs.get(file.getSong().getId());
+		if(files != null) {
+			files.remove(first ? 0 : files.size() - 1);
+			if(files.isEmpty()) {
+				songs.remove(file.getSong().getId());
+			}
+		}
+	}
+	private List<DownloadFile> getSongList(DownloadFile file) {
+		String id = file.getSong().getId();
+		List<DownloadFile> files = songs.get(id);
+		if(files == null) {
+			files = new ArrayList<DownloadFile>(1);
+			songs.put(id, files);
+		}
+		return files;
+	}
+
+	private void checkIndexValid() {
+		if(indexValid) {
+			return;
+		}
+
+		positions.clear();
+		songs.clear();
+		duplicates = false;
+		indexValid = true;
+		for(int i = head; i < items.size(); i++) {
+			addToIndex(items.get(i), i);
+		}
+	}
+
+	private static void checkIndex(int index, int size) {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+}
@@ -59,15 +59,18 @@ import github.daneren2005.dsub.view.UpdateView;
 import github.daneren2005.serverproxy.BufferProxy;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.annotation.TargetApi;
 import android.app.Service;
@@ -86,6 +89,7 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.support.v7.media.MediaRouteSelector;
 import android.support.v7.media.MediaRouter;
 import android.util.Log;
@@ -110,6 +114,7 @@ public class DownloadService extends Service {
 	private static final long DEFAULT_DELAY_UPDATE_PROGRESS = 1000L;
 	private static final double DELETE_CUTOFF = 0.84;
 	private static final int REQUIRED_ALBUM_MATCHES = 4;
+	private static final int REPLAY_GAIN_SCAN_AHEAD = 10;
 	private static final int REMOTE_PLAYLIST_TOTAL = 3;
 	private static final int SHUFFLE_MODE_NONE = 0;
 	private static final int SHUFFLE_MODE_ALL = 1;
@@ -125,12 +130,12 @@ public class DownloadService extends Service {
 
 	private final IBinder binder = new SimpleServiceBinder<>(this);
 	private Looper mediaPlayerLooper;
-	private MediaPlayer mediaPlayer;
+	private volatile MediaPlayer mediaPlayer;
 	private MediaPlayer nextMediaPlayer;
 	private int audioSessionId;
 	private boolean nextSetup = false;
-	private final List<DownloadFile> downloadList = new ArrayList<DownloadFile>();
-	private final List<DownloadFile> backgroundDownloadList = new ArrayList<DownloadFile>();
+	private final DownloadQueue downloadList = new DownloadQueue();
+	private final DownloadQueue backgroundDownloadList = new DownloadQueue();
 	private final List<DownloadFile> toDelete = new ArrayList<DownloadFile>();
 	private final Handler handler = new Handler();
 	private Handler mediaPlayerHandler;
@@ -141,35 +146,45 @@ public class DownloadService extends Service {
 	private final LruCache<MusicDirectory.Entry, DownloadFile> downloadFileCache = new LruCache<MusicDirectory.Entry, DownloadFile>(100);
 	private final List<DownloadFile> cleanupCandidates = new ArrayList<DownloadFile>();
 	private final Scrobbler scrobbler = new Scrobbler();
-	private RemoteController remoteController;
-	private DownloadFile currentPlaying;
-	private int currentPlayingIndex = -1;
-	private DownloadFile nextPlaying;
-	private DownloadFile currentDownloading;
+	private volatile RemoteController remoteController;
+	// Written with the service locked, but read from anywhere without it
+	private volatile DownloadFile currentPlaying;
+	private volatile int currentPlayingIndex = -1;
+	private volatile DownloadFile nextPlaying;
+	private final List<DownloadFile> currentDownloading = new CopyOnWriteArrayList<DownloadFile>();
 	private SilentBackgroundTask bufferTask;
 	private SilentBackgroundTask nextPlayingTask;
-	private PlayerState playerState = IDLE;
-	private PlayerState nextPlayerState = IDLE;
+	private volatile PlayerState playerState = IDLE;
+	private volatile PlayerState nextPlayerState = IDLE;
 	private boolean removePlayed;
 	private boolean shufflePlay;
 	private boolean artistRadio;
 	private final List<OnSongChangedListener> onSongChangedListeners = new ArrayList<>();
-	private long revision;
+	private volatile long revision;
+	private final Set<String> replayGainScans = new HashSet<String>();
+	private final AtomicBoolean replayGainScanRunning = new AtomicBoolean(false);
+	private long replayGainScanRevision = -1;
+	private int replayGainScanIndex = -1;
 	private static DownloadService instance;
 	private String suggestedPlaylistName;
 	private String suggestedPlaylistId;
 	private PowerManager.WakeLock wakeLock;
 	private WifiManager.WifiLock wifiLock;
 	private boolean keepScreenOn;
-	private int cachedPosition = 0;
+	private volatile int cachedPosition = 0;
+	// Duration of whatever mediaPlayer has prepared, only set while holding the service lock so readers never touch the player
+	private volatile int cachedDuration = 0;
 	private boolean downloadOngoing = false;
 	private float volume = 1.0f;
 	private long delayUpdateProgress = DEFAULT_DELAY_UPDATE_PROGRESS;
 
 	private AudioEffectsController effectsController;
-	private RemoteControlState remoteState = LOCAL;
+	private volatile RemoteControlState remoteState = LOCAL;
 	private PositionCache positionCache;
 	private BufferProxy proxy;
+	// How long songs take to start playing and how often playback catches up to the download, to see how well buffering works
+	private long playRequestedTime;
+	private int streamUnderruns;
 
 	private Timer sleepTimer;
 	private int timerDuration;
@@ -181,7 +196,14 @@ public class DownloadService extends Service {
 	
 	// Variables to manage getCurrentPosition sometimes starting from an arbitrary non-zero number
 	private long subtractNextPosition = 0;
-	private int subtractPosition = 0;
+	private volatile int subtractPosition = 0;
+
+	// How long the service lock is held for, so anything which makes play/pause wait shows up in the logs
+	private static final long SLOW_LOCK_HOLD = 50L;
+	private static final int LOG_LOCK_STATS_EVERY = 500;
+	private long lockHoldCount = 0;
+	private long lockHoldTotal = 0;
+	private long lockHoldMax = 0;
 
 	@Override
 	public void onCreate() {
@@ -397,6 +419,14 @@ public class DownloadService extends Service {
 		download(songs, save, autoplay, playNext, shuffle, 0, 0);
 	}
 	public synchronized void download(List<MusicDirectory.Entry> songs, boolean save, boolean autoplay, boolean playNext, boolean shuffle, int start, int position) {
+		long lockStart = SystemClock.elapsedRealtime();
+		try {
+			downloadImpl(songs, save, autoplay, playNext, shuffle, start, position);
+		} finally {
+			onLockHeld("download", lockStart);
+		}
+	}
+	private synchronized void downloadImpl(List<MusicDirectory.Entry> songs, boolean save, boolean autoplay, boolean playNext, boolean shuffle, int start, int position) {
 		setShufflePlayEnabled(false);
 		setArtistRadio(null);
 		int offset = 1;
@@ -661,22 +691,19 @@ public class DownloadService extends Service {
 
 	public synchronized DownloadFile forSong(MusicDirectory.Entry song) {
 		DownloadFile returnFile = null;
-		for (DownloadFile downloadFile : downloadList) {
-			if (downloadFile.getSong().equals(song)) {
-				if(((downloadFile.isDownloading() && !downloadFile.isDownloadCancelled() && downloadFile.getPartialFile().exists()) || downloadFile.isWorkDone())) {
-					// If downloading, return immediately
-					return downloadFile;
-				} else {
-					// Otherwise, check to make sure there isn't a background download going on first
-					returnFile = downloadFile;
-				}
-			}
-		}
-		for (DownloadFile downloadFile : backgroundDownloadList) {
-			if (downloadFile.getSong().equals(song)) {
+		for (DownloadFile downloadFile : downloadList.getSongFiles(song.getId())) {
+			if(((downloadFile.isDownloading() && !downloadFile.isDownloadCancelled() && downloadFile.getPartialFile().exists()) || downloadFile.isWorkDone())) {
+				// If downloading, return immediately
 				return downloadFile;
+			} else {
+				// Otherwise, check to make sure there isn't a background download going on first
+				returnFile = downloadFile;
 			}
 		}
+		List<DownloadFile> backgroundFiles = backgroundDownloadList.getSongFiles(song.getId());
+		if(!backgroundFiles.isEmpty()) {
+			return backgroundFiles.get(0);
+		}
 
 		if(returnFile != null) {
 			return returnFile;
@@ -691,9 +718,10 @@ public class DownloadService extends Service {
 	}
 
 	public synchronized void clearBackground() {
-		if(currentDownloading != null && backgroundDownloadList.contains(currentDownloading)) {
-			currentDownloading.cancelDownload();
-			currentDownloading = null;
+		for(DownloadFile downloadFile: currentDownloading) {
+			if(backgroundDownloadList.contains(downloadFile) && !downloadList.contains(downloadFile)) {
+				cancelCurrentDownload(downloadFile);
+			}
 		}
 		backgroundDownloadList.clear();
 		revision++;
@@ -748,7 +776,7 @@ public class DownloadService extends Service {
 		mediaRouter.buildSelector();
 	}
 
-	public synchronized int size() {
+	public int size() {
 		return downloadList.size();
 	}
 
@@ -784,9 +812,10 @@ public class DownloadService extends Service {
 		reset();
 		downloadList.clear();
 		onSongsChanged();
-		if (currentDownloading != null && !backgroundDownloadList.contains(currentDownloading)) {
-			currentDownloading.cancelDownload();
-			currentDownloading = null;
+		for(DownloadFile downloadFile: currentDownloading) {
+			if(!backgroundDownloadList.contains(downloadFile)) {
+				cancelCurrentDownload(downloadFile);
+			}
 		}
 		setCurrentPlaying(null, false);
 
@@ -814,9 +843,8 @@ public class DownloadService extends Service {
 	}
 
 	public synchronized void remove(DownloadFile downloadFile) {
-		if (downloadFile == currentDownloading) {
-			currentDownloading.cancelDownload();
-			currentDownloading = null;
+		if (currentDownloading.contains(downloadFile)) {
+			cancelCurrentDownload(downloadFile);
 		}
 		if (downloadFile == currentPlaying) {
 			reset();
@@ -836,9 +864,8 @@ public class DownloadService extends Service {
 		checkDownloads();
 	}
 	public synchronized void removeBackground(DownloadFile downloadFile) {
-		if (downloadFile == currentDownloading && downloadFile != currentPlaying && downloadFile != nextPlaying) {
-			currentDownloading.cancelDownload();
-			currentDownloading = null;
+		if (currentDownloading.contains(downloadFile) && downloadFile != currentPlaying && downloadFile != nextPlaying) {
+			cancelCurrentDownload(downloadFile);
 		}
 
 		backgroundDownloadList.remove(downloadFile);
@@ -869,6 +896,10 @@ public class DownloadService extends Service {
 	synchronized void setCurrentPlaying(DownloadFile currentPlaying, boolean showNotification) {
 		if(this.currentPlaying != null) {
 			this.currentPlaying.setPlaying(false);
+			UpdateView.triggerUpdate(this.currentPlaying.getSong().getId());
+		}
+		if(currentPlaying != null) {
+			UpdateView.triggerUpdate(currentPlaying.getSong().getId());
 		}
 		if(delayUpdateProgress != DEFAULT_DELAY_UPDATE_PROGRESS && !isNextPlayingSameAlbum(currentPlaying, this.currentPlaying)) {
 //			resetPlaybackSpeed();
@@ -997,7 +1028,28 @@ public class DownloadService extends Service {
 	}
 
 	public DownloadFile getCurrentDownloading() {
-		return currentDownloading;
+		// Highest priority download is always kept at the front of the list
+		try {
+			return currentDownloading.isEmpty() ? null : currentDownloading.get(0);
+		} catch(IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+	public List<DownloadFile> getCurrentDownloads() {
+		return new ArrayList<DownloadFile>(currentDownloading);
+	}
+
+	/**
+	 * Combined speed of all downloads currently running in bytes per second
+	 */
+	public long getDownloadBytesPerSecond() {
+		long total = 0;
+		for(DownloadFile downloadFile: currentDownloading) {
+			if(downloadFile.isDownloading()) {
+				total += downloadFile.getBytesPerSecond();
+			}
+		}
+		return total;
 	}
 
 	public DownloadFile getNextPlaying() {
@@ -1005,7 +1057,7 @@ public class DownloadService extends Service {
 	}
 
 	public List<DownloadFile> getSongs() {
-		return downloadList;
+		return downloadList.getSnapshot();
 	}
 
 	public List<DownloadFile> getToDelete() { return toDelete; }
@@ -1029,15 +1081,15 @@ public class DownloadService extends Service {
 		return size() == 1 || (currentPlaying != null && !currentPlaying.isSong());
 	}
 
-	public synchronized List<DownloadFile> getDownloads() {
+	public List<DownloadFile> getDownloads() {
 		List<DownloadFile> temp = new ArrayList<DownloadFile>();
-		temp.addAll(downloadList);
-		temp.addAll(backgroundDownloadList);
+		temp.addAll(downloadList.getSnapshot());
+		temp.addAll(backgroundDownloadList.getSnapshot());
 		return temp;
 	}
 
 	public List<DownloadFile> getBackgroundDownloads() {
-		return backgroundDownloadList;
+		return backgroundDownloadList.getSnapshot();
 	}
 
 	/** Plays either the current song (resume) or the first/next one in queue. */
@@ -1061,6 +1113,14 @@ public class DownloadService extends Service {
 		play(index, start, 0);
 	}
 	private synchronized void play(int index, boolean start, int position) {
+		long lockStart = SystemClock.elapsedRealtime();
+		try {
+			playImpl(index, start, position);
+		} finally {
+			onLockHeld("play", lockStart);
+		}
+	}
+	private synchronized void playImpl(int index, boolean start, int position) {
 		int size = this.size();
 		cachedPosition = 0;
 		if (index < 0 || index >= size) {
@@ -1121,6 +1181,7 @@ public class DownloadService extends Service {
 		MediaPlayer tmp = mediaPlayer;
 		mediaPlayer = nextMediaPlayer;
 		nextMediaPlayer = tmp;
+		cachedDuration = getMediaPlayerDuration(mediaPlayer);
 		setCurrentPlaying(nextPlaying, true);
 		setPlayerState(PlayerState.STARTED);
 		setupHandlers(currentPlaying, false, start);
@@ -1149,6 +1210,14 @@ public class DownloadService extends Service {
 	}
 
 	public synchronized void seekTo(int position) {
+		long lockStart = SystemClock.elapsedRealtime();
+		try {
+			seekToImpl(position);
+		} finally {
+			onLockHeld("seekTo", lockStart);
+		}
+	}
+	private synchronized void seekToImpl(int position) {
 		if(position < 0) {
 			position = 0;
 		}
@@ -1230,6 +1299,14 @@ public class DownloadService extends Service {
 		next(forceCutoff, false);
 	}
 	public synchronized void next(boolean forceCutoff, boolean forceStart) {
+		long lockStart = SystemClock.elapsedRealtime();
+		try {
+			nextImpl(forceCutoff, forceStart);
+		} finally {
+			onLockHeld("next", lockStart);
+		}
+	}
+	private synchronized void nextImpl(boolean forceCutoff, boolean forceStart) {
 		// If only one song, just skip within song
 		if(shouldFastForward()) {
 			fastForward();
@@ -1366,6 +1443,7 @@ public class DownloadService extends Service {
 			}
 			mediaPlayer.reset();
 			subtractPosition = 0;
+			cachedDuration = 0;
 		} catch (Exception x) {
 			handleError(x);
 		}
@@ -1395,10 +1473,12 @@ public class DownloadService extends Service {
 
 	public int getPlayerPosition() {
 		try {
+			PlayerState playerState = this.playerState;
 			if (playerState == IDLE || playerState == DOWNLOADING || playerState == PREPARING) {
 				return 0;
 			}
-			if (remoteState != LOCAL) {
+			RemoteController remoteController = this.remoteController;
+			if (remoteState != LOCAL && remoteController != null) {
 				return remoteController.getRemotePosition() * 1000;
 			} else {
 				return Math.max(0, cachedPosition - subtractPosition);
@@ -1409,16 +1489,15 @@ public class DownloadService extends Service {
 		}
 	}
 
-	public synchronized int getPlayerDuration() {
+	public int getPlayerDuration() {
+		// Only reads, so take a local copy of everything instead of waiting for the lock
+		PlayerState playerState = this.playerState;
 		if (playerState != IDLE && playerState != DOWNLOADING && playerState != PlayerState.PREPARING) {
 			int duration = 0;
+			RemoteController remoteController = this.remoteController;
 			if(remoteState == LOCAL) {
-				try {
-					duration = mediaPlayer.getDuration();
-				} catch (Exception x) {
-					duration = 0;
-				}
-			} else {
+				duration = cachedDuration;
+			} else if(remoteController != null) {
 				duration = remoteController.getRemoteDuration() * 1000;
 			}
 
@@ -1427,6 +1506,7 @@ public class DownloadService extends Service {
 			}
 		}
 
+		DownloadFile currentPlaying = this.currentPlaying;
 		if (currentPlaying != null) {
 			Integer duration = currentPlaying.getSong().getDuration();
 			if (duration != null) {
@@ -1436,6 +1516,13 @@ public class DownloadService extends Service {
 
 		return 0;
 	}
+	private int getMediaPlayerDuration(MediaPlayer mediaPlayer) {
+		try {
+			return Math.max(0, mediaPlayer.getDuration());
+		} catch (Exception x) {
+			return 0;
+		}
+	}
 
 	public PlayerState getPlayerState() {
 		return playerState;
@@ -1769,9 +1856,9 @@ public class DownloadService extends Service {
 		if (remoteState != LOCAL) {
 			reset();
 
-			// Cancel current download, if necessary.
-			if (currentDownloading != null) {
-				currentDownloading.cancelDownload();
+			// Cancel current downloads, if necessary.
+			for(DownloadFile downloadFile: currentDownloading) {
+				cancelCurrentDownload(downloadFile);
 			}
 
 			// Cancels current setup tasks
@@ -1856,6 +1943,8 @@ public class DownloadService extends Service {
 		bufferAndPlay(position, true);
 	}
 	private synchronized void bufferAndPlay(int position, boolean start) {
+		playRequestedTime = System.currentTimeMillis();
+		streamUnderruns = 0;
 		if(!currentPlaying.isCompleteFileAvailable() && !currentPlaying.isStream()) {
 			if(Util.isAllowedToDownload(this)) {
 				reset();
@@ -1877,6 +1966,7 @@ public class DownloadService extends Service {
 			mediaPlayer.setOnPreparedListener(null);
 			mediaPlayer.setOnErrorListener(null);
 			mediaPlayer.reset();
+			cachedDuration = 0;
 			setPlayerState(IDLE);
 			try {
 				mediaPlayer.setAudioSessionId(audioSessionId);
@@ -1912,6 +2002,7 @@ public class DownloadService extends Service {
 
 			mediaPlayer.setDataSource(dataSource);
 			setPlayerState(PREPARING);
+			final boolean streaming = isPartial;
 
 			mediaPlayer.setOnBufferingUpdateListener(new MediaPlayer.OnBufferingUpdateListener() {
 				public void onBufferingUpdate(MediaPlayer mp, int percent) {
@@ -1928,6 +2019,7 @@ public class DownloadService extends Service {
 						setPlayerState(PREPARED);
 
 						synchronized (DownloadService.this) {
+							cachedDuration = getMediaPlayerDuration(mediaPlayer);
 							if (position != 0) {
 								Log.i(TAG, "Restarting player from position " + position);
 								mediaPlayer.seekTo(position);
@@ -1941,6 +2033,11 @@ public class DownloadService extends Service {
 								applyPlaybackParamsMain();
 								setPlayerState(STARTED);
 
+								if(playRequestedTime > 0) {
+									Log.i(TAG, "Time to first audio: " + (System.currentTimeMillis() - playRequestedTime) + " ms" + (streaming ? " from partial file" : ""));
+									playRequestedTime = 0;
+								}
+
 								// Disable autoPlayStart after done
 								autoPlayStart = false;
 							} else {
@@ -2065,6 +2162,8 @@ public class DownloadService extends Service {
 							downloadFile.setPlaying(true);
 						} else {
 							Log.i(TAG, "Requesting restart from " + pos + " of " + duration);
+							onStreamUnderrun(downloadFile);
+							playRequestedTime = System.currentTimeMillis();
 							reset();
 							bufferTask = new BufferTask(downloadFile, pos, true);
 							bufferTask.execute();
@@ -2074,6 +2173,20 @@ public class DownloadService extends Service {
 				}
 			}
 		});
+
+		mediaPlayer.setOnInfoListener(new MediaPlayer.OnInfoListener() {
+			@Override
+			public boolean onInfo(MediaPlayer mediaPlayer, int what, int extra) {
+				if(what == MediaPlayer.MEDIA_INFO_BUFFERING_START && isPartial) {
+					onStreamUnderrun(downloadFile);
+				}
+				return false;
+			}
+		});
+	}
+	private void onStreamUnderrun(DownloadFile downloadFile) {
+		streamUnderruns++;
+		Log.w(TAG, "Playback caught up to the download " + streamUnderruns + " times for " + downloadFile);
 	}
 
 	public void setSleepTimerDuration(int duration){
@@ -2137,6 +2250,14 @@ public class DownloadService extends Service {
 		swap(mainList, list.indexOf(from), list.indexOf(to));
 	}
 	public synchronized void swap(boolean mainList, int from, int to) {
+		long lockStart = SystemClock.elapsedRealtime();
+		try {
+			swapImpl(mainList, from, to);
+		} finally {
+			onLockHeld("swap", lockStart);
+		}
+	}
+	private synchronized void swapImpl(boolean mainList, int from, int to) {
 		List<DownloadFile> list = mainList ? downloadList : backgroundDownloadList;
 		int max = list.size();
 		if(to >= max) {
@@ -2161,14 +2282,20 @@ public class DownloadService extends Service {
 		}
 	}
 
-	public synchronized void serializeQueue() {
+	public void serializeQueue() {
 		serializeQueue(true);
 	}
-	public synchronized void serializeQueue(boolean serializeRemote) {
+	public void serializeQueue(boolean serializeRemote) {
 		if(playerState == PlayerState.PAUSED) {
 			lifecycleSupport.serializeDownloadQueue(serializeRemote);
 		}
 	}
+	public void serializeQueue(List<MusicDirectory.Entry> updated) {
+		for(MusicDirectory.Entry entry: updated) {
+			lifecycleSupport.markUpdated(entry);
+		}
+		serializeQueue();
+	}
 
 	private void handleError(Exception x) {
 		Log.w(TAG, "Media player error: " + x, x);
@@ -2191,9 +2318,27 @@ public class DownloadService extends Service {
 		setNextPlayerState(IDLE);
 	}
 
-	public synchronized void checkDownloads() {
+	public void checkDownloads() {
+		boolean checked;
+		DownloadFile playing;
+		Set<DownloadFile> downloading;
+		synchronized(this) {
+			long start = SystemClock.elapsedRealtime();
+			checked = scheduleDownloads();
+			// What is in use right now, so cleanup doesn't need the lock to tell
+			playing = currentPlaying;
+			downloading = new HashSet<DownloadFile>(currentDownloading);
+			onLockHeld("checkDownloads", start);
+		}
+
+		// Delete obsolete .partial and .complete files.  Doesn't need the queue, so don't make everything else wait on it
+		if(checked) {
+			cleanup(playing, downloading);
+		}
+	}
+	private synchronized boolean scheduleDownloads() {
 		if (!Util.isExternalStoragePresent() || !lifecycleSupport.isExternalStorageAvailable()) {
-			return;
+			return false;
 		}
 
 		if(removePlayed) {
@@ -2205,91 +2350,167 @@ public class DownloadService extends Service {
 		if(artistRadio) {
 			checkArtistRadio();
 		}
+		checkReplayGainScan();
 
 		if (!Util.isAllowedToDownload(this)) {
-			return;
+			return false;
 		}
 
 		if (downloadList.isEmpty() && backgroundDownloadList.isEmpty()) {
-			return;
+			return false;
 		}
 		if(currentPlaying != null && currentPlaying.isStream()) {
-			return;
+			return false;
 		}
 
-		// Need to download current playing and not casting?
-		if (currentPlaying != null && remoteState == LOCAL && currentPlaying != currentDownloading && !currentPlaying.isWorkDone()) {
-			// Cancel current download, if necessary.
-			if (currentDownloading != null) {
-				currentDownloading.cancelDownload();
+		// Drop any downloads which have finished since the last check
+		int maxConcurrent = Util.getConcurrentDownloadCount(this);
+		int activeBefore = currentDownloading.size();
+		for(DownloadFile downloadFile: currentDownloading) {
+			if(downloadFile.isWorkDone() || downloadFile.isFailed() || downloadFile.isDownloadCancelled()) {
+				currentDownloading.remove(downloadFile);
 			}
-
-			currentDownloading = currentPlaying;
-			currentDownloading.download();
-			cleanupCandidates.add(currentDownloading);
 		}
 
-		// Find a suitable target for download.
-		else if (currentDownloading == null || currentDownloading.isWorkDone() || currentDownloading.isFailed() && ((!downloadList.isEmpty() && remoteState == LOCAL) || !backgroundDownloadList.isEmpty())) {
-			currentDownloading = null;
-			int n = size();
+		// Need to download current playing and not casting?
+		if (currentPlaying != null && remoteState == LOCAL && !currentPlaying.isWorkDone()) {
+			startPriorityDownload(currentPlaying, maxConcurrent);
+		}
+		// Next playing is just as important for gapless so don't let preloads get in front of it
+		if(nextPlaying != null && remoteState == LOCAL && !nextPlaying.isWorkDone() && !nextPlaying.isFailedMax() && !nextPlaying.isStream()) {
+			if(startPriorityDownload(nextPlaying, maxConcurrent)) {
+				setNextPlayerState(DOWNLOADING);
+			}
+		}
 
+		// Find suitable targets for the remaining download slots
+		boolean pendingPreload = false;
+		int n = size();
+		if(currentDownloading.size() < maxConcurrent && n != 0 && (remoteState == LOCAL || Util.shouldCacheDuringCasting(this))) {
+			int preloadCount = Util.getPreloadCount(this);
 			int preloaded = 0;
 
-			if(n != 0 && (remoteState == LOCAL || Util.shouldCacheDuringCasting(this))) {
-				int start = currentPlaying == null ? 0 : getCurrentPlayingIndex();
-				if(start == -1) {
-					start = 0;
-				}
-				int i = start;
-				do {
-					DownloadFile downloadFile = downloadList.get(i);
-					if (!downloadFile.isWorkDone() && !downloadFile.isFailedMax()) {
-						if (downloadFile.shouldSave() || preloaded < Util.getPreloadCount(this)) {
-							currentDownloading = downloadFile;
-							currentDownloading.download();
-							cleanupCandidates.add(currentDownloading);
-							if(i == (start + 1)) {
-								setNextPlayerState(DOWNLOADING);
-							}
+			int start = currentPlaying == null ? 0 : getCurrentPlayingIndex();
+			if(start == -1) {
+				start = 0;
+			}
+			int i = start;
+			do {
+				DownloadFile downloadFile = downloadList.get(i);
+				if (!downloadFile.isWorkDone() && !downloadFile.isFailedMax()) {
+					if(currentDownloading.contains(downloadFile)) {
+						if(currentPlaying != downloadFile) {
+							preloaded++;
+						}
+					} else if (downloadFile.shouldSave() || preloaded < preloadCount) {
+						if(currentDownloading.size() >= maxConcurrent) {
+							pendingPreload = true;
 							break;
 						}
-					} else if (currentPlaying != downloadFile) {
-						preloaded++;
-					}
 
-					i = (i + 1) % n;
-				} while (i != start);
-			}
-
-			if((preloaded + 1 == n || preloaded >= Util.getPreloadCount(this) || downloadList.isEmpty() || remoteState != LOCAL) && !backgroundDownloadList.isEmpty()) {
-				for(int i = 0; i < backgroundDownloadList.size(); i++) {
-					DownloadFile downloadFile = backgroundDownloadList.get(i);
-					if(downloadFile.isWorkDone() && (!downloadFile.shouldSave() || downloadFile.isSaved()) || downloadFile.isFailedMax()) {
-						// Don't need to keep list like active song list
-						backgroundDownloadList.remove(i);
-						revision++;
-						i--;
-					} else {
-						currentDownloading = downloadFile;
-						currentDownloading.download();
-						cleanupCandidates.add(currentDownloading);
-						break;
+						startDownload(downloadFile);
+						if(i == (start + 1)) {
+							setNextPlayerState(DOWNLOADING);
+						}
+						if(currentPlaying != downloadFile) {
+							preloaded++;
+						}
 					}
+				} else if (currentPlaying != downloadFile) {
+					preloaded++;
+				}
+
+				i = (i + 1) % n;
+			} while (i != start);
+		}
+
+		// Use any slots left over after the play queue is taken care of for background downloads
+		if(!pendingPreload && !backgroundDownloadList.isEmpty()) {
+			for(int i = 0; i < backgroundDownloadList.size() && currentDownloading.size() < maxConcurrent; i++) {
+				DownloadFile downloadFile = backgroundDownloadList.get(i);
+				if(downloadFile.isWorkDone() && (!downloadFile.shouldSave() || downloadFile.isSaved()) || downloadFile.isFailedMax()) {
+					// Don't need to keep list like active song list
+					backgroundDownloadList.remove(i);
+					revision++;
+					i--;
+				} else if(!currentDownloading.contains(downloadFile)) {
+					startDownload(downloadFile);
 				}
 			}
 		}
 
+		if(activeBefore != currentDownloading.size()) {
+			Log.i(TAG, "Active downloads: " + currentDownloading.size() + "/" + maxConcurrent + " at " + Util.formatBytes(getDownloadBytesPerSecond()) + "/s");
+		}
+
 		if(!backgroundDownloadList.isEmpty()) {
-			Notifications.showDownloadingNotification(this, this, handler, currentDownloading, backgroundDownloadList.size());
+			Notifications.showDownloadingNotification(this, this, handler, getCurrentDownloading(), backgroundDownloadList.size());
 			downloadOngoing = true;
 		} else if(backgroundDownloadList.isEmpty() && downloadOngoing) {
 			Notifications.hideDownloadingNotification(this, this, handler);
 			downloadOngoing = false;
 		}
 
-		// Delete obsolete .partial and .complete files.
-		cleanup();
+		return true;
+	}
+
+	private void startDownload(DownloadFile downloadFile) {
+		currentDownloading.add(downloadFile);
+		downloadFile.download();
+		addCleanupCandidate(downloadFile);
+	}
+	private void addCleanupCandidate(DownloadFile downloadFile) {
+		synchronized(cleanupCandidates) {
+			cleanupCandidates.add(downloadFile);
+		}
+	}
+	private boolean startPriorityDownload(DownloadFile downloadFile, int maxConcurrent) {
+		if(currentDownloading.contains(downloadFile)) {
+			// Move to the front of the list so it is reported as the primary download
+			currentDownloading.remove(downloadFile);
+			currentDownloading.add(Math.min(getDownloadPriority(downloadFile), currentDownloading.size()), downloadFile);
+			return false;
+		}
+
+		// Pause the least important download to make room.  It will pick back up from its partial file later
+		while(currentDownloading.size() >= maxConcurrent) {
+			DownloadFile lowest = null;
+			int lowestPriority = -1;
+			for(DownloadFile active: currentDownloading) {
+				int priority = getDownloadPriority(active);
+				if(priority >= lowestPriority) {
+					lowest = active;
+					lowestPriority = priority;
+				}
+			}
+
+			if(lowest == null || lowestPriority <= getDownloadPriority(downloadFile)) {
+				// Everything running is at least as important
+				return false;
+			}
+			Log.i(TAG, "Pausing download of " + lowest + " for " + downloadFile);
+			cancelCurrentDownload(lowest);
+		}
+
+		currentDownloading.add(Math.min(getDownloadPriority(downloadFile), currentDownloading.size()), downloadFile);
+		downloadFile.download();
+		addCleanupCandidate(downloadFile);
+		return true;
+	}
+	private int getDownloadPriority(DownloadFile downloadFile) {
+		if(downloadFile == currentPlaying) {
+			return 0;
+		} else if(downloadFile == nextPlaying) {
+			return 1;
+		} else if(downloadList.contains(downloadFile)) {
+			return 2;
+		} else {
+			return 3;
+		}
+	}
+	private void cancelCurrentDownload(DownloadFile downloadFile) {
+		downloadFile.cancelDownload();
+		currentDownloading.remove(downloadFile);
 	}
 
 	private synchronized void checkRemovePlayed() {
@@ -2397,18 +2618,38 @@ public class DownloadService extends Service {
 		return revision;
 	}
 
-	private synchronized void cleanup() {
-		Iterator<DownloadFile> iterator = cleanupCandidates.iterator();
-		while (iterator.hasNext()) {
-			DownloadFile downloadFile = iterator.next();
-			if (downloadFile != currentPlaying && downloadFile != currentDownloading) {
-				if (downloadFile.cleanup()) {
-					iterator.remove();
+	// Deletes files so only keeps cleanupCandidates locked instead of the whole service
+	private void cleanup(DownloadFile playing, Set<DownloadFile> downloading) {
+		synchronized(cleanupCandidates) {
+			Iterator<DownloadFile> iterator = cleanupCandidates.iterator();
+			while (iterator.hasNext()) {
+				DownloadFile downloadFile = iterator.next();
+				if (downloadFile != playing && !downloading.contains(downloadFile)) {
+					if (downloadFile.cleanup()) {
+						iterator.remove();
+					}
 				}
 			}
 		}
 	}
 
+	/**
+	 * Keep track of how long the service lock was held for.  Has to be called with it still held.
+	 */
+	private void onLockHeld(String name, long start) {
+		long held = SystemClock.elapsedRealtime() - start;
+		lockHoldCount++;
+		lockHoldTotal += held;
+		lockHoldMax = Math.max(lockHoldMax, held);
+
+		if(held >= SLOW_LOCK_HOLD) {
+			Log.w(TAG, name + " held the service lock for " + held + "ms");
+		}
+		if(lockHoldCount % LOG_LOCK_STATS_EVERY == 0) {
+			Log.i(TAG, "Service lock held " + lockHoldCount + " times for an average of " + (lockHoldTotal / lockHoldCount) + "ms, max " + lockHoldMax + "ms");
+		}
+	}
+
 	public void postPlayCleanup() {
 		postPlayCleanup(currentPlaying);
 	}
@@ -2588,7 +2829,12 @@ public class DownloadService extends Service {
 		try {
 			float adjust = 0f;
 			if (prefs.getBoolean(Constants.PREFERENCES_KEY_REPLAY_GAIN, false)) {
-				float[] rg = BastpUtil.getReplayGainValues(downloadFile.getFile().getCanonicalPath()); /* track, album */
+				float[] rg = BastpUtil.getCachedReplayGainValues(this, downloadFile.getFile()); /* track, album, track peak, album peak */
+				if(rg == null) {
+					// Play it untagged for the moment rather than read the header on this thread, scan will fix it up when done
+					scanReplayGain(downloadFile);
+					rg = new float[] {0f, 0f, 0f, 0f};
+				}
 				boolean singleAlbum = false;
 				
 				String replayGainType = prefs.getString(Constants.PREFERENCES_KEY_REPLAY_GAIN_TYPE, "1");
@@ -2657,10 +2903,118 @@ public class DownloadService extends Service {
 				rg_result = 0.0f;
 			}
 			mediaPlayer.setVolume(rg_result, rg_result);
-		} catch(IOException e) {
+		} catch(Exception e) {
 			Log.w(TAG, "Failed to apply replay gain values", e);
 		}
 	}
+	private void scanReplayGain(final DownloadFile downloadFile) {
+		final File file = downloadFile.getFile();
+		synchronized (replayGainScans) {
+			if(!replayGainScans.add(file.getAbsolutePath())) {
+				return;
+			}
+		}
+
+		new SilentBackgroundTask<Void>(this) {
+			@Override
+			protected Lane getLane() {
+				// Someone is listening to this right now
+				return Lane.INTERACTIVE;
+			}
+
+			@Override
+			protected Void doInBackground() throws Throwable {
+				try {
+					BastpUtil.scanReplayGainValues(DownloadService.this, file, file, !file.equals(downloadFile.getPartialFile()));
+				} finally {
+					synchronized (replayGainScans) {
+						replayGainScans.remove(file.getAbsolutePath());
+					}
+				}
+				return null;
+			}
+
+			@Override
+			protected void done(Void result) {
+				synchronized (DownloadService.this) {
+					if(downloadFile == currentPlaying && mediaPlayer != null) {
+						applyReplayGain(mediaPlayer, downloadFile);
+					} else if(downloadFile == nextPlaying && nextMediaPlayer != null && nextPlayerState == PREPARED) {
+						applyReplayGain(nextMediaPlayer, downloadFile);
+					}
+				}
+			}
+
+			@Override
+			protected void error(Throwable error) {
+				Log.w(TAG, "Failed to scan replay gain for " + file, error);
+			}
+		}.execute();
+	}
+	private void checkReplayGainScan() {
+		// Only worth looking again once the queue or position has changed
+		int index = getCurrentPlayingIndex();
+		if(replayGainScanRunning.get() || (replayGainScanRevision == revision && replayGainScanIndex == index) || !Util.getPreferences(this).getBoolean(Constants.PREFERENCES_KEY_REPLAY_GAIN, false)) {
+			return;
+		}
+		replayGainScanRevision = revision;
+		replayGainScanIndex = index;
+
+		final List<DownloadFile> upcoming = new ArrayList<DownloadFile>();
+		for(int i = Math.max(index, 0); i < downloadList.size() && upcoming.size() < REPLAY_GAIN_SCAN_AHEAD; i++) {
+			DownloadFile downloadFile = downloadList.get(i);
+			if(!downloadFile.isStream()) {
+				upcoming.add(downloadFile);
+			}
+		}
+		if(upcoming.isEmpty()) {
+			return;
+		}
+
+		// Read in tags for anything coming up which finished downloading before the tag cache existed
+		if(!replayGainScanRunning.compareAndSet(false, true)) {
+			return;
+		}
+		new SilentBackgroundTask<Void>(this) {
+			@Override
+			protected Void doInBackground() throws Throwable {
+				try {
+					int scanned = 0;
+					for(DownloadFile downloadFile: upcoming) {
+						if(isCancelled()) {
+							break;
+						} else if(!downloadFile.isCompleteFileAvailable()) {
+							continue;
+						}
+
+						File file = downloadFile.getFile();
+						if(BastpUtil.getCachedReplayGainValues(DownloadService.this, file) == null) {
+							BastpUtil.scanReplayGainValues(DownloadService.this, file, file, true);
+							scanned++;
+						}
+					}
+
+					if(scanned > 0) {
+						Log.i(TAG, "Scanned replay gain for " + scanned + " upcoming songs");
+					}
+					return null;
+				} finally {
+					// Cleared here instead of in done so a cancelled scan doesn't block every scan after it
+					replayGainScanRunning.set(false);
+				}
+			}
+
+			@Override
+			protected void error(Throwable error) {
+				Log.w(TAG, "Failed to scan upcoming replay gain", error);
+			}
+
+			@Override
+			protected Lane getLane() {
+				return Lane.BACKGROUND;
+			}
+		}.execute();
+	}
 
 	public void setPlaybackSpeed(float playbackSpeed) {
 		if(currentPlaying.isSong())
@@ -2867,7 +3221,7 @@ public class DownloadService extends Service {
 	private void onSongProgress() {
 		onSongProgress(true);
 	}
-	private synchronized void onSongProgress(boolean manual) {
+	private void onSongProgress(boolean manual) {
 		final long atRevision = revision;
 		final Integer duration = getPlayerDuration();
 		final boolean isSeekable = isSeekable();
@@ -2901,8 +3255,11 @@ public class DownloadService extends Service {
 
 		// Setup next playing at least a couple of seconds into the song since both Chromecast and some DLNA clients report PLAYING when still PREPARING
 		if(position > 2000 && remoteController != null && remoteController.isNextSupported()) {
-			if(playerState == STARTED && nextPlayerState == IDLE) {
-				setNextPlaying();
+			// Checked again under the lock since this runs off of it and the state could change in between
+			synchronized(this) {
+				if(playerState == STARTED && nextPlayerState == IDLE) {
+					setNextPlaying();
+				}
 			}
 		}
 	}
@@ -2972,12 +3329,18 @@ public class DownloadService extends Service {
 			expectedFileSize = (position * bitRate / 8) + byteCount;
 		}
 
+		@Override
+		protected Lane getLane() {
+			return Lane.PLAYBACK;
+		}
+
 		@Override
 		public Void doInBackground() throws InterruptedException {
 			setPlayerState(DOWNLOADING);
 
 			while (!bufferComplete()) {
-				Thread.sleep(1000L);
+				// Woken up as soon as the download gets far enough instead of on the next check
+				downloadFile.waitForBuffered(expectedFileSize - 1, 1000L);
 				if (isCancelled() || downloadFile.isFailedMax()) {
 					return null;
 				} else if(!downloadFile.isFailedMax() && !downloadFile.isDownloading()) {
@@ -3017,6 +3380,11 @@ public class DownloadService extends Service {
 			}
 		}
 
+		@Override
+		protected Lane getLane() {
+			return Lane.PLAYBACK;
+		}
+
 		@Override
 		public Void doInBackground()  throws InterruptedException {
 			if(downloadFile == null) {
@@ -20,7 +20,9 @@ package github.daneren2005.dsub.service;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -44,7 +46,6 @@ import github.daneren2005.dsub.domain.PlayerState;
 import github.daneren2005.dsub.domain.ServerInfo;
 import github.daneren2005.dsub.util.CacheCleaner;
 import github.daneren2005.dsub.util.Constants;
-import github.daneren2005.dsub.util.FileUtil;
 import github.daneren2005.dsub.util.Pair;
 import github.daneren2005.dsub.util.SilentBackgroundTask;
 import github.daneren2005.dsub.util.SongDBHandler;
@@ -71,6 +72,8 @@ public class DownloadServiceLifecycleSupport {
 	private long lastPressTime = 0;
 	private SilentBackgroundTask<Void> currentSavePlayQueueTask = null;
 	private Date lastChange = null;
+	private final PlayerQueueJournal journal;
+	private final Set<MusicDirectory.Entry> updatedEntries = new HashSet<MusicDirectory.Entry>();
 
 	/**
 	 * This receiver manages the intent that could come from other applications.
@@ -105,6 +108,7 @@ public class DownloadServiceLifecycleSupport {
 
 	public DownloadServiceLifecycleSupport(DownloadService downloadService) {
 		this.downloadService = downloadService;
+		this.journal = new PlayerQueueJournal(downloadService);
 	}
 
 	public void onCreate() {
@@ -256,6 +260,7 @@ public class DownloadServiceLifecycleSupport {
 
 	public void onDestroy() {
 		serializeDownloadQueue();
+		SongDBHandler.getHandler(downloadService).flushPlayed();
 		eventLooper.quit();
 		downloadService.unregisterReceiver(ejectEventReceiver);
 		downloadService.unregisterReceiver(intentReceiver);
@@ -308,8 +313,14 @@ public class DownloadServiceLifecycleSupport {
 		}
 		state.changed = lastChange = new Date();
 
+		List<MusicDirectory.Entry> updated;
+		synchronized (updatedEntries) {
+			updated = new ArrayList<MusicDirectory.Entry>(updatedEntries);
+			updatedEntries.clear();
+		}
+
 		Log.i(TAG, "Serialized currentPlayingIndex: " + state.currentPlayingIndex + ", currentPlayingPosition: " + state.currentPlayingPosition);
-		FileUtil.serialize(downloadService, state, FILENAME_DOWNLOADS_SER);
+		journal.save(state, updated);
 
 		// If we are on Subsonic 5.2+, save play queue
 		if(serializeRemote && ServerInfo.canSavePlayQueue(downloadService) && !Util.isOffline(downloadService) && state.songs.size() > 0 && !(state.songs.get(0) instanceof InternetRadioStation)) {
@@ -319,6 +330,11 @@ public class DownloadServiceLifecycleSupport {
 			}
 
 			currentSavePlayQueueTask = new SilentBackgroundTask<Void>(downloadService) {
+				@Override
+				protected Lane getLane() {
+					return Lane.BACKGROUND;
+				}
+
 				@Override
 				protected Void doInBackground() throws Throwable {
 					try {
@@ -332,11 +348,12 @@ public class DownloadServiceLifecycleSupport {
 						MusicDirectory.Entry currentPlaying = state.songs.get(index);
 						List<MusicDirectory.Entry> songs = new ArrayList<>();
 
-						SongDBHandler dbHandler = SongDBHandler.getHandler(downloadService);
-						for(MusicDirectory.Entry song: state.songs) {
-							Pair<Integer, String> onlineSongIds = dbHandler.getOnlineSongId(song);
-							if(onlineSongIds != null && onlineSongIds.getSecond() != null) {
-								song.setId(onlineSongIds.getSecond());
+						List<Pair<Integer, String>> onlineSongIds = SongDBHandler.getHandler(downloadService).getOnlineSongIds(state.songs);
+						for(int i = 0; i < state.songs.size(); i++) {
+							Pair<Integer, String> onlineSongId = onlineSongIds.get(i);
+							if(onlineSongId != null) {
+								MusicDirectory.Entry song = state.songs.get(i);
+								song.setId(onlineSongId.getSecond());
 								songs.add(song);
 							}
 						}
@@ -366,8 +383,17 @@ public class DownloadServiceLifecycleSupport {
 		eventHandler.post(runnable);
 	}
 
+	/**
+	 * Remember that a song in the queue was changed in place so the next save writes it out again
+	 */
+	public void markUpdated(MusicDirectory.Entry entry) {
+		synchronized (updatedEntries) {
+			updatedEntries.add(entry);
+		}
+	}
+
 	private void deserializeDownloadQueueNow() {
-		PlayerQueue state = FileUtil.deserialize(downloadService, FILENAME_DOWNLOADS_SER, PlayerQueue.class);
+		PlayerQueue state = journal.restore();
 		if (state == null) {
 			return;
 		}
@@ -25,13 +25,12 @@ import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.util.Log;
 
@@ -48,6 +47,7 @@ import github.daneren2005.dsub.domain.RemoteStatus;
 import github.daneren2005.dsub.domain.Lyrics;
 import github.daneren2005.dsub.domain.MusicDirectory;
 import github.daneren2005.dsub.domain.MusicFolder;
+import github.daneren2005.dsub.domain.OfflineAction;
 import github.daneren2005.dsub.domain.Playlist;
 import github.daneren2005.dsub.domain.PodcastChannel;
 import github.daneren2005.dsub.domain.SearchCritera;
@@ -114,14 +114,33 @@ public class OfflineMusicService implements MusicService {
 		result.setName(dir.getName());
 
 		Set<String> names = new HashSet<String>();
+		SongDBHandler dbHandler = SongDBHandler.getHandler(context);
+		Map<String, Entry> indexed = dbHandler.getOfflineSongsInFolder(dir.getAbsolutePath());
+		List<Entry> loaded = new ArrayList<Entry>();
 
 		for (File file : FileUtil.listMediaFiles(dir)) {
 			String name = getName(file);
 			if (name != null & !names.contains(name)) {
 				names.add(name);
-				result.addChild(createEntry(context, file, name, true, isPodcast));
+
+				Entry indexedEntry = indexed.get(file.getAbsolutePath());
+				if(file.isDirectory() || indexedEntry != null) {
+					Entry entry = createEntry(context, file, name, false, isPodcast);
+					if(indexedEntry != null) {
+						applyIndexedMetadata(entry, indexedEntry);
+					}
+					result.addChild(entry);
+				} else {
+					// Only need to read tags once, after that they come from the index
+					Entry entry = createEntry(context, file, name, true, isPodcast);
+					loaded.add(entry);
+					result.addChild(entry);
+				}
 			}
 		}
+		if(!loaded.isEmpty()) {
+			dbHandler.addOfflineSongs(loaded, true);
+		}
 		result.sortChildren(Util.getPreferences(context).getBoolean(Constants.PREFERENCES_KEY_CUSTOM_SORT_ENABLED, true));
 		return result;
 	}
@@ -136,7 +155,7 @@ public class OfflineMusicService implements MusicService {
 		throw new OfflineException(ERRORMSG);
 	}
 
-	private String getName(File file) {
+	private static String getName(File file) {
         String name = file.getName();
         if (file.isDirectory()) {
             return name;
@@ -150,16 +169,16 @@ public class OfflineMusicService implements MusicService {
         return FileUtil.getBaseName(name);
     }
 
-	private Entry createEntry(Context context, File file) {
+	private static Entry createEntry(Context context, File file) {
 		return createEntry(context, file, getName(file));
 	}
-	private Entry createEntry(Context context, File file, String name) {
+	private static Entry createEntry(Context context, File file, String name) {
 		return createEntry(context, file, name, true);
 	}
-    private Entry createEntry(Context context, File file, String name, boolean load) {
+    private static Entry createEntry(Context context, File file, String name, boolean load) {
         return createEntry(context, file, name, load, false);
     }
-	private Entry createEntry(Context context, File file, String name, boolean load, boolean isPodcast) {
+	private static Entry createEntry(Context context, File file, String name, boolean load, boolean isPodcast) {
 		Entry entry;
 		if(isPodcast) {
 			PodcastEpisode episode = new PodcastEpisode();
@@ -216,6 +235,57 @@ public class OfflineMusicService implements MusicService {
 		return entry;
 	}
 
+	private static void applyIndexedMetadata(Entry entry, Entry indexed) {
+		if(indexed.getArtist() != null) {
+			entry.setArtist(indexed.getArtist());
+		}
+		if(indexed.getAlbum() != null) {
+			entry.setAlbum(indexed.getAlbum());
+		}
+		if(indexed.getTitle() != null) {
+			entry.setTitle(indexed.getTitle());
+		}
+		if(indexed.getTrack() != null) {
+			entry.setTrack(indexed.getTrack());
+		}
+		entry.setDiscNumber(indexed.getDiscNumber());
+		entry.setDuration(indexed.getDuration());
+		entry.setBitRate(indexed.getBitRate());
+		entry.setYear(indexed.getYear());
+		entry.setGenre(indexed.getGenre());
+	}
+	private static Entry createIndexedEntry(Context context, Entry indexed) {
+		File file = new File(indexed.getId());
+		if(!file.exists()) {
+			return null;
+		}
+
+		Entry entry = createEntry(context, file, getName(file), false);
+		applyIndexedMetadata(entry, indexed);
+		return entry;
+	}
+
+	/**
+	 * Add any cached songs missing from the offline index.  Only uses what can be figured out from the path so this stays cheap,
+	 * tags are read the first time the folder is browsed.
+	 */
+	public static void updateOfflineIndex(Context context) {
+		SongDBHandler dbHandler = SongDBHandler.getHandler(context);
+		List<Entry> entries = new ArrayList<Entry>();
+		for(String path: dbHandler.getUnindexedCachedFiles()) {
+			File file = new File(path);
+			String name = getName(file);
+			if(name != null && file.isFile() && FileUtil.isMediaFile(file)) {
+				entries.add(createEntry(context, file, name, false));
+			}
+		}
+
+		if(!entries.isEmpty()) {
+			dbHandler.addOfflineSongs(entries, false);
+			Log.i(TAG, "Added " + entries.size() + " songs to offline index");
+		}
+	}
+
     @Override
     public Bitmap getCoverArt(Context context, Entry entry, int size, ProgressListener progressListener, SilentBackgroundTask task) throws Exception {
 		try {
@@ -226,7 +296,7 @@ public class OfflineMusicService implements MusicService {
     }
 
 	@Override
-	public HttpURLConnection getDownloadInputStream(Context context, Entry song, long offset, int maxBitrate, SilentBackgroundTask task) throws Exception {
+	public HttpURLConnection getDownloadInputStream(Context context, Entry song, long offset, long end, int maxBitrate, SilentBackgroundTask task) throws Exception {
 		throw new OfflineException(ERRORMSG);
 	}
 
@@ -263,10 +333,29 @@ public class OfflineMusicService implements MusicService {
 					artist.setCloseness(closeness);
 					artists.add(artist);
 				}
-				
-				recursiveAlbumSearch(artistName, artistFile, criteria, context, albums, songs);
             }
         }
+
+		// Albums and songs come out of the index instead of walking every folder
+		SongDBHandler dbHandler = SongDBHandler.getHandler(context);
+		for(Entry indexed: dbHandler.searchOfflineAlbums(criteria.getQuery())) {
+			File albumFile = new File(indexed.getParent());
+			if(albumFile.exists() && (closeness = matchCriteria(criteria, indexed.getAlbum())) > 0) {
+				Entry album = createEntry(context, albumFile, getName(albumFile), false);
+				album.setArtist(indexed.getArtist());
+				album.setCloseness(closeness);
+				albums.add(album);
+			}
+		}
+		for(Entry indexed: dbHandler.searchOfflineSongs(criteria.getQuery())) {
+			if((closeness = matchCriteria(criteria, indexed.getTitle())) > 0) {
+				Entry song = createIndexedEntry(context, indexed);
+				if(song != null) {
+					song.setCloseness(closeness);
+					songs.add(song);
+				}
+			}
+		}
 		
 		Collections.sort(artists, new Comparator<Artist>() {
 			public int compare(Artist lhs, Artist rhs) {
@@ -324,50 +413,8 @@ public class OfflineMusicService implements MusicService {
 		throw new OfflineException(ERRORMSG);
 	}
 
-	private void recursiveAlbumSearch(String artistName, File file, SearchCritera criteria, Context context, List<Entry> albums, List<Entry> songs) {
-		int closeness;
-		for(File albumFile : FileUtil.listMediaFiles(file)) {
-			if(albumFile.isDirectory()) {
-				String albumName = getName(albumFile);
-				if((closeness = matchCriteria(criteria, albumName)) > 0) {
-					Entry album = createEntry(context, albumFile, albumName);
-					album.setArtist(artistName);
-					album.setCloseness(closeness);
-					albums.add(album);
-				}
-
-				for(File songFile : FileUtil.listMediaFiles(albumFile)) {
-					String songName = getName(songFile);
-					if(songName == null) {
-						continue;
-					}
-
-					if(songFile.isDirectory()) {
-						recursiveAlbumSearch(artistName, songFile, criteria, context, albums, songs);
-					}
-					else if((closeness = matchCriteria(criteria, songName)) > 0){
-						Entry song = createEntry(context, albumFile, songName);
-						song.setArtist(artistName);
-						song.setAlbum(albumName);
-						song.setCloseness(closeness);
-						songs.add(song);
-					}
-				}
-			}
-			else {
-				String songName = getName(albumFile);
-				if((closeness = matchCriteria(criteria, songName)) > 0) {
-					Entry song = createEntry(context, albumFile, songName);
-					song.setArtist(artistName);
-					song.setAlbum(songName);
-					song.setCloseness(closeness);
-					songs.add(song);
-				}
-			}
-		}
-	}
 	private int matchCriteria(SearchCritera criteria, String name) {
-		if (criteria.getPattern().matcher(name).matches()) {
+		if (name != null && criteria.getPattern().matcher(name).matches()) {
 			return Util.getStringDistance(
 				criteria.getQuery().toLowerCase(),
 				name.toLowerCase());
@@ -549,32 +596,7 @@ public class OfflineMusicService implements MusicService {
 			return;
 		}
 
-		SharedPreferences prefs = Util.getPreferences(context);
-		String cacheLocn = prefs.getString(Constants.PREFERENCES_KEY_CACHE_LOCATION, null);
-
-		SharedPreferences offline = Util.getOfflineSync(context);
-		int scrobbles = offline.getInt(Constants.OFFLINE_SCROBBLE_COUNT, 0);
-		scrobbles++;
-		SharedPreferences.Editor offlineEditor = offline.edit();
-		
-		if(id.indexOf(cacheLocn) != -1) {
-			Pair<Integer, String> cachedSongId = SongDBHandler.getHandler(context).getIdFromPath(id);
-			if(cachedSongId != null) {
-				offlineEditor.putString(Constants.OFFLINE_SCROBBLE_ID + scrobbles, cachedSongId.getSecond());
-				offlineEditor.remove(Constants.OFFLINE_SCROBBLE_SEARCH + scrobbles);
-			} else {
-				String scrobbleSearchCriteria = Util.parseOfflineIDSearch(context, id, cacheLocn);
-				offlineEditor.putString(Constants.OFFLINE_SCROBBLE_SEARCH + scrobbles, scrobbleSearchCriteria);
-				offlineEditor.remove(Constants.OFFLINE_SCROBBLE_ID + scrobbles);
-			}
-		} else {
-			offlineEditor.putString(Constants.OFFLINE_SCROBBLE_ID + scrobbles, id);
-			offlineEditor.remove(Constants.OFFLINE_SCROBBLE_SEARCH + scrobbles);
-		}
-		
-		offlineEditor.putLong(Constants.OFFLINE_SCROBBLE_TIME + scrobbles, System.currentTimeMillis());
-		offlineEditor.putInt(Constants.OFFLINE_SCROBBLE_COUNT, scrobbles);
-		offlineEditor.commit();
+		addOfflineAction(context, OfflineAction.TYPE_SCROBBLE, id, 1, null);
     }
 
     @Override
@@ -644,27 +666,18 @@ public class OfflineMusicService implements MusicService {
 	
 	@Override
 	public void setStarred(List<Entry> entries, List<Entry> artists, List<Entry> albums, boolean starred, ProgressListener progressListener, Context context) throws Exception {
-		SharedPreferences prefs = Util.getPreferences(context);
-		String cacheLocn = prefs.getString(Constants.PREFERENCES_KEY_CACHE_LOCATION, null);
-
-		SharedPreferences offline = Util.getOfflineSync(context);
-		int stars = offline.getInt(Constants.OFFLINE_STAR_COUNT, 0);
-		stars++;
-		SharedPreferences.Editor offlineEditor = offline.edit();
-
-		String id = entries.get(0).getId();
-		if(id.indexOf(cacheLocn) != -1) {
-			String searchCriteria = Util.parseOfflineIDSearch(context, id, cacheLocn);
-			offlineEditor.putString(Constants.OFFLINE_STAR_SEARCH + stars, searchCriteria);
-			offlineEditor.remove(Constants.OFFLINE_STAR_ID + stars);
-		} else {
-			offlineEditor.putString(Constants.OFFLINE_STAR_ID + stars, id);
-			offlineEditor.remove(Constants.OFFLINE_STAR_SEARCH + stars);
+		addOfflineStars(context, entries, OfflineAction.KIND_SONG, starred);
+		addOfflineStars(context, artists, OfflineAction.KIND_ARTIST, starred);
+		addOfflineStars(context, albums, OfflineAction.KIND_ALBUM, starred);
+	}
+	private void addOfflineStars(Context context, List<Entry> entries, int kind, boolean starred) {
+		if(entries == null) {
+			return;
+		}
+
+		for(Entry entry: entries) {
+			addOfflineAction(context, OfflineAction.TYPE_STAR, entry.getId(), starred ? 1 : 0, null, kind);
 		}
-		
-		offlineEditor.putBoolean(Constants.OFFLINE_STAR_SETTING + stars, starred);
-		offlineEditor.putInt(Constants.OFFLINE_STAR_COUNT, stars);
-		offlineEditor.commit();
 	}
 
 	@Override
@@ -714,11 +727,21 @@ public class OfflineMusicService implements MusicService {
 
 	@Override
     public MusicDirectory getRandomSongs(int size, String folder, String genre, String startYear, String endYear, Context context, ProgressListener progressListener) throws Exception {
-        File root = FileUtil.getMusicDirectory(context);
-        List<File> children = new LinkedList<File>();
-        listFilesRecursively(root, children);
         MusicDirectory result = new MusicDirectory();
+		for(Entry indexed: SongDBHandler.getHandler(context).getRandomOfflineSongs(size, genre, startYear, endYear)) {
+			Entry entry = createIndexedEntry(context, indexed);
+			if(entry != null) {
+				result.addChild(entry);
+			}
+		}
+		if(result.getChildrenSize() > 0 || genre != null || startYear != null || endYear != null) {
+			return result;
+		}
 
+		// Index hasn't been built yet
+        File root = FileUtil.getMusicDirectory(context);
+        List<File> children = new ArrayList<File>();
+        listFilesRecursively(root, children);
         if (children.isEmpty()) {
             return result;
         }
@@ -806,7 +829,7 @@ public class OfflineMusicService implements MusicService {
 
 	@Override
 	public void setRating(Entry entry, int rating, Context context, ProgressListener progressListener) throws Exception {
-		throw new OfflineException(ERRORMSG);
+		addOfflineAction(context, OfflineAction.TYPE_RATING, entry.getId(), rating, null);
 	}
 
 	@Override
@@ -816,12 +839,12 @@ public class OfflineMusicService implements MusicService {
 
 	@Override
 	public void createBookmark(Entry entry, int position, String comment, Context context, ProgressListener progressListener) throws Exception {
-		throw new OfflineException(ERRORMSG);
+		addOfflineAction(context, OfflineAction.TYPE_BOOKMARK, entry.getId(), position, comment);
 	}
 
 	@Override
 	public void deleteBookmark(Entry entry, Context context, ProgressListener progressListener) throws Exception {
-		throw new OfflineException(ERRORMSG);
+		addOfflineAction(context, OfflineAction.TYPE_BOOKMARK, entry.getId(), -1, null);
 	}
 
 	@Override
@@ -913,4 +936,28 @@ public class OfflineMusicService implements MusicService {
             }
         }
     }
+
+	private void addOfflineAction(Context context, int type, String id, int value, String comment) {
+		addOfflineAction(context, type, id, value, comment, OfflineAction.KIND_SONG);
+	}
+	private void addOfflineAction(Context context, int type, String id, int value, String comment, int kind) {
+		String cacheLocn = Util.getPreferences(context).getString(Constants.PREFERENCES_KEY_CACHE_LOCATION, null);
+
+		// Ids offline are paths, so save the id on the server if it is known or what to search for to find it if not
+		String search = null;
+		if(cacheLocn != null && id.indexOf(cacheLocn) != -1) {
+			Pair<Integer, String> cachedSongId = SongDBHandler.getHandler(context).getIdFromPath(id);
+			if(cachedSongId != null) {
+				id = cachedSongId.getSecond();
+			} else {
+				search = Util.parseOfflineIDSearch(context, id, cacheLocn);
+				id = null;
+			}
+		}
+
+		OfflineAction action = new OfflineAction(type, id, search, value, System.currentTimeMillis());
+		action.setComment(comment);
+		action.setKind(kind);
+		SongDBHandler.getHandler(context).addOfflineAction(action);
+	}
 }
@@ -0,0 +1,299 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+
+package github.daneren2005.dsub.service;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.domain.PlayerQueue;
+import github.daneren2005.dsub.util.FileUtil;
+
+/**
+ * Saves the play queue as a snapshot plus a journal of what has changed since.  Each save only appends the songs which were
+ * added, removed, moved or updated along with the new position, and the journal is folded back into the snapshot once it
+ * has grown long enough that replaying it is no longer cheaper than rewriting the queue.
+ */
+public class PlayerQueueJournal {
+	private static final String TAG = PlayerQueueJournal.class.getSimpleName();
+	public static final String FILENAME_JOURNAL = DownloadServiceLifecycleSupport.FILENAME_DOWNLOADS_SER + ".journal";
+	private static final int MAX_RECORDS = 200;
+
+	private final Context context;
+	// What is on disk right now, compared by reference against the live queue to find what changed
+	private List<MusicDirectory.Entry> songs;
+	private List<MusicDirectory.Entry> toDelete;
+	private long snapshot;
+	private int records;
+	private int journaledSongs;
+
+	public PlayerQueueJournal(Context context) {
+		this.context = context;
+	}
+
+	/**
+	 * Read the saved queue back without keeping track of it for later saves
+	 */
+	public static PlayerQueue load(Context context) {
+		return new PlayerQueueJournal(context).restore();
+	}
+
+	public PlayerQueue restore() {
+		PlayerQueue state = FileUtil.deserialize(context, DownloadServiceLifecycleSupport.FILENAME_DOWNLOADS_SER, PlayerQueue.class);
+		if(state == null) {
+			reset(null);
+			return null;
+		}
+		reset(state);
+
+		List<Record> journal = FileUtil.deserializeAppended(context, FILENAME_JOURNAL, Record.class);
+		if(journal.isEmpty()) {
+			return state;
+		}
+
+		// Snapshot was rewritten but the old journal never got cleared out
+		Record header = journal.get(0);
+		if(header.type != Record.HEADER || header.snapshot != snapshot) {
+			Log.w(TAG, "Ignoring journal written against a different snapshot");
+			FileUtil.deleteSerialized(context, FILENAME_JOURNAL);
+			return state;
+		}
+
+		int replayed = 1;
+		try {
+			for(; replayed < journal.size(); replayed++) {
+				apply(state, journal.get(replayed));
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Stopped replaying journal at record " + replayed, e);
+		}
+
+		// Whatever comes after the last good record can't be appended to, so start the next save off with a fresh snapshot
+		songs = null;
+		Log.i(TAG, "Replayed " + replayed + " journal records on top of " + state.songs.size() + " songs");
+		return state;
+	}
+
+	private void apply(PlayerQueue state, Record record) {
+		switch(record.type) {
+			case Record.ADD:
+				state.songs.addAll(record.index, record.songs);
+				break;
+			case Record.REMOVE:
+				state.songs.subList(record.index, record.index + record.count).clear();
+				break;
+			case Record.MOVE:
+				state.songs.add(record.count, state.songs.remove(record.index));
+				break;
+			case Record.UPDATE:
+				state.songs.set(record.index, record.songs.get(0));
+				break;
+			case Record.TO_DELETE:
+				state.toDelete = record.songs;
+				break;
+			case Record.POSITION:
+				state.currentPlayingIndex = record.index;
+				state.currentPlayingPosition = record.count;
+				state.renameCurrent = record.renameCurrent;
+				state.changed = record.changed;
+				break;
+		}
+	}
+
+	/**
+	 * Write out whatever is different between state and what was saved last time
+	 * @param updated Songs in the queue which were changed in place since the last save, ie: starred or rated
+	 */
+	public void save(PlayerQueue state, Collection<MusicDirectory.Entry> updated) {
+		if(songs == null || records >= MAX_RECORDS || journaledSongs > Math.max(songs.size(), state.songs.size()) / 2) {
+			compact(state);
+			return;
+		}
+
+		List<Record> changes = new ArrayList<Record>();
+		diffSongs(state.songs, changes);
+
+		if(updated != null) {
+			for(MusicDirectory.Entry entry: updated) {
+				int index = indexOf(state.songs, entry);
+				if(index != -1) {
+					List<MusicDirectory.Entry> single = new ArrayList<MusicDirectory.Entry>();
+					single.add(entry);
+					changes.add(Record.create(Record.UPDATE, index, 0, single));
+				}
+			}
+		}
+
+		if(!sameReferences(toDelete, state.toDelete)) {
+			changes.add(Record.create(Record.TO_DELETE, 0, 0, new ArrayList<MusicDirectory.Entry>(state.toDelete)));
+		}
+
+		Record position = Record.create(Record.POSITION, state.currentPlayingIndex, state.currentPlayingPosition, null);
+		position.renameCurrent = state.renameCurrent;
+		position.changed = state.changed;
+		changes.add(position);
+
+		if(records == 0) {
+			Record header = Record.create(Record.HEADER, 0, 0, null);
+			header.snapshot = snapshot;
+			changes.add(0, header);
+		}
+
+		for(Record record: changes) {
+			if(!FileUtil.appendSerialized(context, record, FILENAME_JOURNAL)) {
+				// Can't trust the journal after a failed write, start over from a full snapshot
+				compact(state);
+				return;
+			}
+
+			records++;
+			if(record.songs != null) {
+				journaledSongs += record.songs.size();
+			}
+		}
+
+		songs = new ArrayList<MusicDirectory.Entry>(state.songs);
+		toDelete = new ArrayList<MusicDirectory.Entry>(state.toDelete);
+	}
+
+	/**
+	 * Write the whole queue out as a new snapshot and throw away the journal
+	 */
+	public void compact(PlayerQueue state) {
+		if(state.changed == null) {
+			state.changed = new Date();
+		}
+
+		FileUtil.serialize(context, state, DownloadServiceLifecycleSupport.FILENAME_DOWNLOADS_SER);
+		FileUtil.deleteSerialized(context, FILENAME_JOURNAL);
+		reset(state);
+	}
+
+	private void reset(PlayerQueue state) {
+		if(state == null) {
+			songs = null;
+			toDelete = null;
+			snapshot = 0;
+		} else {
+			songs = new ArrayList<MusicDirectory.Entry>(state.songs);
+			toDelete = new ArrayList<MusicDirectory.Entry>(state.toDelete);
+			snapshot = state.changed == null ? 0 : state.changed.getTime();
+		}
+		records = 0;
+		journaledSongs = 0;
+	}
+
+	private void diffSongs(List<MusicDirectory.Entry> current, List<Record> changes) {
+		// Everything outside of the first and last differences is untouched
+		int start = 0;
+		int max = Math.min(songs.size(), current.size());
+		while(start < max && songs.get(start) == current.get(start)) {
+			start++;
+		}
+		if(start == songs.size() && start == current.size()) {
+			return;
+		}
+
+		int oldEnd = songs.size();
+		int newEnd = current.size();
+		while(oldEnd > start && newEnd > start && songs.get(oldEnd - 1) == current.get(newEnd - 1)) {
+			oldEnd--;
+			newEnd--;
+		}
+
+		int oldCount = oldEnd - start;
+		int newCount = newEnd - start;
+		if(oldCount == newCount && oldCount >= 2) {
+			// Single song dragged up or down the list
+			if(current.get(start) == songs.get(oldEnd - 1) && sameReferences(songs.subList(start, oldEnd - 1), current.subList(start + 1, newEnd))) {
+				changes.add(Record.create(Record.MOVE, oldEnd - 1, start, null));
+				return;
+			} else if(current.get(newEnd - 1) == songs.get(start) && sameReferences(songs.subList(start + 1, oldEnd), current.subList(start, newEnd - 1))) {
+				changes.add(Record.create(Record.MOVE, start, newEnd - 1, null));
+				return;
+			}
+		}
+
+		if(oldCount > 0) {
+			changes.add(Record.create(Record.REMOVE, start, oldCount, null));
+		}
+		if(newCount > 0) {
+			changes.add(Record.create(Record.ADD, start, 0, new ArrayList<MusicDirectory.Entry>(current.subList(start, newEnd))));
+		}
+	}
+
+	private static boolean sameReferences(List<MusicDirectory.Entry> first, List<MusicDirectory.Entry> second) {
+		if(first == null || second == null || first.size() != second.size()) {
+			return first == second;
+		}
+
+		for(int i = 0; i < first.size(); i++) {
+			if(first.get(i) != second.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(List<MusicDirectory.Entry> list, MusicDirectory.Entry entry) {
+		for(int i = 0; i < list.size(); i++) {
+			if(list.get(i) == entry) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public static class Record implements Serializable {
+		public static final int HEADER = 0;
+		public static final int ADD = 1;
+		public static final int REMOVE = 2;
+		public static final int MOVE = 3;
+		public static final int UPDATE = 4;
+		public static final int TO_DELETE = 5;
+		public static final int POSITION = 6;
+
+		public int type;
+		// HEADER: changed time of the snapshot this journal applies to
+		public long snapshot;
+		// ADD/REMOVE/UPDATE: where in the list, MOVE: from, POSITION: current playing index
+		public int index;
+		// REMOVE: how many, MOVE: to, POSITION: current playing position
+		public int count;
+		public List<MusicDirectory.Entry> songs;
+		public boolean renameCurrent;
+		public Date changed;
+
+		public Record() {
+
+		}
+
+		static Record create(int type, int index, int count, List<MusicDirectory.Entry> songs) {
+			Record record = new Record();
+			record.type = type;
+			record.index = index;
+			record.count = count;
+			record.songs = songs;
+			return record;
+		}
+	}
+}
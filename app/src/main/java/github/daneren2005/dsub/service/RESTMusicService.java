@@ -33,6 +33,14 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -107,6 +115,12 @@ public class RESTMusicService implements MusicService {
     private static final int HTTP_REQUEST_MAX_ATTEMPTS = 5;
     private static final long REDIRECTION_CHECK_INTERVAL_MILLIS = 60L * 60L * 1000L;
 
+	private static final int OFFLINE_SYNC_THREADS = 4;
+	private static final int MULTI_FOLDER_THREADS = 4;
+	private static final int MAX_STARS_PER_REQUEST = 50;
+	// Shared by every multi-folder directory load so several at once still only make a few requests at a time
+	private static ThreadPoolExecutor multiFolderExecutor;
+
 	private SSLSocketFactory sslSocketFactory;
 	private HostnameVerifier selfSignedHostnameVerifier;
     private long redirectionLastChecked;
@@ -216,6 +230,13 @@ public class RESTMusicService implements MusicService {
 
     @Override
     public Indexes getIndexes(String musicFolderId, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+		return getIndexes(musicFolderId, refresh, 0L, context, progressListener);
+	}
+	/**
+	 * @param ifModifiedSince When the copy already loaded was last modified on the server.  If nothing has changed since then
+	 * the server sends back an empty list with the same lastModified.  Only getIndexes supports this, getArtists ignores it.
+	 */
+	public Indexes getIndexes(String musicFolderId, boolean refresh, long ifModifiedSince, Context context, ProgressListener progressListener) throws Exception {
         List<String> parameterNames = new ArrayList<String>();
         List<Object> parameterValues = new ArrayList<Object>();
 
@@ -224,7 +245,13 @@ public class RESTMusicService implements MusicService {
             parameterValues.add(musicFolderId);
         }
 
-        Reader reader = getReader(context, progressListener, Util.isTagBrowsing(context, getInstance(context)) ? "getArtists" : "getIndexes", parameterNames, parameterValues);
+		boolean tagBrowsing = Util.isTagBrowsing(context, getInstance(context));
+		if(ifModifiedSince > 0 && !tagBrowsing) {
+			parameterNames.add("ifModifiedSince");
+			parameterValues.add(ifModifiedSince);
+		}
+
+        Reader reader = getReader(context, progressListener, tagBrowsing ? "getArtists" : "getIndexes", parameterNames, parameterValues);
         try {
             return new IndexesParser(context, getInstance(context)).parse(reader, progressListener);
         } finally {
@@ -233,7 +260,7 @@ public class RESTMusicService implements MusicService {
     }
 
     @Override
-    public MusicDirectory getMusicDirectory(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+    public MusicDirectory getMusicDirectory(String id, final String name, final boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		SharedPreferences prefs = Util.getPreferences(context);
 		String cacheLocn = prefs.getString(Constants.PREFERENCES_KEY_CACHE_LOCATION, null);
 		if(cacheLocn != null && id.indexOf(cacheLocn) != -1) {
@@ -247,27 +274,56 @@ public class RESTMusicService implements MusicService {
 			}
 		}
 
-		MusicDirectory dir = null;
-		int index, start = 0;
-		while((index = id.indexOf(';', start)) != -1) {
-			MusicDirectory extra = getMusicDirectoryImpl(id.substring(start, index), name, refresh, context, progressListener);
-			if(dir == null) {
-				dir = extra;
-			} else {
-				dir.addChildren(extra.getChildren());
+		if(id.indexOf(';') == -1) {
+			return getMusicDirectoryImpl(id, name, refresh, context, progressListener);
+		}
+
+		// Same folder in several music folders, load all of them at once and merge them in the original order
+		final String[] ids = id.split(";");
+		List<Future<MusicDirectory>> results = new ArrayList<Future<MusicDirectory>>();
+		try {
+			for(final String folderId: ids) {
+				results.add(getMultiFolderExecutor().submit(new Callable<MusicDirectory>() {
+					@Override
+					public MusicDirectory call() throws Exception {
+						return getMusicDirectoryImpl(folderId, name, refresh, context, progressListener);
+					}
+				}));
 			}
 
-			start = index + 1;
-		}
-		MusicDirectory extra = getMusicDirectoryImpl(id.substring(start), name, refresh, context, progressListener);
-		if(dir == null) {
-			dir = extra;
-		} else {
-			dir.addChildren(extra.getChildren());
-		}
+			MusicDirectory dir = null;
+			for(Future<MusicDirectory> result: results) {
+				MusicDirectory extra;
+				try {
+					extra = result.get();
+				} catch(ExecutionException e) {
+					if(e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
 
-		return dir;
+				if(dir == null) {
+					dir = extra;
+				} else {
+					dir.addChildren(extra.getChildren());
+				}
+			}
+			return dir;
+		} finally {
+			// Anything still going isn't wanted after a failure
+			for(Future<MusicDirectory> result: results) {
+				result.cancel(true);
+			}
+		}
     }
+	private static synchronized ThreadPoolExecutor getMultiFolderExecutor() {
+		if(multiFolderExecutor == null) {
+			multiFolderExecutor = new ThreadPoolExecutor(MULTI_FOLDER_THREADS, MULTI_FOLDER_THREADS, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+			multiFolderExecutor.allowCoreThreadTimeOut(true);
+		}
+		return multiFolderExecutor;
+	}
 
 	private MusicDirectory getMusicDirectoryImpl(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
 		Reader reader = getReader(context, progressListener, "getMusicDirectory", "id", id);
@@ -387,9 +443,9 @@ public class RESTMusicService implements MusicService {
             parameterNames.add("name");
             parameterValues.add(name);
         }
-        for (MusicDirectory.Entry entry : entries) {
+        for (String songId : getOfflineSongIds(entries, context, progressListener)) {
             parameterNames.add("songId");
-            parameterValues.add(getOfflineSongId(entry.getId(), context, progressListener));
+            parameterValues.add(songId);
         }
 
         Reader reader = getReader(context, progressListener, "createPlaylist", parameterNames, parameterValues);
@@ -417,9 +473,9 @@ public class RESTMusicService implements MusicService {
 		List<Object> values = new ArrayList<Object>();
 		names.add("playlistId");
 		values.add(id);
-		for(MusicDirectory.Entry song: toAdd) {
+		for(String songId: getOfflineSongIds(toAdd, context, progressListener)) {
 			names.add("songIdToAdd");
-			values.add(getOfflineSongId(song.getId(), context, progressListener));
+			values.add(songId);
 		}
 		Reader reader = getReader(context, progressListener, "updatePlaylist", names, values);
     	try {
@@ -814,7 +870,7 @@ public class RESTMusicService implements MusicService {
     }
 
     @Override
-    public HttpURLConnection getDownloadInputStream(Context context, MusicDirectory.Entry song, long offset, int maxBitrate, SilentBackgroundTask task) throws Exception {
+    public HttpURLConnection getDownloadInputStream(Context context, MusicDirectory.Entry song, long offset, long end, int maxBitrate, SilentBackgroundTask task) throws Exception {
         String url = getRestUrl(context, "stream");
 		List<String> parameterNames = new ArrayList<String>();
 		parameterNames.add("id");
@@ -841,10 +897,10 @@ public class RESTMusicService implements MusicService {
 			}
 		}
 
-		// Add "Range" header if offset is given
+		// Add "Range" header if offset or end is given
 		Map<String, String> headers = new HashMap<>();
-		if (offset > 0) {
-			headers.put("Range", "bytes=" + offset + "-");
+		if (offset > 0 || end >= 0) {
+			headers.put("Range", "bytes=" + offset + "-" + (end >= 0 ? Long.toString(end) : ""));
 		}
 
 		// Set socket read timeout. Note: The timeout increases as the offset gets larger. This is
@@ -855,7 +911,7 @@ public class RESTMusicService implements MusicService {
 
 		// If content type is XML, an error occurred.  Get it.
 		String contentType = connection.getContentType();
-		if (contentType != null && (contentType.startsWith("text/xml") || contentType.startsWith("text/html"))) {
+		if (contentType != null && (contentType.startsWith("text/xml") || contentType.startsWith("text/html") || contentType.startsWith("application/json"))) {
 			InputStream in = getInputStreamFromConnection(connection);
 
 			try {
@@ -1598,90 +1654,198 @@ public class RESTMusicService implements MusicService {
 	}
 
 	@Override
-	public int processOfflineSyncs(final Context context, final ProgressListener progressListener) throws Exception{
-		return processOfflineScrobbles(context, progressListener) + processOfflineStars(context, progressListener);
-	}
+	public int processOfflineSyncs(final Context context, final ProgressListener progressListener) throws Exception {
+		SongDBHandler dbHandler = SongDBHandler.getHandler(context);
+		List<OfflineAction> actions = dbHandler.getOfflineActions();
+		if(actions.isEmpty()) {
+			return 0;
+		}
 
-	public int processOfflineScrobbles(final Context context, final ProgressListener progressListener) throws Exception {
-		SharedPreferences offline = Util.getOfflineSync(context);
-		SharedPreferences.Editor offlineEditor = offline.edit();
-		int count = offline.getInt(Constants.OFFLINE_SCROBBLE_COUNT, 0);
-		int retry = 0;
-		for(int i = 1; i <= count; i++) {
-			try {
-				String id = offline.getString(Constants.OFFLINE_SCROBBLE_ID + i, null);
-				long time = offline.getLong(Constants.OFFLINE_SCROBBLE_TIME + i, 0);
-				if(id != null) {
-					scrobble(id, true, time, context, progressListener);
-				} else {
-					String search = offline.getString(Constants.OFFLINE_SCROBBLE_SEARCH + i, "");
-					SearchCritera critera = new SearchCritera(search, 0, 0, 1);
-					SearchResult result = searchNew(critera, context, progressListener);
-					if(result.getSongs().size() == 1){
-						Log.i(TAG, "Query '" + search + "' returned song " + result.getSongs().get(0).getTitle() + " by " + result.getSongs().get(0).getArtist() + " with id " + result.getSongs().get(0).getId());
-						Log.i(TAG, "Scrobbling " + result.getSongs().get(0).getId() + " with time " + time);
-						scrobble(result.getSongs().get(0).getId(), true, time, context, progressListener);
-					}
-					else{
-						throw new Exception("Song not found on server");
-					}
+		ExecutorService executor = Executors.newFixedThreadPool(OFFLINE_SYNC_THREADS);
+		List<OfflineAction> succeeded = new ArrayList<OfflineAction>();
+		List<OfflineAction> failed = new ArrayList<OfflineAction>();
+		try {
+			// Only search once for each thing that was done while offline without knowing the id on the server
+			Map<String, Future<SearchResult>> searches = new HashMap<String, Future<SearchResult>>();
+			for(OfflineAction action: actions) {
+				final String search = action.getSearch();
+				if(action.getId() == null && search != null && !searches.containsKey(search)) {
+					searches.put(search, executor.submit(new Callable<SearchResult>() {
+						@Override
+						public SearchResult call() throws Exception {
+							return searchNew(new SearchCritera(search, 0, 1, 1), context, progressListener);
+						}
+					}));
 				}
 			}
-			catch(Exception e){
-				Log.e(TAG, e.toString());
-				retry++;
+
+			boolean tagBrowsing = Util.isTagBrowsing(context, getInstance(context));
+			// Stars are sent together, split by starred or not and by what kind of thing they are: [unstar songs, star songs, unstar artists, star artists, unstar albums, star albums]
+			List<List<Pair<OfflineAction, MusicDirectory.Entry>>> stars = new ArrayList<List<Pair<OfflineAction, MusicDirectory.Entry>>>();
+			for(int i = 0; i < 6; i++) {
+				stars.add(new ArrayList<Pair<OfflineAction, MusicDirectory.Entry>>());
 			}
-		}
+			// Each task returns whichever of its actions failed without failing the whole task
+			List<Pair<List<OfflineAction>, Callable<List<OfflineAction>>>> tasks = new ArrayList<Pair<List<OfflineAction>, Callable<List<OfflineAction>>>>();
+			for(final OfflineAction action: actions) {
+				final MusicDirectory.Entry entry = getOfflineActionEntry(action, searches);
+				if(entry == null) {
+					Log.w(TAG, "Could not find " + action.getSearch() + " on server");
+					failed.add(action);
+					continue;
+				}
 
-		offlineEditor.putInt(Constants.OFFLINE_SCROBBLE_COUNT, 0);
-		offlineEditor.commit();
+				if(action.getType() == OfflineAction.TYPE_STAR) {
+					int kind = action.getKind();
+					if(kind == OfflineAction.KIND_SONG && entry.isDirectory() && tagBrowsing) {
+						// Search matched an album
+						kind = OfflineAction.KIND_ALBUM;
+					}
+					stars.get(kind * 2 + (action.getValue() == 1 ? 1 : 0)).add(new Pair<OfflineAction, MusicDirectory.Entry>(action, entry));
+				} else {
+					tasks.add(new Pair<List<OfflineAction>, Callable<List<OfflineAction>>>(Arrays.asList(action), new Callable<List<OfflineAction>>() {
+						@Override
+						public List<OfflineAction> call() throws Exception {
+							processOfflineAction(action, entry, context, progressListener);
+							return Collections.emptyList();
+						}
+					}));
+				}
+			}
 
-		return count - retry;
-	}
+			for(int group = 0; group < stars.size(); group++) {
+				final boolean starred = (group & 1) != 0;
+				final int kind = group / 2;
+				List<Pair<OfflineAction, MusicDirectory.Entry>> list = stars.get(group);
+				for(int start = 0; start < list.size(); start += MAX_STARS_PER_REQUEST) {
+					final List<Pair<OfflineAction, MusicDirectory.Entry>> batch = list.subList(start, Math.min(list.size(), start + MAX_STARS_PER_REQUEST));
+					List<OfflineAction> batchActions = new ArrayList<OfflineAction>();
+					final List<MusicDirectory.Entry> batchEntries = new ArrayList<MusicDirectory.Entry>();
+					for(Pair<OfflineAction, MusicDirectory.Entry> pair: batch) {
+						batchActions.add(pair.getFirst());
+						batchEntries.add(pair.getSecond());
+					}
 
-	public int processOfflineStars(final Context context, final ProgressListener progressListener) throws Exception {
-		SharedPreferences offline = Util.getOfflineSync(context);
-		SharedPreferences.Editor offlineEditor = offline.edit();
-		int count = offline.getInt(Constants.OFFLINE_STAR_COUNT, 0);
-		int retry = 0;
-		for(int i = 1; i <= count; i++) {
-			String id = offline.getString(Constants.OFFLINE_STAR_ID + i, null);
-			boolean starred = offline.getBoolean(Constants.OFFLINE_STAR_SETTING + i, false);
-			if(id != null) {
-				setStarred(Arrays.asList(new MusicDirectory.Entry(id)), null, null, starred, progressListener, context);
-			} else {
-				String search = offline.getString(Constants.OFFLINE_STAR_SEARCH + i, "");
-				try{
-					SearchCritera critera = new SearchCritera(search, 0, 1, 1);
-					SearchResult result = searchNew(critera, context, progressListener);
-					if(result.getSongs().size() == 1) {
-						MusicDirectory.Entry song = result.getSongs().get(0);
-						Log.i(TAG, "Query '" + search + "' returned song " + song.getTitle() + " by " + song.getArtist() + " with id " + song.getId());
-						setStarred(Arrays.asList(song), null, null, starred, progressListener, context);
-					} else if(result.getAlbums().size() == 1) {
-						MusicDirectory.Entry album = result.getAlbums().get(0);
-						Log.i(TAG, "Query '" + search + "' returned album " + album.getTitle() + " by " + album.getArtist() + " with id " + album.getId());
-						if(Util.isTagBrowsing(context, getInstance(context))) {
-							setStarred(null, null, Arrays.asList(album), starred, progressListener, context);
+					tasks.add(new Pair<List<OfflineAction>, Callable<List<OfflineAction>>>(batchActions, new Callable<List<OfflineAction>>() {
+						@Override
+						public List<OfflineAction> call() throws Exception {
+							try {
+								setOfflineStars(batchEntries, kind, starred, context, progressListener);
+								return Collections.emptyList();
+							} catch(Exception e) {
+								if(batchEntries.size() == 1) {
+									throw e;
+								}
+								Log.w(TAG, "Failed to sync " + batchEntries.size() + " stars together, sending them one at a time", e);
+							}
+
+							// One bad id fails the whole request, so find out which ones the server won't take
+							List<OfflineAction> failedStars = new ArrayList<OfflineAction>();
+							for(Pair<OfflineAction, MusicDirectory.Entry> pair: batch) {
+								try {
+									setOfflineStars(Arrays.asList(pair.getSecond()), kind, starred, context, progressListener);
+								} catch(Exception e) {
+									Log.e(TAG, "Failed to sync star for " + pair.getSecond().getId(), e);
+									failedStars.add(pair.getFirst());
+								}
+							}
+							return failedStars;
+						}
+					}));
+				}
+			}
+
+			List<Future<List<OfflineAction>>> results = new ArrayList<Future<List<OfflineAction>>>();
+			for(Pair<List<OfflineAction>, Callable<List<OfflineAction>>> task: tasks) {
+				results.add(executor.submit(task.getSecond()));
+			}
+			for(int i = 0; i < tasks.size(); i++) {
+				try {
+					List<OfflineAction> taskFailed = results.get(i).get();
+					for(OfflineAction action: tasks.get(i).getFirst()) {
+						if(taskFailed.contains(action)) {
+							failed.add(action);
 						} else {
-							setStarred(Arrays.asList(album), null, null, starred, progressListener, context);
+							succeeded.add(action);
 						}
 					}
-					else {
-						throw new Exception("Song not found on server");
-					}
-				}
-				catch(Exception e) {
-					Log.e(TAG, e.toString());
-					retry++;
+				} catch(ExecutionException e) {
+					Log.e(TAG, "Failed to sync offline action", e.getCause());
+					failed.addAll(tasks.get(i).getFirst());
 				}
 			}
+		} finally {
+			executor.shutdownNow();
+
+			// Whatever didn't make it stays in the outbox for next time
+			dbHandler.removeOfflineActions(succeeded);
+			dbHandler.retryOfflineActions(failed);
+		}
+
+		return succeeded.size();
+	}
+
+	private MusicDirectory.Entry getOfflineActionEntry(OfflineAction action, Map<String, Future<SearchResult>> searches) throws InterruptedException {
+		if(action.getId() != null) {
+			return new MusicDirectory.Entry(action.getId());
+		}
+
+		Future<SearchResult> future = searches.get(action.getSearch());
+		if(future == null) {
+			return null;
 		}
 
-		offlineEditor.putInt(Constants.OFFLINE_STAR_COUNT, 0);
-		offlineEditor.commit();
+		SearchResult result;
+		try {
+			result = future.get();
+		} catch(ExecutionException e) {
+			Log.w(TAG, "Failed to search for '" + action.getSearch() + "'", e.getCause());
+			return null;
+		}
 
-		return count - retry;
+		if(result.getSongs().size() == 1) {
+			MusicDirectory.Entry song = result.getSongs().get(0);
+			Log.i(TAG, "Query '" + action.getSearch() + "' returned song " + song.getTitle() + " by " + song.getArtist() + " with id " + song.getId());
+			return song;
+		} else if(action.getType() == OfflineAction.TYPE_STAR && result.getAlbums().size() == 1) {
+			MusicDirectory.Entry album = result.getAlbums().get(0);
+			Log.i(TAG, "Query '" + action.getSearch() + "' returned album " + album.getTitle() + " by " + album.getArtist() + " with id " + album.getId());
+			return album;
+		} else {
+			return null;
+		}
+	}
+
+	private void setOfflineStars(List<MusicDirectory.Entry> entries, int kind, boolean starred, Context context, ProgressListener progressListener) throws Exception {
+		switch(kind) {
+			case OfflineAction.KIND_ARTIST:
+				setStarred(null, entries, null, starred, progressListener, context);
+				break;
+			case OfflineAction.KIND_ALBUM:
+				setStarred(null, null, entries, starred, progressListener, context);
+				break;
+			default:
+				setStarred(entries, null, null, starred, progressListener, context);
+				break;
+		}
+	}
+
+	private void processOfflineAction(OfflineAction action, MusicDirectory.Entry entry, Context context, ProgressListener progressListener) throws Exception {
+		switch(action.getType()) {
+			case OfflineAction.TYPE_SCROBBLE:
+				scrobble(entry.getId(), true, action.getTime(), context, progressListener);
+				break;
+			case OfflineAction.TYPE_RATING:
+				setRating(entry, action.getValue(), context, progressListener);
+				break;
+			case OfflineAction.TYPE_BOOKMARK:
+				if(action.getValue() < 0) {
+					deleteBookmark(entry, context, progressListener);
+				} else {
+					createBookmark(entry, action.getValue(), action.getComment(), context, progressListener);
+				}
+				break;
+		}
 	}
 
 	private String getOfflineSongId(String id, Context context, ProgressListener progressListener) throws Exception {
@@ -1703,6 +1867,34 @@ public class RESTMusicService implements MusicService {
 
 		return id;
 	}
+	private List<String> getOfflineSongIds(List<MusicDirectory.Entry> entries, Context context, ProgressListener progressListener) throws Exception {
+		SharedPreferences prefs = Util.getPreferences(context);
+		String cacheLocn = prefs.getString(Constants.PREFERENCES_KEY_CACHE_LOCATION, null);
+
+		List<String> paths = new ArrayList<String>();
+		for(MusicDirectory.Entry entry: entries) {
+			if(cacheLocn != null && entry.getId().indexOf(cacheLocn) != -1) {
+				paths.add(entry.getId());
+			}
+		}
+
+		// Look up every cached song at once and only fall back to searching for the ones never seen on this server
+		Map<String, Pair<Integer, String>> cachedSongIds = null;
+		if(!paths.isEmpty()) {
+			cachedSongIds = SongDBHandler.getHandler(context).getIdsFromPaths(Util.getRestUrlHash(context, getInstance(context)), paths);
+		}
+
+		List<String> ids = new ArrayList<String>();
+		for(MusicDirectory.Entry entry: entries) {
+			Pair<Integer, String> cachedSongId = cachedSongIds == null ? null : cachedSongIds.get(entry.getId());
+			if(cachedSongId != null) {
+				ids.add(cachedSongId.getSecond());
+			} else {
+				ids.add(getOfflineSongId(entry.getId(), context, progressListener));
+			}
+		}
+		return ids;
+	}
 
 	@Override
 	public void setInstance(Integer instance)  throws Exception {
@@ -1716,7 +1908,7 @@ public class RESTMusicService implements MusicService {
 			in = getInputStreamFromConnection(connection);
 
 			String contentType = connection.getContentType();
-			if (contentType != null && (contentType.startsWith("text/xml") || contentType.startsWith("text/html"))) {
+			if (contentType != null && (contentType.startsWith("text/xml") || contentType.startsWith("text/html") || contentType.startsWith("application/json"))) {
 				new ErrorParser(context, getInstance(context)).parse(new InputStreamReader(in, Constants.UTF_8));
 			}
 
@@ -19,6 +19,7 @@
 package github.daneren2005.dsub.service.parser;
 
 import java.io.IOException;
+import java.io.PushbackReader;
 import java.io.Reader;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -46,6 +47,7 @@ public abstract class AbstractParser {
     protected final Context context;
 	protected final int instance;
     private XmlPullParser parser;
+	private JsonPullParser jsonParser;
     private boolean rootElementFound;
 
     public AbstractParser(Context context, int instance) {
@@ -101,10 +103,16 @@ public abstract class AbstractParser {
     }
 
     protected String getText() {
+		if(jsonParser != null) {
+			return jsonParser.getText();
+		}
         return parser.getText();
     }
 
     protected String get(String name) {
+		if(jsonParser != null) {
+			return jsonParser.getAttributeValue(name);
+		}
         return parser.getAttributeValue(null, name);
     }
 
@@ -133,13 +141,32 @@ public abstract class AbstractParser {
     }
 
     protected void init(Reader reader) throws Exception {
-        parser = Xml.newPullParser();
-        parser.setInput(reader);
+		// Servers that don't understand f=json just send back XML, so look at what actually came back
+		PushbackReader pushbackReader = new PushbackReader(reader, 1);
+		int c;
+		do {
+			c = pushbackReader.read();
+		} while(c != -1 && (Character.isWhitespace(c) || c == '\uFEFF'));
+		if(c != -1) {
+			pushbackReader.unread(c);
+		}
+
+		if(c == '{') {
+			parser = null;
+			jsonParser = new JsonPullParser(pushbackReader);
+		} else {
+			jsonParser = null;
+			parser = Xml.newPullParser();
+			parser.setInput(pushbackReader);
+		}
         rootElementFound = false;
     }
 
     protected int nextParseEvent() throws Exception {
 		try {
+			if(jsonParser != null) {
+				return jsonParser.next();
+			}
 			return parser.next();
 		} catch(Exception e) {
 			if(ServerInfo.isMadsonic6(context, instance)) {
@@ -152,7 +179,7 @@ public abstract class AbstractParser {
     }
 
     protected String getElementName() {
-        String name = parser.getName();
+        String name = jsonParser != null ? jsonParser.getName() : parser.getName();
         if (SUBSONIC_RESPONSE.equals(name) || MADSONIC_RESPONSE.equals(name)) {
             rootElementFound = true;
             String version = get("version");
@@ -0,0 +1,238 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+
+package github.daneren2005.dsub.service.parser;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Walks a f=json REST response and hands back the same events the XML response would produce so the existing parsers can
+ * read either one.  Objects become tags, primitive fields become attributes, arrays become repeated tags and the special
+ * "value" field becomes the text of its tag.  Fields which are their own elements with text in the XML, like an artist's
+ * biography, are handed back that way too.  JSON doesn't promise any order for the fields of an object, so a tag is held
+ * back until the object ends or a limited number of events after it have been read, whichever comes first.
+ */
+class JsonPullParser {
+	private static final String TEXT_FIELD = "value";
+	private static final Set<String> TEXT_ELEMENT_PARENTS = new HashSet<String>(Arrays.asList("artistInfo", "artistInfo2", "albumInfo"));
+	private static final Set<String> TEXT_ELEMENTS = new HashSet<String>(Arrays.asList("biography", "notes", "musicBrainzId", "lastFmUrl", "smallImageUrl", "mediumImageUrl", "largeImageUrl"));
+	// How far past a tag to keep reading for attributes written after its children before handing it back without them
+	private static final int MAX_HELD_EVENTS = 512;
+
+	private final JsonReader reader;
+	// Objects and arrays which have been started but not finished yet
+	private final List<Frame> frames = new ArrayList<Frame>();
+	private final ArrayDeque<Event> events = new ArrayDeque<Event>();
+	private long eventsAdded = 0;
+	private long eventsReturned = 0;
+	private boolean started = false;
+	private String pendingText;
+	private Event current;
+
+	public JsonPullParser(Reader reader) {
+		this.reader = new JsonReader(reader);
+		this.reader.setLenient(true);
+	}
+
+	public int next() throws IOException {
+		if(pendingText != null) {
+			current = new Event(XmlPullParser.TEXT, current.name, null, pendingText);
+			pendingText = null;
+			return current.type;
+		}
+
+		while(!canReturnNext()) {
+			if(!step()) {
+				break;
+			}
+		}
+
+		current = events.poll();
+		if(current == null) {
+			current = new Event(XmlPullParser.END_DOCUMENT, null, null, null);
+		} else {
+			eventsReturned++;
+			if(current.type == XmlPullParser.START_TAG) {
+				// Text comes before any children, same as mixed content in the XML
+				pendingText = current.text;
+			}
+		}
+		return current.type;
+	}
+
+	private boolean canReturnNext() {
+		if(events.isEmpty()) {
+			return false;
+		}
+
+		for(Frame frame: frames) {
+			if(frame.start != null && eventsAdded - frame.startIndex < MAX_HELD_EVENTS) {
+				// Everything from this tag on waits for the rest of its attributes
+				return eventsReturned < frame.startIndex;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read the next name, value or end of an object or array
+	 * @return false once the whole response has been read
+	 */
+	private boolean step() throws IOException {
+		if(!started) {
+			// Outer object just wraps subsonic-response
+			reader.beginObject();
+			frames.add(new Frame(null, false));
+			started = true;
+			return true;
+		} else if(frames.isEmpty()) {
+			return false;
+		}
+
+		Frame frame = frames.get(frames.size() - 1);
+		if(!reader.hasNext()) {
+			if(frame.array) {
+				reader.endArray();
+			} else {
+				reader.endObject();
+				if(frame.name != null) {
+					addEvent(new Event(XmlPullParser.END_TAG, frame.name, null, null));
+				}
+			}
+			frames.remove(frames.size() - 1);
+			return true;
+		}
+
+		String name = frame.array ? frame.name : reader.nextName();
+		JsonToken token = reader.peek();
+		if(token == JsonToken.BEGIN_OBJECT) {
+			reader.beginObject();
+			Frame child = new Frame(name, false);
+			child.start = new Event(XmlPullParser.START_TAG, name, new HashMap<String, String>(), null);
+			child.startIndex = eventsAdded;
+			addEvent(child.start);
+			frames.add(child);
+		} else if(token == JsonToken.BEGIN_ARRAY) {
+			if(frame.array) {
+				// Nothing in the API nests arrays directly
+				reader.skipValue();
+			} else {
+				reader.beginArray();
+				frames.add(new Frame(name, true));
+			}
+		} else {
+			String value = readPrimitive();
+			if(frame.array) {
+				if(value == null) {
+					addEvent(new Event(XmlPullParser.START_TAG, name, new HashMap<String, String>(), null));
+					addEvent(new Event(XmlPullParser.END_TAG, name, null, null));
+				} else {
+					addTextElement(name, value);
+				}
+			} else if(value != null && frame.name != null) {
+				if(TEXT_FIELD.equals(name)) {
+					frame.start.text = value;
+				} else if(TEXT_ELEMENT_PARENTS.contains(frame.name) && TEXT_ELEMENTS.contains(name)) {
+					addTextElement(name, value);
+				} else {
+					// Tag might already be gone if this came long after its children, but usually it is still waiting
+					frame.start.attributes.put(name, value);
+				}
+			}
+		}
+		return true;
+	}
+
+	private void addEvent(Event event) {
+		events.add(event);
+		eventsAdded++;
+	}
+
+	private void addTextElement(String name, String text) {
+		addEvent(new Event(XmlPullParser.START_TAG, name, new HashMap<String, String>(), null));
+		addEvent(new Event(XmlPullParser.TEXT, name, null, text));
+		addEvent(new Event(XmlPullParser.END_TAG, name, null, null));
+	}
+
+	private String readPrimitive() throws IOException {
+		JsonToken token = reader.peek();
+		if(token == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		} else if(token == JsonToken.BOOLEAN) {
+			return Boolean.toString(reader.nextBoolean());
+		} else {
+			// Numbers are handed back exactly as they were written
+			return reader.nextString();
+		}
+	}
+
+	public String getName() {
+		return current == null ? null : current.name;
+	}
+
+	public String getAttributeValue(String name) {
+		if(current == null || current.attributes == null) {
+			return null;
+		}
+		return current.attributes.get(name);
+	}
+
+	public String getText() {
+		return current == null || current.type != XmlPullParser.TEXT ? null : current.text;
+	}
+
+	private static class Frame {
+		private final String name;
+		private final boolean array;
+		// Tag for an object, filled in with attributes as they are read
+		private Event start;
+		private long startIndex;
+
+		public Frame(String name, boolean array) {
+			this.name = name;
+			this.array = array;
+		}
+	}
+
+	private static class Event {
+		private final int type;
+		private final String name;
+		private final Map<String, String> attributes;
+		// Text of a TEXT event, or for a START_TAG the text handed back right after it
+		private String text;
+
+		public Event(int type, String name, Map<String, String> attributes, String text) {
+			this.type = type;
+			this.name = name;
+			this.attributes = attributes;
+			this.text = text;
+		}
+	}
+}
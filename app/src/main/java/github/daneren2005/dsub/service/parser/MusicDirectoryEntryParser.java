@@ -77,6 +77,7 @@ public class MusicDirectoryEntryParser extends AbstractParser {
         } else if(!"".equals(artist)) {
 			entry.setPath(artist + "/" + entry.getTitle());
 		}
+		entry.intern();
         return entry;
     }
 	
@@ -24,10 +24,16 @@ import android.content.Context;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import github.daneren2005.dsub.R;
 import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.service.DownloadFile;
 import github.daneren2005.dsub.util.FileUtil;
 import github.daneren2005.dsub.util.Notifications;
 import github.daneren2005.dsub.util.SyncUtil;
@@ -62,13 +68,17 @@ public class MostRecentSyncAdapter extends SubsonicSyncAdapter {
 				}
 				firstRun = true;
 			} else {
+				// Gather the songs from every new album so they can all be downloaded together
+				Map<MusicDirectory.Entry, List<DownloadFile>> albumFiles = new LinkedHashMap<MusicDirectory.Entry, List<DownloadFile>>();
+				List<DownloadFile> files = new ArrayList<DownloadFile>();
 				for(MusicDirectory.Entry album: albumList.getChildren()) {
 					if(!syncedList.contains(album.getId())) {
 						if(!"Podcast".equals(album.getGenre())) {
 							try {
-								if(downloadRecursively(null, getMusicDirectory(album), context, false)) {
-									updated.add(album.getTitle());
-								}
+								List<DownloadFile> songs = new ArrayList<DownloadFile>();
+								addRecursively(songs, getMusicDirectory(album), context, false);
+								albumFiles.put(album, songs);
+								files.addAll(songs);
 							} catch(Exception e) {
 								Log.w(TAG, "Failed to get songs for " + album.getId() + " on " + Util.getServerName(context, instance));
 							}
@@ -76,6 +86,14 @@ public class MostRecentSyncAdapter extends SubsonicSyncAdapter {
 						syncedList.add(album.getId());
 					}
 				}
+
+				Set<DownloadFile> downloaded = new HashSet<DownloadFile>(downloadAll(files));
+				throwIfNetworkInvalid();
+				for(Map.Entry<MusicDirectory.Entry, List<DownloadFile>> album: albumFiles.entrySet()) {
+					if(!Collections.disjoint(downloaded, album.getValue())) {
+						updated.add(album.getKey().getTitle());
+					}
+				}
 			}
 
 			if(updated.size() > 0) {
@@ -83,7 +101,7 @@ public class MostRecentSyncAdapter extends SubsonicSyncAdapter {
 					syncedList.remove(0);
 				}
 				
-				FileUtil.serialize(context, syncedList, SyncUtil.getMostRecentSyncFile(context, instance));
+				FileUtil.serialize(context, syncedList, SyncUtil.getMostRecentSyncFile(context, instance), instance);
 
 				// If there is a new album on the active server, chances are artists need to be refreshed
 				if(Util.getActiveServer(context) == instance) {
@@ -92,7 +110,7 @@ public class MostRecentSyncAdapter extends SubsonicSyncAdapter {
 
 				Notifications.showSyncNotification(context, R.string.sync_new_albums, SyncUtil.joinNames(updated));
 			} else if(firstRun) {
-				FileUtil.serialize(context, syncedList, SyncUtil.getMostRecentSyncFile(context, instance));
+				FileUtil.serialize(context, syncedList, SyncUtil.getMostRecentSyncFile(context, instance), instance);
 			}
 		} catch(Exception e) {
 			Log.e(TAG, "Failed to get most recent list for " + Util.getServerName(context, instance));
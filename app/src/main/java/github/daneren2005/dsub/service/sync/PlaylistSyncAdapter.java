@@ -25,7 +25,11 @@ import android.util.Log;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import github.daneren2005.dsub.R;
 import github.daneren2005.dsub.domain.MusicDirectory;
@@ -68,9 +72,10 @@ public class PlaylistSyncAdapter extends SubsonicSyncAdapter {
 		}
 
 		ArrayList<SyncSet> playlistList = SyncUtil.getSyncedPlaylists(context, instance);
-		List<String> updated = new ArrayList<String>();
-		String updatedId = null;
-		boolean removed = false;
+		List<PlaylistPlan> plans = new ArrayList<PlaylistPlan>();
+		List<SyncSet> deleted = new ArrayList<SyncSet>();
+		// Same song in more than one playlist only gets downloaded once
+		Map<String, DownloadFile> files = new LinkedHashMap<String, DownloadFile>();
 		for(int i = 0; i < playlistList.size(); i++) {
 			SyncSet cachedPlaylist = playlistList.get(i);
 			String id = cachedPlaylist.id;
@@ -81,62 +86,83 @@ public class PlaylistSyncAdapter extends SubsonicSyncAdapter {
 			}
 
 			try {
-				MusicDirectory playlist = musicService.getPlaylist(true, id, serverName, context, null);
-
-				// Get list of original paths
-				List<String> origPathList = new ArrayList<String>();
-				if(cachedPlaylist.synced != null) {
-					origPathList.addAll(cachedPlaylist.synced);
-				} else {
-					cachedPlaylist.synced = new ArrayList<String>();
-				}
-
-				for(MusicDirectory.Entry entry: playlist.getChildren()) {
+				PlaylistPlan plan = new PlaylistPlan(cachedPlaylist, musicService.getPlaylist(true, id, serverName, context, null));
+				for(MusicDirectory.Entry entry: plan.playlist.getChildren()) {
 					DownloadFile file = new DownloadFile(context, entry, true);
-					String path = file.getCompleteFile().getPath();
-					while(!file.isSaved() && !file.isFailedMax()) {
-						throwIfNetworkInvalid();
-						file.downloadNow(musicService);
-						if(file.isSaved() && !updated.contains(playlist.getName())) {
-							updated.add(playlist.getName());
-							if(updatedId == null) {
-								updatedId = playlist.getId();
-							}
-						}
+					String path = file.getSaveFile().getPath();
+					if(files.containsKey(path)) {
+						file = files.get(path);
+					} else {
+						files.put(path, file);
 					}
-
-					// Add to cached path set if saved
-					if(file.isSaved() && !cachedPlaylist.synced.contains(path)) {
-						cachedPlaylist.synced.add(path);
-					}
-
-					origPathList.remove(path);
-				}
-
-				// Check to unpin all paths which are no longer in playlist
-				if(origPathList.size() > 0) {
-					for(String path: origPathList) {
-						File saveFile = new File(path);
-						FileUtil.unpinSong(context, saveFile);
-						cachedPlaylist.synced.remove(path);
-					}
-
-					removed = true;
+					plan.files.add(file);
 				}
+				plans.add(plan);
 			} catch(SubsonicRESTException e) {
 				if(e.getCode() == 70) {
 					SyncUtil.removeSyncedPlaylist(context, id, instance);
+					deleted.add(cachedPlaylist);
 					Log.i(TAG, "Unsync deleted playlist " + id + " for " + serverName);
 				}
 			} catch(Exception e) {
 				Log.e(TAG, "Failed to get playlist " + id + " for " + serverName, e);
 			}
+		}
+		playlistList.removeAll(deleted);
+
+		// Download everything from every playlist at once instead of one playlist after another
+		Set<DownloadFile> downloaded = new HashSet<DownloadFile>(downloadAll(new ArrayList<DownloadFile>(files.values())));
+
+		List<String> updated = new ArrayList<String>();
+		String updatedId = null;
+		boolean changed = false;
+		for(PlaylistPlan plan: plans) {
+			SyncSet cachedPlaylist = plan.cachedPlaylist;
+
+			// Get list of original paths
+			List<String> origPathList = new ArrayList<String>();
+			if(cachedPlaylist.synced != null) {
+				origPathList.addAll(cachedPlaylist.synced);
+			} else {
+				cachedPlaylist.synced = new ArrayList<String>();
+			}
 
-			if(updated.size() > 0 || removed) {
-				SyncUtil.setSyncedPlaylists(context, instance, playlistList);
+			for(DownloadFile file: plan.files) {
+				String path = file.getCompleteFile().getPath();
+
+				// Add to cached path set if saved
+				if(file.isSaved() && !cachedPlaylist.synced.contains(path)) {
+					cachedPlaylist.synced.add(path);
+					changed = true;
+				}
+				if(downloaded.contains(file) && !updated.contains(plan.playlist.getName())) {
+					updated.add(plan.playlist.getName());
+					if(updatedId == null) {
+						updatedId = plan.playlist.getId();
+					}
+				}
+
+				origPathList.remove(path);
 			}
+
+			// Check to unpin all paths which are no longer in playlist
+			for(String path: origPathList) {
+				File saveFile = new File(path);
+				FileUtil.unpinSong(context, saveFile);
+				cachedPlaylist.synced.remove(path);
+				changed = true;
+			}
+		}
+
+		// Save what made it even if the network dropped part way through
+		if(changed) {
+			SyncUtil.setSyncedPlaylists(context, instance, playlistList);
 		}
-		
+		if(updated.size() > 0) {
+			Notifications.showSyncNotification(context, R.string.sync_new_playlists, SyncUtil.joinNames(updated), updatedId);
+		}
+		throwIfNetworkInvalid();
+
 		// For remaining playlists, check to make sure they have been updated recently
 		if(remainder != null) {
 			for (Playlist playlist : remainder) {
@@ -150,9 +176,16 @@ public class PlaylistSyncAdapter extends SubsonicSyncAdapter {
 				}
 			}
 		}
+	}
 
-		if(updated.size() > 0) {
-			Notifications.showSyncNotification(context, R.string.sync_new_playlists, SyncUtil.joinNames(updated), updatedId);
+	private static class PlaylistPlan {
+		private final SyncSet cachedPlaylist;
+		private final MusicDirectory playlist;
+		private final List<DownloadFile> files = new ArrayList<DownloadFile>();
+
+		public PlaylistPlan(SyncSet cachedPlaylist, MusicDirectory playlist) {
+			this.cachedPlaylist = cachedPlaylist;
+			this.playlist = playlist;
 		}
 	}
 }
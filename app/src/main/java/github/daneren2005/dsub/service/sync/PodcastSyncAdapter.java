@@ -66,33 +66,21 @@ public class PodcastSyncAdapter extends SubsonicSyncAdapter {
 				musicService.refreshPodcasts(context, null);
 			}
 
-			List<String> updated = new ArrayList<String>();
-			String updatedId = null;
+			// Find every episode that still needs to be downloaded before starting on any of them
+			List<EpisodePlan> plans = new ArrayList<EpisodePlan>();
+			List<DownloadFile> files = new ArrayList<DownloadFile>();
 			for(int i = 0; i < podcastList.size(); i++) {
 				SyncSet set = podcastList.get(i);
 				String id = set.id;
-				List<String> existingEpisodes = set.synced;
 				try {
 					MusicDirectory podcasts = musicService.getPodcastEpisodes(true, id, context, null);
 
 					for(MusicDirectory.Entry entry: podcasts.getChildren()) {
 						// Make sure podcast is valid and not already synced
-						if(entry.getId() != null && "completed".equals(((PodcastEpisode)entry).getStatus()) && !existingEpisodes.contains(entry.getId())) {
+						if(entry.getId() != null && "completed".equals(((PodcastEpisode)entry).getStatus()) && !set.synced.contains(entry.getId())) {
 							DownloadFile file = new DownloadFile(context, entry, false);
-							while(!file.isCompleteFileAvailable() && !file.isFailedMax()) {
-								throwIfNetworkInvalid();
-								file.downloadNow(musicService);
-							}
-							// Only add if actualy downloaded correctly
-							if(file.isCompleteFileAvailable()) {
-								existingEpisodes.add(entry.getId());
-								if(!updated.contains(podcasts.getName())) {
-									updated.add(podcasts.getName());
-									if(updatedId == null) {
-										updatedId = podcasts.getId();
-									}
-								}
-							}
+							plans.add(new EpisodePlan(set, podcasts, entry, file));
+							files.add(file);
 						}
 					}
 				}  catch(SubsonicRESTException e) {
@@ -105,13 +93,45 @@ public class PodcastSyncAdapter extends SubsonicSyncAdapter {
 				}
 			}
 
-			// Make sure there are is at least one change before re-syncing
+			downloadAll(files);
+
+			List<String> updated = new ArrayList<String>();
+			String updatedId = null;
+			for(EpisodePlan plan: plans) {
+				// Only add if actualy downloaded correctly
+				if(plan.file.isCompleteFileAvailable()) {
+					plan.set.synced.add(plan.episode.getId());
+					if(!updated.contains(plan.podcasts.getName())) {
+						updated.add(plan.podcasts.getName());
+						if(updatedId == null) {
+							updatedId = plan.podcasts.getId();
+						}
+					}
+				}
+			}
+
+			// Make sure there are is at least one change before re-syncing, even if the network dropped part way through
 			if(updated.size() > 0) {
-				FileUtil.serialize(context, podcastList, SyncUtil.getPodcastSyncFile(context, instance));
+				FileUtil.serialize(context, podcastList, SyncUtil.getPodcastSyncFile(context, instance), instance);
 				Notifications.showSyncNotification(context, R.string.sync_new_podcasts, SyncUtil.joinNames(updated), updatedId);
 			}
+			throwIfNetworkInvalid();
 		} catch(Exception e) {
 			Log.w(TAG, "Failed to get podcasts for " + Util.getServerName(context, instance));
 		}
 	}
+
+	private static class EpisodePlan {
+		private final SyncSet set;
+		private final MusicDirectory podcasts;
+		private final MusicDirectory.Entry episode;
+		private final DownloadFile file;
+
+		public EpisodePlan(SyncSet set, MusicDirectory podcasts, MusicDirectory.Entry episode, DownloadFile file) {
+			this.set = set;
+			this.podcasts = podcasts;
+			this.episode = episode;
+			this.file = file;
+		}
+	}
 }
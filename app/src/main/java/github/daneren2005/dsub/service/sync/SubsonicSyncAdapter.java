@@ -34,7 +34,14 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import github.daneren2005.dsub.domain.MusicDirectory;
 import github.daneren2005.dsub.service.CachedMusicService;
@@ -49,6 +56,8 @@ import github.daneren2005.dsub.util.Util;
 
 public class SubsonicSyncAdapter extends AbstractThreadedSyncAdapter {
 	private static final String TAG = SubsonicSyncAdapter.class.getSimpleName();
+	// How many files to download at once
+	private static final int SYNC_THREADS = 3;
 	protected CachedMusicService musicService = new CachedMusicService(new RESTMusicService());
 	protected boolean tagBrowsing;
 	private Context context;
@@ -148,32 +157,98 @@ public class SubsonicSyncAdapter extends AbstractThreadedSyncAdapter {
 	}
 
 	protected boolean downloadRecursively(List<String> paths, MusicDirectory parent, Context context, boolean save) throws Exception,NetworkNotValidException {
-		boolean downloaded = false;
-		for (MusicDirectory.Entry song: parent.getChildren(false, true)) {
-			if (!song.isVideo()) {
-				DownloadFile file = new DownloadFile(context, song, save);
-				while(!(save && file.isSaved() || !save && file.isCompleteFileAvailable()) && !file.isFailedMax()) {
-					throwIfNetworkInvalid();
-					file.downloadNow(musicService);
-					if(!file.isFailed()) {
-						downloaded = true;
-					}
-				}
+		List<DownloadFile> files = new ArrayList<DownloadFile>();
+		addRecursively(files, parent, context, save);
+		boolean downloaded = !downloadAll(files).isEmpty();
+		throwIfNetworkInvalid();
 
-				if(paths != null && file.isCompleteFileAvailable()) {
+		if(paths != null) {
+			for(DownloadFile file: files) {
+				if(file.isCompleteFileAvailable()) {
 					paths.add(file.getCompleteFile().getPath());
 				}
 			}
 		}
-		
+
+		return downloaded;
+	}
+	protected void addRecursively(List<DownloadFile> files, MusicDirectory parent, Context context, boolean save) throws Exception {
+		for (MusicDirectory.Entry song: parent.getChildren(false, true)) {
+			if (!song.isVideo()) {
+				files.add(new DownloadFile(context, song, save));
+			}
+		}
+
 		for (MusicDirectory.Entry dir: parent.getChildren(true, false)) {
-			if(downloadRecursively(paths, getMusicDirectory(dir), context, save)) {
-				downloaded = true;
+			addRecursively(files, getMusicDirectory(dir), context, save);
+		}
+	}
+
+	/**
+	 * Download every file which isn't already there, a few at a time.  Stops early if the network is lost, so whatever
+	 * finished can be recorded before calling throwIfNetworkInvalid.  Anything left over is picked back up on the next
+	 * sync since finished files are skipped and partial files are resumed.
+	 * @return Files which were downloaded by this call
+	 */
+	protected List<DownloadFile> downloadAll(List<DownloadFile> files) {
+		final List<DownloadFile> downloaded = Collections.synchronizedList(new ArrayList<DownloadFile>());
+		List<DownloadFile> missing = new ArrayList<DownloadFile>();
+		for(DownloadFile file: files) {
+			if(!isSynced(file) && !file.isFailedMax()) {
+				missing.add(file);
 			}
 		}
+		if(missing.isEmpty()) {
+			return downloaded;
+		}
+
+		Log.i(TAG, "Downloading " + missing.size() + " of " + files.size() + " files");
+		long start = System.currentTimeMillis();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicBoolean networkLost = new AtomicBoolean(false);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(SYNC_THREADS, missing.size()));
+		for(final DownloadFile file: missing) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if(networkLost.get()) {
+						return;
+					}
+
+					try {
+						while(!isSynced(file) && !file.isFailedMax()) {
+							throwIfNetworkInvalid();
+							file.downloadNow(musicService);
+						}
+					} catch(NetworkNotValidException e) {
+						networkLost.set(true);
+						return;
+					}
+
+					if(isSynced(file)) {
+						downloaded.add(file);
+						bytes.addAndGet(file.getCompleteFile().length());
+					}
+				}
+			});
+		}
+
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
 
+		long seconds = Math.max(1, (System.currentTimeMillis() - start) / 1000L);
+		Log.i(TAG, "Downloaded " + downloaded.size() + " of " + missing.size() + " files, " + Util.formatBytes(bytes.get()) + " in " + seconds + " seconds (" + Util.formatBytes(bytes.get() / seconds) + "/s)");
 		return downloaded;
 	}
+	protected boolean isSynced(DownloadFile file) {
+		return file.shouldSave() ? file.isSaved() : file.isCompleteFileAvailable();
+	}
+
 	protected MusicDirectory getMusicDirectory(MusicDirectory.Entry dir) throws Exception{
 		String id = dir.getId();
 		String name = dir.getTitle();
@@ -83,6 +83,11 @@ public class Updater {
 			this.updater = updater;
 		}
 
+		@Override
+		protected Lane getLane() {
+			return Lane.BACKGROUND;
+		}
+
 		@Override
 		protected Void doInBackground() {
 			try {
@@ -18,6 +18,7 @@ package github.daneren2005.dsub.util;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -128,6 +129,11 @@ public class ArtistRadioBuffer {
 					}
 				}
 				Log.i(TAG, "Refilled artist radio buffer with " + lastCount + " songs.");
+
+				// Songs are handed out from the end, so warm up their cover art in that order
+				List<MusicDirectory.Entry> next = new ArrayList<MusicDirectory.Entry>(buffer);
+				Collections.reverse(next);
+				Prefetcher.getInstance(context).prefetchCoverArt(next);
 			}
 		} catch (Exception x) {
 			// Give it one more try before quitting
@@ -23,11 +23,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -51,11 +51,8 @@ public abstract class BackgroundTask<T> implements ProgressListener {
 	protected Runnable onCompletionListener = null;
 	protected Task task;
 
-	private static final int DEFAULT_CONCURRENCY = 8;
-	private static final Collection<Thread> threads = Collections.synchronizedCollection(new ArrayList<Thread>());
-	protected static final BlockingQueue<BackgroundTask.Task> queue = new LinkedBlockingQueue<BackgroundTask.Task>(10);
+	private static final long SLOW_WAIT_TIME = 2000L;
 	private static Handler handler = null;
-	private static AtomicInteger currentlyRunning = new AtomicInteger(0);
 	static {
 		try {
 			handler = new Handler(Looper.getMainLooper());
@@ -67,18 +64,6 @@ public abstract class BackgroundTask<T> implements ProgressListener {
     public BackgroundTask(Context context) {
         this.context = context;
 
-		if(threads.size() < DEFAULT_CONCURRENCY) {
-			for(int i = threads.size(); i < DEFAULT_CONCURRENCY; i++) {
-				Thread thread = new Thread(new TaskRunnable(), String.format("BackgroundTask_%d", i));
-				threads.add(thread);
-				thread.start();
-			}
-		} else if(currentlyRunning.get() >= threads.size()) {
-			Log.w(TAG, "Emergency add new thread: " + (threads.size() + 1));
-			Thread thread = new Thread(new TaskRunnable(), String.format("BackgroundTask_%d", threads.size()));
-			threads.add(thread);
-			thread.start();
-		}
 		if(handler == null) {
 			try {
 				handler = new Handler(Looper.getMainLooper());
@@ -89,11 +74,9 @@ public abstract class BackgroundTask<T> implements ProgressListener {
     }
 
 	public static void stopThreads() {
-		for(Thread thread: threads) {
-			thread.interrupt();
+		for(Lane lane: Lane.values()) {
+			lane.stop();
 		}
-		threads.clear();
-		queue.clear();
 	}
 
     protected Activity getActivity() {
@@ -109,6 +92,16 @@ public abstract class BackgroundTask<T> implements ProgressListener {
 
 	public abstract void execute();
 
+	/**
+	 * Lane this task is scheduled in.  Each lane has its own threads so a flood of one kind of task can't starve the others.
+	 */
+	protected Lane getLane() {
+		return Lane.INTERACTIVE;
+	}
+	protected void enqueue(Task task) {
+		getLane().enqueue(task);
+	}
+
     protected abstract T doInBackground() throws Throwable;
 
     protected abstract void done(T result);
@@ -154,6 +147,9 @@ public abstract class BackgroundTask<T> implements ProgressListener {
 				} else {
 					task.cancel();
 				}
+			} else if(task != null && getLane().remove(task)) {
+				// Never started, no reason to keep it taking up a spot
+				getLane().dropped.incrementAndGet();
 			}
 
 			task = null;
@@ -194,6 +190,7 @@ public abstract class BackgroundTask<T> implements ProgressListener {
 	protected class Task {
 		private Thread thread;
 		private AtomicBoolean taskStart = new AtomicBoolean(false);
+		private long queuedAt;
 
 		private void execute() throws Exception {
 			// Don't run if cancelled already
@@ -301,11 +298,84 @@ public abstract class BackgroundTask<T> implements ProgressListener {
 		}
 	}
 
-	private class TaskRunnable implements Runnable {
-		private boolean running = true;
+	public enum Lane {
+		// Things the user is actively waiting on, newest request first
+		INTERACTIVE(4, true),
+		// Cover art, newest first so whatever was just scrolled into view loads before what already scrolled past
+		IMAGE(3, true),
+		// Downloads are long running so they get their own threads, DownloadService handles ordering
+		DOWNLOAD(4, false),
+		// Waiting for the song being played to buffer or finish, can block for as long as that takes
+		PLAYBACK(2, false),
+		// Cache cleanup, refreshing cached directories and other things nobody is watching
+		BACKGROUND(2, false);
+
+		private final int concurrency;
+		private final boolean lifo;
+		private final BlockingDeque<BackgroundTask.Task> queue = new LinkedBlockingDeque<BackgroundTask.Task>();
+		private final Collection<Thread> threads = Collections.synchronizedCollection(new ArrayList<Thread>());
+		private final AtomicInteger running = new AtomicInteger(0);
+		private final AtomicInteger completed = new AtomicInteger(0);
+		private final AtomicInteger dropped = new AtomicInteger(0);
+		private final AtomicLong totalWaitTime = new AtomicLong(0);
+
+		Lane(int concurrency, boolean lifo) {
+			this.concurrency = concurrency;
+			this.lifo = lifo;
+		}
+
+		private void enqueue(BackgroundTask.Task task) {
+			task.queuedAt = System.currentTimeMillis();
+			queue.offerLast(task);
+
+			synchronized(threads) {
+				for(int i = threads.size(); i < concurrency; i++) {
+					Thread thread = new Thread(new TaskRunnable(this), String.format("BackgroundTask_%s_%d", name(), i));
+					threads.add(thread);
+					thread.start();
+				}
+			}
+		}
+		private boolean remove(BackgroundTask.Task task) {
+			return queue.remove(task);
+		}
+		private BackgroundTask.Task take() throws InterruptedException {
+			return lifo ? queue.takeLast() : queue.takeFirst();
+		}
+		private void stop() {
+			synchronized(threads) {
+				for(Thread thread: threads) {
+					thread.interrupt();
+				}
+				threads.clear();
+			}
+			queue.clear();
+		}
+
+		public int getQueueDepth() {
+			return queue.size();
+		}
+		public int getRunning() {
+			return running.get();
+		}
+		public int getCompleted() {
+			return completed.get();
+		}
+		public int getDropped() {
+			return dropped.get();
+		}
+		public long getAverageWaitTime() {
+			int count = completed.get();
+			return count == 0 ? 0 : totalWaitTime.get() / count;
+		}
+	}
 
-		public TaskRunnable() {
+	private static class TaskRunnable implements Runnable {
+		private final Lane lane;
+		private boolean running = true;
 
+		public TaskRunnable(Lane lane) {
+			this.lane = lane;
 		}
 
 		@Override
@@ -314,9 +384,27 @@ public abstract class BackgroundTask<T> implements ProgressListener {
 			final Thread currentThread = Thread.currentThread();
 			while(running) {
 				try {
-					Task task = queue.take();
-					currentlyRunning.incrementAndGet();
-					task.execute();
+					BackgroundTask.Task task = lane.take();
+
+					// Drop anything that was cancelled or whose screen went away while it was waiting
+					if(task.isCancelled()) {
+						lane.dropped.incrementAndGet();
+						continue;
+					}
+
+					long waitTime = System.currentTimeMillis() - task.queuedAt;
+					lane.totalWaitTime.addAndGet(waitTime);
+					if(waitTime > SLOW_WAIT_TIME) {
+						Log.w(TAG, lane.name() + " task waited " + waitTime + "ms with " + lane.getQueueDepth() + " still queued");
+					}
+
+					lane.running.incrementAndGet();
+					try {
+						task.execute();
+					} finally {
+						lane.running.decrementAndGet();
+						lane.completed.incrementAndGet();
+					}
 				} catch(InterruptedException stop) {
 					Log.e(TAG, "Thread died");
 					running = false;
@@ -324,13 +412,9 @@ public abstract class BackgroundTask<T> implements ProgressListener {
 					Log.e(TAG, "Unexpected crash in BackgroundTask thread", t);
 					running = false;
 				}
-
-				currentlyRunning.decrementAndGet();
 			}
 
-			if(threads.contains(currentThread)) {
-				threads.remove(currentThread);
-			}
+			lane.threads.remove(currentThread);
 		}
 	}
 
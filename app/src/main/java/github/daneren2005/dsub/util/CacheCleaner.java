@@ -12,9 +12,11 @@ import android.content.Context;
 import android.util.Log;
 import android.os.StatFs;
 import github.daneren2005.dsub.domain.Playlist;
+import github.daneren2005.dsub.service.ChunkManifest;
 import github.daneren2005.dsub.service.DownloadFile;
 import github.daneren2005.dsub.service.DownloadService;
 import github.daneren2005.dsub.service.MediaStoreService;
+import github.daneren2005.dsub.service.OfflineMusicService;
 
 import java.util.*;
 
@@ -27,6 +29,8 @@ public class CacheCleaner {
     private static final String TAG = CacheCleaner.class.getSimpleName();
 	private static final long MIN_FREE_SPACE = 500 * 1024L * 1024L;
 	private static final long MAX_COVER_ART_SPACE = 100 * 1024L * 1024L;
+	private static final long MAX_THUMBNAIL_SPACE = 50 * 1024L * 1024L;
+	private static final long RECONCILE_INTERVAL = 24L * 60L * 60L * 1000L;
 
     private final Context context;
     private final DownloadService downloadService;
@@ -39,7 +43,11 @@ public class CacheCleaner {
     }
 
     public void clean() {
-		new BackgroundCleanup(context).execute();
+		if(isIndexStale()) {
+			new BackgroundCleanup(context).execute();
+		} else {
+			new BackgroundSpaceCleanup(context).execute();
+		}
     }
 	public void cleanSpace() {
 		new BackgroundSpaceCleanup(context).execute();
@@ -62,9 +70,7 @@ public class CacheCleaner {
 		if(files.size() == 0) {
 			return 0L;
 		}
-		
-		long cacheSizeBytes = Util.getCacheSizeMB(context) * 1024L * 1024L;
-		
+
         long bytesUsedBySubsonic = 0L;
         for (File file : files) {
             bytesUsedBySubsonic += file.length();
@@ -72,9 +78,14 @@ public class CacheCleaner {
         for (File file : pinned) {
             bytesUsedBySubsonic += file.length();
         }
-		
+
+		return getMinimumDelete(bytesUsedBySubsonic, files.get(0));
+	}
+	private long getMinimumDelete(long bytesUsedBySubsonic, File path) {
+		long cacheSizeBytes = Util.getCacheSizeMB(context) * 1024L * 1024L;
+
 		// Ensure that file system is not more than 95% full.
-        StatFs stat = new StatFs(files.get(0).getPath());
+        StatFs stat = new StatFs(path.getPath());
         long bytesTotalFs = (long) stat.getBlockCount() * (long) stat.getBlockSize();
         long bytesAvailableFs = (long) stat.getAvailableBlocks() * (long) stat.getBlockSize();
         long bytesUsedFs = bytesTotalFs - bytesAvailableFs;
@@ -148,11 +159,56 @@ public class CacheCleaner {
         });
     }
 
+	private void deleteIndexedFiles(SongDBHandler dbHandler, Set<File> undeletable, long bytesToDelete) {
+		Set<String> skip = new HashSet<String>();
+		for(File file: undeletable) {
+			skip.add(file.getAbsolutePath());
+		}
+
+		long bytesDeleted = 0L;
+		List<File> removed = new ArrayList<File>();
+		for(Pair<String, Long> candidate: dbHandler.getLeastRecentlyUsedFiles(bytesToDelete, skip)) {
+			File file = new File(candidate.getFirst());
+			if(Util.delete(file)) {
+				bytesDeleted += candidate.getSecond();
+				mediaStore.deleteFromMediaStore(file);
+				FileUtil.deleteEmptyDir(file.getParentFile());
+			}
+
+			// Either deleted now or was already gone, index needs to forget it either way
+			removed.add(file);
+		}
+		dbHandler.removeCachedFiles(removed.toArray(new File[removed.size()]));
+
+		Log.i(TAG, "Deleted           : " + Util.formatBytes(bytesDeleted));
+	}
+
+	private void reconcileIndex(List<File> files, List<File> pinned) {
+		// Partial files are only tracked once they are finished
+		List<File> complete = new ArrayList<File>();
+		for(File file: files) {
+			String name = file.getName();
+			if(file.exists() && !name.endsWith(".partial") && !name.contains(".partial.")) {
+				complete.add(file);
+			}
+		}
+
+		SongDBHandler.getHandler(context).replaceCachedFiles(complete, pinned);
+		OfflineMusicService.updateOfflineIndex(context);
+		Util.getPreferences(context).edit().putLong(Constants.CACHE_KEY_INDEX_RECONCILED, System.currentTimeMillis()).commit();
+		Log.i(TAG, "Reconciled cache index with " + complete.size() + " cached and " + pinned.size() + " pinned files");
+	}
+	private boolean isIndexStale() {
+		long lastReconciled = Util.getPreferences(context).getLong(Constants.CACHE_KEY_INDEX_RECONCILED, 0L);
+		return (System.currentTimeMillis() - lastReconciled) > RECONCILE_INTERVAL;
+	}
+
     private Set<File> findUndeletableFiles() {
         Set<File> undeletable = new HashSet<File>(5);
 
         for (DownloadFile downloadFile : downloadService.getDownloads()) {
             undeletable.add(downloadFile.getPartialFile());
+            undeletable.add(ChunkManifest.getManifestFile(downloadFile.getPartialFile()));
             undeletable.add(downloadFile.getCompleteFile());
         }
 
@@ -161,8 +217,10 @@ public class CacheCleaner {
     }
     
 	private void cleanupCoverArt(Context context) {
-		File dir = FileUtil.getAlbumArtDirectory(context);
-		
+		cleanupDirectory(FileUtil.getAlbumArtDirectory(context), MAX_COVER_ART_SPACE, "cover art");
+		cleanupDirectory(FileUtil.getThumbnailDirectory(context), MAX_THUMBNAIL_SPACE, "thumbnails");
+	}
+	private void cleanupDirectory(File dir, long maxSpace, String description) {
 		List<File> files = new ArrayList<File>();
 		long bytesUsed = 0L;
 		for(File file: dir.listFiles()) {
@@ -173,7 +231,7 @@ public class CacheCleaner {
 		}
 		
 		// Don't waste time sorting if under limit already
-		if(bytesUsed < MAX_COVER_ART_SPACE) {
+		if(bytesUsed < maxSpace) {
 			return;
 		}
 		
@@ -181,7 +239,7 @@ public class CacheCleaner {
 		long bytesDeleted = 0L;
 		for(File file: files) {
 			// End as soon as the space used is below the threshold
-			if(bytesUsed < MAX_COVER_ART_SPACE) {
+			if(bytesUsed < maxSpace) {
 				break;
 			}
 			
@@ -192,7 +250,7 @@ public class CacheCleaner {
 			}
 		}
 		
-		Log.i(TAG, "Deleted " + Util.formatBytes(bytesDeleted) + " worth of cover art");
+		Log.i(TAG, "Deleted " + Util.formatBytes(bytesDeleted) + " worth of " + description);
 	}
 	
 	private class BackgroundCleanup extends SilentBackgroundTask<Void> {
@@ -200,6 +258,11 @@ public class CacheCleaner {
 			super(context);
 		}
 
+		@Override
+		protected Lane getLane() {
+			return Lane.BACKGROUND;
+		}
+
 		@Override
 		protected Void doInBackground() {
 			if (downloadService == null) {
@@ -219,6 +282,7 @@ public class CacheCleaner {
 
 				deleteFiles(files, undeletable, getMinimumDelete(files, pinned), true);
 				deleteEmptyDirs(dirs, undeletable);
+				reconcileIndex(files, pinned);
 				
 				// Make sure cover art directory does not grow too large
 				cleanupCoverArt(context);
@@ -235,6 +299,11 @@ public class CacheCleaner {
 			super(context);
 		}
 
+		@Override
+		protected Lane getLane() {
+			return Lane.BACKGROUND;
+		}
+
 		@Override
 		protected Void doInBackground() {
 			if (downloadService == null) {
@@ -242,17 +311,19 @@ public class CacheCleaner {
 				return null;
 			}
 
+			// Fallback to a full scan if the index hasn't been rebuilt in a while
+			if(isIndexStale()) {
+				new BackgroundCleanup(context).doInBackground();
+				return null;
+			}
+
 			try {
-				List<File> files = new ArrayList<File>();
-				List<File> pinned = new ArrayList<File>();
-				List<File> dirs = new ArrayList<File>();
-				findCandidatesForDeletion(FileUtil.getMusicDirectory(context), files, pinned, dirs);
+				SongDBHandler dbHandler = SongDBHandler.getHandler(context);
+				long[] sizes = dbHandler.getCachedFilesSize();
 
-				long bytesToDelete = getMinimumDelete(files, pinned);
+				long bytesToDelete = getMinimumDelete(sizes[0] + sizes[1], FileUtil.getMusicDirectory(context));
 				if(bytesToDelete > 0L) {
-					sortByAscendingModificationTime(files);
-					Set<File> undeletable = findUndeletableFiles();
-					deleteFiles(files, undeletable, bytesToDelete, false);
+					deleteIndexedFiles(dbHandler, findUndeletableFiles(), bytesToDelete);
 				}
 			} catch (RuntimeException x) {
 				Log.e(TAG, "Error in cache cleaning.", x);
@@ -270,6 +341,11 @@ public class CacheCleaner {
 			this.playlists = playlists;
 		}
 
+		@Override
+		protected Lane getLane() {
+			return Lane.BACKGROUND;
+		}
+
 		@Override
 		protected Void doInBackground() {
 			try {
@@ -0,0 +1,174 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+
+package github.daneren2005.dsub.util;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+/**
+ * Single store for everything FileUtil.serialize used to write out as its own file.  The connection is kept open and uses
+ * write ahead logging so cache hits from different threads don't wait on each other.
+ */
+public class CacheStore extends SQLiteOpenHelper {
+	private static CacheStore cacheStore;
+
+	private static final int DATABASE_VERSION = 1;
+	public static final String DATABASE_NAME = "CacheStore";
+
+	public static final String TABLE_OBJECTS = "Objects";
+	public static final String OBJECTS_NAME = "name";
+	public static final String OBJECTS_INSTANCE = "instance";
+	public static final String OBJECTS_UPDATED = "updated";
+	public static final String OBJECTS_DATA = "data";
+
+	// Instance for objects that don't belong to any server, like the play queue and equalizer settings
+	public static final int NO_INSTANCE = -1;
+
+	private CacheStore(Context context) {
+		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			enableWriteAheadLogging();
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private void enableWriteAheadLogging() {
+		setWriteAheadLoggingEnabled(true);
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_OBJECTS + " ( " +
+				OBJECTS_NAME + " TEXT PRIMARY KEY, " +
+				OBJECTS_INSTANCE + " INTEGER NOT NULL, " +
+				OBJECTS_UPDATED + " INTEGER NOT NULL, " +
+				OBJECTS_DATA + " BLOB)");
+		db.execSQL("CREATE INDEX " + TABLE_OBJECTS + "_instance ON " + TABLE_OBJECTS + " (" + OBJECTS_INSTANCE + ")");
+	}
+
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+	}
+
+	/**
+	 * @param instance Server the object belongs to, or {@link #NO_INSTANCE}
+	 * @param data Serialized object, or null if it was too large and was written to a file of the same name instead
+	 */
+	public void put(String name, int instance, byte[] data) {
+		SQLiteDatabase db = this.getWritableDatabase();
+
+		ContentValues values = new ContentValues();
+		values.put(OBJECTS_NAME, name);
+		values.put(OBJECTS_INSTANCE, instance);
+		values.put(OBJECTS_UPDATED, System.currentTimeMillis());
+		if(data == null) {
+			values.putNull(OBJECTS_DATA);
+		} else {
+			values.put(OBJECTS_DATA, data);
+		}
+		db.insertWithOnConflict(TABLE_OBJECTS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+	}
+
+	/**
+	 * @return Last time the object was updated and its data, or null if nothing is stored under that name
+	 */
+	public Pair<Long, byte[]> get(String name) {
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		String[] columns = {OBJECTS_UPDATED, OBJECTS_DATA};
+		Cursor cursor = db.query(TABLE_OBJECTS, columns, OBJECTS_NAME + " = ?", new String[] { name }, null, null, null, null);
+		try {
+			if(cursor.moveToFirst()) {
+				return new Pair<Long, byte[]>(cursor.getLong(0), cursor.isNull(1) ? null : cursor.getBlob(1));
+			} else {
+				return null;
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * @return Last time the object was updated and how many bytes are stored for it, or null if nothing is stored under that name.
+	 * Size is 0 when it was written to a file instead.
+	 */
+	public Pair<Long, Long> getInfo(String name) {
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		String[] columns = {OBJECTS_UPDATED, "length(" + OBJECTS_DATA + ")"};
+		Cursor cursor = db.query(TABLE_OBJECTS, columns, OBJECTS_NAME + " = ?", new String[] { name }, null, null, null, null);
+		try {
+			if(cursor.moveToFirst()) {
+				return new Pair<Long, Long>(cursor.getLong(0), cursor.isNull(1) ? 0L : cursor.getLong(1));
+			} else {
+				return null;
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Mark an object as up to date without rewriting it
+	 */
+	public void touch(String name) {
+		SQLiteDatabase db = this.getWritableDatabase();
+
+		ContentValues values = new ContentValues();
+		values.put(OBJECTS_UPDATED, System.currentTimeMillis());
+		db.update(TABLE_OBJECTS, values, OBJECTS_NAME + " = ?", new String[] { name });
+	}
+
+	public void remove(String name) {
+		SQLiteDatabase db = this.getWritableDatabase();
+		db.delete(TABLE_OBJECTS, OBJECTS_NAME + " = ?", new String[] { name });
+	}
+
+	/**
+	 * Drop everything cached for a server that is being removed, and shift the servers after it down to match their new numbers
+	 */
+	public void removeInstance(int instance) {
+		SQLiteDatabase db = this.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			db.delete(TABLE_OBJECTS, OBJECTS_INSTANCE + " = ?", new String[] { Integer.toString(instance) });
+			db.execSQL("UPDATE " + TABLE_OBJECTS + " SET " + OBJECTS_INSTANCE + " = " + OBJECTS_INSTANCE + " - 1 WHERE " + OBJECTS_INSTANCE + " > ?", new Object[] { instance });
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	public void clear() {
+		SQLiteDatabase db = this.getWritableDatabase();
+		db.delete(TABLE_OBJECTS, null, null);
+	}
+
+	public static synchronized CacheStore getStore(Context context) {
+		if(cacheStore == null) {
+			cacheStore = new CacheStore(context.getApplicationContext());
+		}
+
+		return cacheStore;
+	}
+}
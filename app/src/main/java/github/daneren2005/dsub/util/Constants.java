@@ -97,6 +97,7 @@ public final class Constants {
     public static final String PREFERENCES_KEY_CACHE_LOCATION = "cacheLocation";
     public static final String PREFERENCES_KEY_PRELOAD_COUNT_WIFI = "preloadCountWifi";
 	public static final String PREFERENCES_KEY_PRELOAD_COUNT_MOBILE = "preloadCountMobile";
+	public static final String PREFERENCES_KEY_CONCURRENT_DOWNLOADS = "concurrentDownloads";
     public static final String PREFERENCES_KEY_HIDE_MEDIA = "hideMedia";
     public static final String PREFERENCES_KEY_MEDIA_BUTTONS = "mediaButtons";
     public static final String PREFERENCES_KEY_SCREEN_LIT_ON_DOWNLOAD = "screenLitOnDownload";
@@ -156,6 +157,7 @@ public final class Constants {
 	public static final String PREFERENCES_KEY_PLAYLIST_NAME = "suggestedPlaylistName";
 	public static final String PREFERENCES_KEY_PLAYLIST_ID = "suggestedPlaylistId";
 	public static final String PREFERENCES_KEY_SERVER_SYNC = "serverSync";
+	public static final String PREFERENCES_KEY_SERVER_JSON = "serverJson";
 	public static final String PREFERENCES_KEY_RECENT_COUNT = "mostRecentCount";
 	public static final String PREFERENCES_KEY_MENU_RATING = "showRating";
 	public static final String PREFERENCES_KEY_REPLAY_GAIN = "replayGain";
@@ -195,6 +197,7 @@ public final class Constants {
 	public static final String CACHE_AUDIO_SESSION_ID = "audioSessionId";
 	public static final String CACHE_AUDIO_SESSION_VERSION_CODE = "audioSessionVersionCode";
 	public static final String CACHE_BLOCK_TOKEN_USE = "blockTokenUse";
+	public static final String CACHE_KEY_INDEX_RECONCILED = "cacheIndexReconciled";
 	
 	public static final String MAIN_BACK_STACK = "backStackIds";
 	public static final String MAIN_BACK_STACK_SIZE = "backStackIdsSize";
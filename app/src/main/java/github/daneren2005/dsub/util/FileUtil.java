@@ -25,10 +25,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -58,6 +59,7 @@ import github.daneren2005.dsub.service.MediaStoreService;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
 
 /**
  * @author Sindre Mehus
@@ -72,17 +74,40 @@ public class FileUtil {
 	private static final List<String> PLAYLIST_FILE_EXTENSIONS = Arrays.asList("m3u");
 	private static final int MAX_FILENAME_LENGTH = 254 - ".complete.mp3".length();
     private static File DEFAULT_MUSIC_DIR;
-	private static final Kryo kryo = new Kryo();
+	// Objects larger than this are written to their own file so they don't blow past the cursor window size
+	private static final int MAX_STORED_OBJECT_SIZE = 512 * 1024;
+	private static final long SLOW_DESERIALIZE_TIME = 100L;
+	private static final ThreadLocal<Kryo> kryo = new ThreadLocal<Kryo>() {
+		@Override
+		protected Kryo initialValue() {
+			Kryo kryo = new Kryo();
+			kryo.addDefaultSerializer(MusicDirectory.Entry.class, InterningEntrySerializer.class);
+			kryo.register(MusicDirectory.Entry.class);
+			kryo.register(Indexes.class);
+			kryo.register(Artist.class);
+			kryo.register(MusicFolder.class);
+			kryo.register(PodcastChannel.class);
+			kryo.register(Playlist.class);
+			kryo.register(Genre.class);
+			return kryo;
+		}
+	};
 	private static HashMap<String, MusicDirectory.Entry> entryLookup;
 
-	static {
-		kryo.register(MusicDirectory.Entry.class);
-		kryo.register(Indexes.class);
-		kryo.register(Artist.class);
-		kryo.register(MusicFolder.class);
-		kryo.register(PodcastChannel.class);
-		kryo.register(Playlist.class);
-		kryo.register(Genre.class);
+	// Same format as the default serializer, but entries share repeated values once they are read back in
+	public static class InterningEntrySerializer<T extends MusicDirectory.Entry> extends FieldSerializer<T> {
+		public InterningEntrySerializer(Kryo kryo, Class type) {
+			super(kryo, type);
+		}
+
+		@Override
+		public T read(Kryo kryo, Input input, Class<T> type) {
+			T entry = super.read(kryo, input, type);
+			if(entry != null) {
+				entry.intern();
+			}
+			return entry;
+		}
 	}
 	
 	public static File getAnySong(Context context) {
@@ -239,6 +264,15 @@ public class FileUtil {
         return null;
     }
 
+	public static File getThumbnailDirectory(Context context) {
+		File dir = new File(getAlbumArtDirectory(context), "thumbnails");
+		ensureDirectoryExistsAndIsReadWritable(dir);
+		return dir;
+	}
+	public static File getThumbnailFile(Context context, File albumArtFile, int size) {
+		return new File(getThumbnailDirectory(context), Util.md5Hex(albumArtFile.getPath() + "-" + size) + ".jpeg");
+	}
+
 	public static File getAvatarDirectory(Context context) {
 		File avatarDir = new File(getSubsonicDirectory(context), "avatars");
 		ensureDirectoryExistsAndIsReadWritable(avatarDir);
@@ -516,12 +550,20 @@ public class FileUtil {
 		return recursiveDelete(musicDirectory, mediaStore);
 	}
 	public static void deleteSerializedCache(Context context) {
+		CacheStore.getStore(context).clear();
 		for(File file: context.getCacheDir().listFiles()) {
 			if(file.getName().indexOf(".ser") != -1) {
 				file.delete();
 			}
 		}
 	}
+	public static void deleteSerializedCache(Context context, int instance) {
+		CacheStore.getStore(context).removeInstance(instance);
+	}
+	public static void deleteSerialized(Context context, String fileName) {
+		CacheStore.getStore(context).remove(fileName);
+		new File(context.getCacheDir(), fileName).delete();
+	}
 	public static boolean deleteArtworkCache(Context context) {
 		File artDirectory = FileUtil.getAlbumArtDirectory(context);
 		return recursiveDelete(artDirectory);
@@ -726,7 +768,7 @@ public class FileUtil {
         return files;
     }
 
-    private static boolean isMediaFile(File file) {
+    public static boolean isMediaFile(File file) {
         String extension = getExtension(file.getName());
         return MUSIC_FILE_EXTENSIONS.contains(extension) || VIDEO_FILE_EXTENSIONS.contains(extension);
     }
@@ -795,19 +837,36 @@ public class FileUtil {
 	}
 
     public static <T extends Serializable> boolean serialize(Context context, T obj, String fileName) {
-		Output out = null;
+		return serialize(context, obj, fileName, CacheStore.NO_INSTANCE);
+	}
+	/**
+	 * @param instance Server the object came from, so it is dropped along with that server
+	 */
+	public static <T extends Serializable> boolean serialize(Context context, T obj, String fileName, int instance) {
 		try {
-			RandomAccessFile file = new RandomAccessFile(context.getCacheDir() + "/" + fileName, "rw");
-			out = new Output(new FileOutputStream(file.getFD()));
-			synchronized (kryo) {
-				kryo.writeObject(out, obj);
+			Output out = new Output(4096, -1);
+			kryo.get().writeObject(out, obj);
+			byte[] bytes = out.toBytes();
+
+			File file = new File(context.getCacheDir(), fileName);
+			if(bytes.length > MAX_STORED_OBJECT_SIZE) {
+				OutputStream fileOut = new FileOutputStream(file);
+				try {
+					fileOut.write(bytes);
+				} finally {
+					Util.close(fileOut);
+				}
+				CacheStore.getStore(context).put(fileName, instance, null);
+			} else {
+				CacheStore.getStore(context).put(fileName, instance, bytes);
+				if(file.exists()) {
+					file.delete();
+				}
 			}
 			return true;
 		} catch (Throwable x) {
 			Log.w(TAG, "Failed to serialize object to " + fileName);
 			return false;
-		} finally {
-			Util.close(out);
 		}
     }
 
@@ -816,29 +875,51 @@ public class FileUtil {
 	}
 
     public static <T extends Serializable> T deserialize(Context context, String fileName, Class<T> tClass, int hoursOld) {
-		Input in = null;
+		long start = System.currentTimeMillis();
 		try {
 			File file = new File(context.getCacheDir(), fileName);
-			if(!file.exists()) {
+			Pair<Long, byte[]> stored = CacheStore.getStore(context).get(fileName);
+
+			long updated;
+			if(stored != null) {
+				updated = stored.getFirst();
+			} else if(file.exists()) {
+				// Written before the cache store existed
+				updated = file.lastModified();
+			} else {
 				return null;
 			}
 
 			if(hoursOld != 0) {
-				Date fileDate = new Date(file.lastModified());
 				// Convert into hours
-				long age = (new Date().getTime() - fileDate.getTime()) / 1000 / 3600;
+				long age = (System.currentTimeMillis() - updated) / 1000 / 3600;
 				if(age > hoursOld) {
 					return null;
 				}
 			}
 
-			RandomAccessFile randomFile = new RandomAccessFile(file, "r");
+			T result;
+			if(stored != null && stored.getSecond() != null) {
+				result = kryo.get().readObject(new Input(stored.getSecond()), tClass);
+			} else {
+				Input in = new Input(new FileInputStream(file));
+				try {
+					result = kryo.get().readObject(in, tClass);
+				} finally {
+					Util.close(in);
+				}
 
-			in = new Input(new FileInputStream(randomFile.getFD()));
-			synchronized (kryo) {
-				T result = kryo.readObject(in, tClass);
-				return result;
+				// Move old files into the store the first time they are read
+				if(stored == null && result != null) {
+					serialize(context, result, fileName, Util.getCacheNameInstance(context, fileName));
+				}
+			}
+
+			long time = System.currentTimeMillis() - start;
+			if(time > SLOW_DESERIALIZE_TIME) {
+				Log.i(TAG, "Took " + time + "ms to deserialize " + fileName);
 			}
+			return result;
 		} catch(FileNotFoundException e) {
 			// Different error message
 			Log.w(TAG, "No serialization for object from " + fileName);
@@ -846,19 +927,57 @@ public class FileUtil {
 		} catch (Throwable x) {
 			Log.w(TAG, "Failed to deserialize object from " + fileName);
 			return null;
+		}
+    }
+
+	/**
+	 * Add an object to the end of a file without rewriting what is already there, read back with deserializeAppended
+	 */
+	public static <T extends Serializable> boolean appendSerialized(Context context, T obj, String fileName) {
+		Output out = null;
+		try {
+			out = new Output(new FileOutputStream(new File(context.getCacheDir(), fileName), true));
+			kryo.get().writeObject(out, obj);
+			return true;
+		} catch (Throwable x) {
+			Log.w(TAG, "Failed to append object to " + fileName);
+			return false;
+		} finally {
+			Util.close(out);
+		}
+	}
+
+	/**
+	 * Read back everything added with appendSerialized, stopping at anything which was cut off part way through being written
+	 */
+	public static <T extends Serializable> List<T> deserializeAppended(Context context, String fileName, Class<T> tClass) {
+		List<T> results = new ArrayList<T>();
+		File file = new File(context.getCacheDir(), fileName);
+		if(!file.exists()) {
+			return results;
+		}
+
+		Input in = null;
+		try {
+			in = new Input(new FileInputStream(file));
+			while(!in.eof()) {
+				results.add(kryo.get().readObject(in, tClass));
+			}
+		} catch (Throwable x) {
+			Log.w(TAG, "Stopped reading " + fileName + " after " + results.size() + " objects");
 		} finally {
 			Util.close(in);
 		}
-    }
+
+		return results;
+	}
 
 	public static <T extends Serializable> boolean serializeCompressed(Context context, T obj, String fileName) {
 		Output out = null;
 		try {
 			RandomAccessFile file = new RandomAccessFile(context.getCacheDir() + "/" + fileName, "rw");
 			out = new Output(new DeflaterOutputStream(new FileOutputStream(file.getFD())));
-			synchronized (kryo) {
-				kryo.writeObject(out, obj);
-			}
+			kryo.get().writeObject(out, obj);
 			return true;
 		} catch (Throwable x) {
 			Log.w(TAG, "Failed to serialize compressed object to " + fileName);
@@ -875,10 +994,7 @@ public class FileUtil {
 			RandomAccessFile file = new RandomAccessFile(context.getCacheDir() + "/" + fileName, "r");
 
 			in = new Input(new InflaterInputStream(new FileInputStream(file.getFD())));
-			synchronized (kryo) {
-				T result = kryo.readObject(in, tClass);
-				return result;
-			}
+			return kryo.get().readObject(in, tClass);
 		} catch(FileNotFoundException e) {
 			// Different error message
 			Log.w(TAG, "No serialization compressed for object from " + fileName);
@@ -21,6 +21,7 @@ package github.daneren2005.dsub.util;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.LinearGradient;
@@ -39,7 +40,12 @@ import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import github.daneren2005.dsub.R;
 import github.daneren2005.dsub.domain.ArtistInfo;
@@ -76,6 +82,14 @@ public class ImageLoader {
 	private final int cacheSize;
 
 	private final static int[] COLORS = {0xFF33B5E5, 0xFFAA66CC, 0xFF99CC00, 0xFFFFBB33, 0xFFFF4444};
+	private final static int THUMBNAIL_QUALITY = 90;
+
+	private final AtomicInteger memoryHits = new AtomicInteger(0);
+	private final AtomicInteger memoryMisses = new AtomicInteger(0);
+	private final AtomicInteger thumbnailHits = new AtomicInteger(0);
+	private final AtomicInteger fullDecodes = new AtomicInteger(0);
+	private final AtomicLong thumbnailDecodeTime = new AtomicLong(0);
+	private final AtomicLong fullDecodeTime = new AtomicLong(0);
 
 	public ImageLoader(Context context) {
 		this.context = context;
@@ -123,6 +137,7 @@ public class ImageLoader {
 	}
 	public void onLowMemory(float percent) {
 		Log.i(TAG, "Cache size: " + cache.size() + " => " + Math.round(cacheSize * (1 - percent)) + " out of " + cache.maxSize());
+		Log.i(TAG, "Memory hits: " + memoryHits.get() + ", misses: " + memoryMisses.get() + ", thumbnail decodes: " + thumbnailHits.get() + " (avg " + getAverageThumbnailDecodeTime() + "ms), full decodes: " + fullDecodes.get() + " (avg " + getAverageFullDecodeTime() + "ms)");
 		cache.resize(Math.round(cacheSize * (1 - percent)));
 	}
 	public void onUIVisible() {
@@ -205,7 +220,8 @@ public class ImageLoader {
 
 		Bitmap bitmap = cache.get(getKey(entry.getCoverArt(), size));
 		if(bitmap == null || bitmap.isRecycled()) {
-			bitmap = FileUtil.getAlbumArtBitmap(context, entry, size);
+			memoryMisses.incrementAndGet();
+			bitmap = getAlbumArtBitmap(context, entry, size);
 			String key = getKey(entry.getCoverArt(), size);
 			cache.put(key, bitmap);
 			cache.get(key);
@@ -217,6 +233,93 @@ public class ImageLoader {
 		return bitmap;
 	}
 
+	private Bitmap getAlbumArtBitmap(Context context, MusicDirectory.Entry entry, int size) {
+		File albumArtFile = FileUtil.getAlbumArtFile(context, entry);
+		if(!albumArtFile.exists()) {
+			return null;
+		}
+
+		// Only keep thumbnails for list/grid sizes, full screen art would just duplicate the original
+		File thumbnailFile = null;
+		if(size < imageSizeLarge) {
+			thumbnailFile = FileUtil.getThumbnailFile(context, albumArtFile, size);
+			if(thumbnailFile.lastModified() >= albumArtFile.lastModified()) {
+				long start = System.currentTimeMillis();
+				Bitmap bitmap = decodeThumbnail(thumbnailFile);
+				if(bitmap != null) {
+					thumbnailHits.incrementAndGet();
+					thumbnailDecodeTime.addAndGet(System.currentTimeMillis() - start);
+					return bitmap;
+				}
+			}
+		}
+
+		long start = System.currentTimeMillis();
+		Bitmap bitmap = FileUtil.getAlbumArtBitmap(context, entry, size);
+		if(bitmap != null) {
+			fullDecodes.incrementAndGet();
+			fullDecodeTime.addAndGet(System.currentTimeMillis() - start);
+
+			if(thumbnailFile != null) {
+				saveThumbnail(thumbnailFile, bitmap);
+			}
+		}
+		return bitmap;
+	}
+	private Bitmap decodeThumbnail(File thumbnailFile) {
+		String path = thumbnailFile.getPath();
+		BitmapFactory.Options opt = new BitmapFactory.Options();
+		opt.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, opt);
+		if(opt.outWidth <= 0 || opt.outHeight <= 0) {
+			return null;
+		}
+
+		opt.inJustDecodeBounds = false;
+		opt.inSampleSize = 1;
+		return BitmapFactory.decodeFile(path, opt);
+	}
+	private void saveThumbnail(File thumbnailFile, Bitmap bitmap) {
+		File tmpFile = new File(thumbnailFile.getPath() + ".tmp");
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(tmpFile);
+			bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+			out.close();
+			out = null;
+
+			if(!tmpFile.renameTo(thumbnailFile)) {
+				tmpFile.delete();
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to save thumbnail " + thumbnailFile, e);
+			tmpFile.delete();
+		} finally {
+			Util.close(out);
+		}
+	}
+
+	public int getMemoryHits() {
+		return memoryHits.get();
+	}
+	public int getMemoryMisses() {
+		return memoryMisses.get();
+	}
+	public int getThumbnailHits() {
+		return thumbnailHits.get();
+	}
+	public int getFullDecodes() {
+		return fullDecodes.get();
+	}
+	public long getAverageThumbnailDecodeTime() {
+		int count = thumbnailHits.get();
+		return count == 0 ? 0 : thumbnailDecodeTime.get() / count;
+	}
+	public long getAverageFullDecodeTime() {
+		int count = fullDecodes.get();
+		return count == 0 ? 0 : fullDecodeTime.get() / count;
+	}
+
 	public SilentBackgroundTask loadImage(View view, MusicDirectory.Entry entry, boolean large, boolean crossfade) {
 		int size = large ? imageSizeLarge : imageSizeDefault;
 		return loadImage(view, entry, large, size, crossfade);
@@ -247,6 +350,7 @@ public class ImageLoader {
 
 		bitmap = cache.get(getKey(entry.getCoverArt(), size));
 		if (bitmap != null && !bitmap.isRecycled()) {
+			memoryHits.incrementAndGet();
 			final Drawable drawable = Util.createDrawableFromBitmap(this.context, bitmap);
 			setImage(view, drawable, crossfade);
 			if(large) {
@@ -254,6 +358,7 @@ public class ImageLoader {
 			}
 			return null;
 		}
+		memoryMisses.incrementAndGet();
 
 		if (!large) {
 			setImage(view, null, false);
@@ -444,11 +549,22 @@ public class ImageLoader {
 			mIsNowPlaying = isNowPlaying;
 		}
 
+		@Override
+		protected Lane getLane() {
+			return Lane.IMAGE;
+		}
+
 		@Override
 		protected Void doInBackground() throws Throwable {
 			try {
-				MusicService musicService = MusicServiceFactory.getMusicService(mContext);
-				Bitmap bitmap = musicService.getCoverArt(mContext, mEntry, mSize, null, this);
+				Bitmap bitmap = getAlbumArtBitmap(mContext, mEntry, mSize);
+				if(bitmap == null) {
+					MusicService musicService = MusicServiceFactory.getMusicService(mContext);
+					bitmap = musicService.getCoverArt(mContext, mEntry, mSize, null, this);
+					if(bitmap != null && mSize < imageSizeLarge) {
+						saveThumbnail(FileUtil.getThumbnailFile(mContext, FileUtil.getAlbumArtFile(mContext, mEntry), mSize), bitmap);
+					}
+				}
 				if(bitmap != null) {
 					String key = getKey(mEntry.getCoverArt(), mSize);
 					cache.put(key, bitmap);
@@ -526,6 +642,11 @@ public class ImageLoader {
 			mCrossfade = crossfade;
 		}
 
+		@Override
+		protected Lane getLane() {
+			return Lane.IMAGE;
+		}
+
 		@Override
 		protected Void doInBackground() throws Throwable {
 			try {
@@ -599,6 +720,11 @@ public class ImageLoader {
 			mSize = size;
 		}
 
+		@Override
+		protected Lane getLane() {
+			return Lane.IMAGE;
+		}
+
 		@Override
 		protected Void doInBackground() throws Throwable {
 			try {
@@ -647,6 +773,11 @@ public class ImageLoader {
 			mUsername = username;
 		}
 
+		@Override
+		protected Lane getLane() {
+			return Lane.IMAGE;
+		}
+
 		@Override
 		protected Void doInBackground() throws Throwable {
 			try {
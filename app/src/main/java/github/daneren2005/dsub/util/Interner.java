@@ -0,0 +1,60 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+
+package github.daneren2005.dsub.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Shares one copy of values which show up over and over again, like the artist, album and genre of every song on an album.
+ * Only holds weak references, so values nothing uses anymore can still be garbage collected.
+ */
+public final class Interner {
+	private static final Map<Object, WeakReference<Object>> pool = new WeakHashMap<Object, WeakReference<Object>>();
+
+	private Interner() {
+
+	}
+
+	public static String intern(String value) {
+		return (String) internObject(value);
+	}
+	public static Integer intern(Integer value) {
+		// Small values already come from Integer's own cache
+		if(value == null || (value >= -128 && value <= 127)) {
+			return value;
+		}
+		return (Integer) internObject(value);
+	}
+
+	private static Object internObject(Object value) {
+		if(value == null) {
+			return null;
+		}
+
+		synchronized(pool) {
+			WeakReference<Object> ref = pool.get(value);
+			Object existing = ref == null ? null : ref.get();
+			if(existing != null) {
+				return existing;
+			}
+
+			pool.put(value, new WeakReference<Object>(value));
+			return value;
+		}
+	}
+}
@@ -35,7 +35,7 @@ public abstract class LoadingTask<T> extends BackgroundTask<T> {
 			}
 		});
 
-		queue.offer(task = new Task() {
+		enqueue(task = new Task() {
 			@Override
 			public void onDone(T result) {
 				if(loading.isShowing()) {
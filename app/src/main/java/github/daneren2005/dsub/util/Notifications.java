@@ -55,23 +55,36 @@ public final class Notifications {
 	private static boolean downloadShowing = false;
 	private static boolean downloadForeground = false;
 	private static boolean persistentPlayingShowing = false;
+	// What the playing notification was last built with, so it isn't built and posted again when nothing changed
+	private static String lastPlayingState;
+	private static Bitmap lastPlayingArt;
 
 	private final static Pair<Integer, Integer> NOTIFICATION_TEXT_COLORS = new Pair<Integer, Integer>();
 
 	public static void showPlayingNotification(final Context context, final DownloadService downloadService, final Handler handler, MusicDirectory.Entry song) {
+		final boolean playing = downloadService.getPlayerState() == PlayerState.STARTED;
+		boolean remote = downloadService.isRemoteEnabled();
+		boolean isSingle = downloadService.isCurrentPlayingSingle();
+		boolean shouldFastForward = downloadService.shouldFastForward();
+		Bitmap bitmap = getPlayingArt(context, song);
+
+		boolean persistent = Util.getPreferences(context).getBoolean(Constants.PREFERENCES_KEY_PERSISTENT_NOTIFICATION, false);
+		String state = song.getId() + "\n" + song.getTitle() + "\n" + song.getArtist() + "\n" + song.getAlbum() + "\n" + playing + "\n" + remote + "\n" + isSingle + "\n" + shouldFastForward + "\n" + persistent;
+		if(state.equals(lastPlayingState) && bitmap == lastPlayingArt && (playShowing || persistentPlayingShowing) && !(downloadForeground && downloadShowing)) {
+			DSubWidgetProvider.notifyInstances(context, downloadService, playing);
+			return;
+		}
+		lastPlayingState = state;
+		lastPlayingArt = bitmap;
+
 		// Set the icon, scrolling text and timestamp
 		final Notification notification = new Notification(R.drawable.stat_notify_playing, song.getTitle(), System.currentTimeMillis());
-
-		final boolean playing = downloadService.getPlayerState() == PlayerState.STARTED;
 		if(playing) {
 			notification.flags |= Notification.FLAG_NO_CLEAR | Notification.FLAG_ONGOING_EVENT;
 		}
-		boolean remote = downloadService.isRemoteEnabled();
-		boolean isSingle = downloadService.isCurrentPlayingSingle();
-		boolean shouldFastForward = downloadService.shouldFastForward();
 		if (Build.VERSION.SDK_INT>= Build.VERSION_CODES.JELLY_BEAN){
 			RemoteViews expandedContentView = new RemoteViews(context.getPackageName(), R.layout.notification_expanded);
-			setupViews(expandedContentView ,context, song, true, playing, remote, isSingle, shouldFastForward);
+			setupViews(expandedContentView ,context, song, bitmap, true, playing, remote, isSingle, shouldFastForward);
 			notification.bigContentView = expandedContentView;
 			notification.priority = Notification.PRIORITY_HIGH;
 		}
@@ -84,7 +97,7 @@ public final class Notifications {
 		}
 
 		RemoteViews smallContentView = new RemoteViews(context.getPackageName(), R.layout.notification);
-		setupViews(smallContentView, context, song, false, playing, remote, isSingle, shouldFastForward);
+		setupViews(smallContentView, context, song, bitmap, false, playing, remote, isSingle, shouldFastForward);
 		notification.contentView = smallContentView;
 
 		Intent notificationIntent = new Intent(context, SubsonicFragmentActivity.class);
@@ -138,29 +151,35 @@ public final class Notifications {
 		DSubWidgetProvider.notifyInstances(context, downloadService, playing);
 	}
 
-	private static void setupViews(RemoteViews rv, Context context, MusicDirectory.Entry song, boolean expanded, boolean playing, boolean remote, boolean isSingleFile, boolean shouldFastForward) {
-		// Use the same text for the ticker and the expanded notification
-		String title = song.getTitle();
-		String arist = song.getArtist();
-		String album = song.getAlbum();
-
-		// Set the album art.
+	private static Bitmap getPlayingArt(Context context, MusicDirectory.Entry song) {
 		try {
 			ImageLoader imageLoader = SubsonicActivity.getStaticImageLoader(context);
 			Bitmap bitmap = null;
 			if(imageLoader != null) {
 				bitmap = imageLoader.getCachedImage(context, song, false);
 			}
-			if (bitmap == null) {
-				// set default album art
-				rv.setImageViewResource(R.id.notification_image, R.drawable.unknown_album);
-			} else {
+			if(bitmap != null) {
 				imageLoader.setNowPlayingSmall(bitmap);
-				rv.setImageViewBitmap(R.id.notification_image, bitmap);
 			}
+			return bitmap;
 		} catch (Exception x) {
 			Log.w(TAG, "Failed to get notification cover art", x);
+			return null;
+		}
+	}
+
+	private static void setupViews(RemoteViews rv, Context context, MusicDirectory.Entry song, Bitmap bitmap, boolean expanded, boolean playing, boolean remote, boolean isSingleFile, boolean shouldFastForward) {
+		// Use the same text for the ticker and the expanded notification
+		String title = song.getTitle();
+		String arist = song.getArtist();
+		String album = song.getAlbum();
+
+		// Set the album art.
+		if (bitmap == null) {
+			// set default album art
 			rv.setImageViewResource(R.id.notification_image, R.drawable.unknown_album);
+		} else {
+			rv.setImageViewBitmap(R.id.notification_image, bitmap);
 		}
 
 		// set the text for the notifications
@@ -307,6 +326,8 @@ public final class Notifications {
 
 	public static void hidePlayingNotification(final Context context, final DownloadService downloadService, Handler handler) {
 		playShowing = false;
+		lastPlayingState = null;
+		lastPlayingArt = null;
 
 		// Remove notification and remove the service from the foreground
 		handler.post(new Runnable() {
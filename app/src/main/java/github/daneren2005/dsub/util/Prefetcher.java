@@ -0,0 +1,268 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+
+package github.daneren2005.dsub.util;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import github.daneren2005.dsub.domain.MusicDirectory.Entry;
+import github.daneren2005.dsub.service.CachedMusicService;
+import github.daneren2005.dsub.service.DownloadFile;
+import github.daneren2005.dsub.service.DownloadService;
+import github.daneren2005.dsub.service.MusicService;
+import github.daneren2005.dsub.service.MusicServiceFactory;
+
+/**
+ * Quietly loads directories and cover art that are likely to be asked for soon so they come straight out of the cache.
+ * Only runs on an unmetered connection and when the battery isn't low.  Waits while the song being played is still
+ * buffering, and spaces requests out while anything else is downloading.
+ */
+public class Prefetcher {
+	private static final String TAG = Prefetcher.class.getSimpleName();
+	// Only the first albums in a list are likely to be on screen
+	private static final int MAX_DIRECTORIES = 12;
+	private static final int MAX_COVER_ART = 20;
+	private static final int MAX_REMEMBERED = 200;
+	private static final int MIN_BATTERY_PERCENT = 20;
+	// How long to wait for the playing song to buffer before trying again
+	private static final int BUFFERING_RETRY_DELAY = 15;
+	// Gap left before each request while songs are downloading so they keep most of the bandwidth
+	private static final int DOWNLOADING_THROTTLE_DELAY = 2;
+	private static final int LOG_STATS_EVERY = 20;
+
+	private static Prefetcher instance;
+
+	private final Context context;
+	private final ScheduledExecutorService executorService;
+	// Keys waiting to be prefetched so the same one isn't queued twice
+	private final Set<String> queued = new HashSet<String>();
+	// Directories prefetched which haven't been opened yet
+	private final Map<String, Boolean> prefetched = new LinkedHashMap<String, Boolean>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_REMEMBERED;
+		}
+	};
+
+	private int directoryCount = 0;
+	private int coverArtCount = 0;
+	private int openCount = 0;
+	private int hitCount = 0;
+	private int missCount = 0;
+
+	private Prefetcher(Context context) {
+		this.context = context;
+		executorService = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	public static synchronized Prefetcher getInstance(Context context) {
+		if(instance == null) {
+			instance = new Prefetcher(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Load the first of the albums in a list which haven't been opened before
+	 */
+	public void prefetchDirectories(List<Entry> albums) {
+		if(albums == null || Util.isOffline(context)) {
+			return;
+		}
+
+		int count = 0;
+		for(Entry album: albums) {
+			if(count >= MAX_DIRECTORIES) {
+				break;
+			}
+			if(!album.isDirectory()) {
+				continue;
+			}
+
+			count++;
+			queue("directory-" + album.getId(), album, true);
+		}
+	}
+
+	/**
+	 * Load the cover art for songs which are going to be added to the play queue
+	 */
+	public void prefetchCoverArt(List<Entry> songs) {
+		if(songs == null || Util.isOffline(context)) {
+			return;
+		}
+
+		int count = 0;
+		for(Entry song: songs) {
+			if(count >= MAX_COVER_ART) {
+				break;
+			}
+			if(song.getCoverArt() == null) {
+				continue;
+			}
+
+			count++;
+			queue("coverArt-" + song.getCoverArt(), song, false);
+		}
+	}
+
+	/**
+	 * Record a directory being opened to keep track of how often prefetching paid off
+	 * @param cached Whether it was already in the cache
+	 */
+	public void onDirectoryOpened(String id, boolean cached) {
+		synchronized(prefetched) {
+			openCount++;
+			if(prefetched.remove("directory-" + id) != null) {
+				hitCount++;
+			} else if(!cached) {
+				missCount++;
+			}
+
+			if(openCount % LOG_STATS_EVERY == 0) {
+				logStats();
+			}
+		}
+	}
+
+	private void queue(final String key, final Entry entry, final boolean directory) {
+		synchronized(queued) {
+			if(!queued.add(key)) {
+				return;
+			}
+		}
+
+		executorService.execute(new Runnable() {
+			private boolean throttled = false;
+
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				if(!canPrefetch()) {
+					dequeue(key);
+					return;
+				}
+
+				DownloadService downloadService = DownloadService.getInstance();
+				if(downloadService != null) {
+					DownloadFile downloading = downloadService.getCurrentDownloading();
+					if(downloading != null && downloading == downloadService.getCurrentPlaying()) {
+						// Never slow down the song someone is waiting to hear, but come back once it has buffered
+						executorService.schedule(this, BUFFERING_RETRY_DELAY, TimeUnit.SECONDS);
+						return;
+					} else if(downloading != null && !throttled) {
+						// Single thread, so this spaces out everything queued behind it too
+						throttled = true;
+						executorService.schedule(this, DOWNLOADING_THROTTLE_DELAY, TimeUnit.SECONDS);
+						return;
+					}
+				}
+
+				try {
+					MusicService musicService = MusicServiceFactory.getMusicService(context);
+					if(musicService instanceof CachedMusicService) {
+						CachedMusicService cachedService = (CachedMusicService) musicService;
+						boolean fetched;
+						if(directory) {
+							fetched = cachedService.prefetchDirectory(context, entry);
+						} else {
+							fetched = cachedService.prefetchCoverArt(context, entry);
+						}
+
+						if(fetched) {
+							synchronized(prefetched) {
+								if(directory) {
+									directoryCount++;
+									prefetched.put(key, true);
+								} else {
+									coverArtCount++;
+								}
+							}
+						}
+					}
+				} catch(Exception e) {
+					Log.w(TAG, "Failed to prefetch " + key, e);
+				} finally {
+					dequeue(key);
+				}
+			}
+		});
+	}
+	private void dequeue(String key) {
+		synchronized(queued) {
+			queued.remove(key);
+		}
+	}
+
+	private boolean canPrefetch() {
+		if(Util.isOffline(context) || !Util.isNetworkConnected(context, true)) {
+			return false;
+		}
+
+		ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		if(isMetered(manager)) {
+			return false;
+		}
+
+		// Sticky broadcast, so this just reads the last known state without registering anything
+		Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		if(battery != null) {
+			int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+			boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+			int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+			int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+			if(!charging && level >= 0 && scale > 0 && level * 100 / scale < MIN_BATTERY_PERCENT) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+	private boolean isMetered(ConnectivityManager manager) {
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			return isActiveNetworkMetered(manager);
+		} else {
+			NetworkInfo networkInfo = manager.getActiveNetworkInfo();
+			return networkInfo == null || networkInfo.getType() != ConnectivityManager.TYPE_WIFI;
+		}
+	}
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private boolean isActiveNetworkMetered(ConnectivityManager manager) {
+		return manager.isActiveNetworkMetered();
+	}
+
+	private void logStats() {
+		int hitRate = directoryCount == 0 ? 0 : hitCount * 100 / directoryCount;
+		Log.i(TAG, "Prefetched " + directoryCount + " directories with " + hitCount + " opened afterwards (" + hitRate + "%) and " + coverArtCount + " cover art, " + missCount + " of " + openCount + " opened directories were not cached");
+	}
+}
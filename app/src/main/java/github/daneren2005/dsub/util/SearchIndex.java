@@ -0,0 +1,313 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+
+package github.daneren2005.dsub.util;
+
+import android.content.Context;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import github.daneren2005.dsub.domain.Artist;
+import github.daneren2005.dsub.domain.Indexes;
+import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.domain.MusicDirectory.Entry;
+import github.daneren2005.dsub.domain.SearchResult;
+
+/**
+ * Artists, albums and songs which have already been loaded, indexed by the start of each word in their name so search
+ * suggestions can be answered while typing without asking the server.
+ */
+public class SearchIndex {
+	private static final int TYPE_ARTIST = 0;
+	private static final int TYPE_ALBUM = 1;
+	private static final int TYPE_SONG = 2;
+	private static final int MAX_ITEMS = 25000;
+	// Only rank this many matches, anything past it is a poor suggestion anyways
+	private static final int MAX_CANDIDATES = 200;
+	private static final Pattern MARKS = Pattern.compile("\\p{M}");
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	private static SearchIndex instance;
+
+	// Server the index was built for
+	private int server = -1;
+	private final Map<String, Item> items = new HashMap<String, Item>();
+	private final TreeMap<String, List<Item>> words = new TreeMap<String, List<Item>>();
+
+	public static synchronized SearchIndex getInstance() {
+		if(instance == null) {
+			instance = new SearchIndex();
+		}
+		return instance;
+	}
+
+	public synchronized boolean isEmpty(Context context) {
+		checkServer(context);
+		return items.isEmpty();
+	}
+
+	public synchronized void add(Context context, Indexes indexes) {
+		if(indexes == null) {
+			return;
+		}
+
+		checkServer(context);
+		for(Artist artist: indexes.getShortcuts()) {
+			add(TYPE_ARTIST, artist.getId(), artist.getName(), artist);
+		}
+		for(Artist artist: indexes.getArtists()) {
+			add(TYPE_ARTIST, artist.getId(), artist.getName(), artist);
+		}
+		addEntries(indexes.getEntries());
+	}
+	public synchronized void add(Context context, MusicDirectory dir) {
+		if(dir == null) {
+			return;
+		}
+
+		checkServer(context);
+		addEntries(dir.getChildren());
+	}
+	public synchronized void add(Context context, SearchResult result) {
+		if(result == null) {
+			return;
+		}
+
+		checkServer(context);
+		for(Artist artist: result.getArtists()) {
+			add(TYPE_ARTIST, artist.getId(), artist.getName(), artist);
+		}
+		addEntries(result.getAlbums());
+		addEntries(result.getSongs());
+	}
+
+	public synchronized SearchResult search(Context context, String query, int artistCount, int albumCount, int songCount) {
+		checkServer(context);
+		List<Artist> artists = new ArrayList<Artist>();
+		List<Entry> albums = new ArrayList<Entry>();
+		List<Entry> songs = new ArrayList<Entry>();
+		SearchResult result = new SearchResult(artists, albums, songs);
+
+		final String normalized = normalize(query);
+		String[] terms = SEPARATORS.split(normalized);
+		String longest = "";
+		for(String term: terms) {
+			if(term.length() > longest.length()) {
+				longest = term;
+			}
+		}
+		if(longest.isEmpty()) {
+			return result;
+		}
+
+		// Look up the most specific word, then check the others against the names found
+		List<Item> candidates = new ArrayList<Item>();
+		Set<Item> seen = new HashSet<Item>();
+		search:
+		for(List<Item> list: words.subMap(longest, true, longest + Character.MAX_VALUE, true).values()) {
+			for(Item item: list) {
+				if(seen.add(item) && item.matches(terms)) {
+					candidates.add(item);
+					if(candidates.size() >= MAX_CANDIDATES) {
+						break search;
+					}
+				}
+			}
+		}
+
+		// Names that start with what was typed first, then shortest since they are closest to the query
+		Collections.sort(candidates, new Comparator<Item>() {
+			@Override
+			public int compare(Item lhs, Item rhs) {
+				boolean lhsStart = lhs.name.startsWith(normalized);
+				boolean rhsStart = rhs.name.startsWith(normalized);
+				if(lhsStart != rhsStart) {
+					return lhsStart ? -1 : 1;
+				}
+				return lhs.name.length() - rhs.name.length();
+			}
+		});
+
+		for(Item item: candidates) {
+			if(item.type == TYPE_ARTIST) {
+				if(artists.size() < artistCount) {
+					artists.add((Artist) item.value);
+				}
+			} else if(item.type == TYPE_ALBUM) {
+				if(albums.size() < albumCount) {
+					albums.add((Entry) item.value);
+				}
+			} else if(songs.size() < songCount) {
+				songs.add((Entry) item.value);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Add anything from the second result which isn't already in the first onto the end of it
+	 */
+	public static SearchResult merge(SearchResult first, SearchResult second) {
+		if(first == null) {
+			return second;
+		} else if(second == null) {
+			return first;
+		}
+
+		List<Artist> artists = new ArrayList<Artist>(first.getArtists());
+		Set<String> ids = new HashSet<String>();
+		for(Artist artist: artists) {
+			ids.add(artist.getId());
+		}
+		for(Artist artist: second.getArtists()) {
+			if(ids.add(artist.getId())) {
+				artists.add(artist);
+			}
+		}
+
+		return new SearchResult(artists, mergeEntries(first.getAlbums(), second.getAlbums()), mergeEntries(first.getSongs(), second.getSongs()));
+	}
+	private static List<Entry> mergeEntries(List<Entry> first, List<Entry> second) {
+		List<Entry> merged = new ArrayList<Entry>(first);
+		Set<String> ids = new HashSet<String>();
+		for(Entry entry: merged) {
+			ids.add(entry.getId());
+		}
+		for(Entry entry: second) {
+			if(ids.add(entry.getId())) {
+				merged.add(entry);
+			}
+		}
+		return merged;
+	}
+
+	private void addEntries(List<Entry> entries) {
+		for(Entry entry: entries) {
+			if(entry.isDirectory()) {
+				add(TYPE_ALBUM, entry.getId(), entry.getTitle(), entry);
+			} else if(!entry.isVideo()) {
+				add(TYPE_SONG, entry.getId(), entry.getTitle(), entry);
+			}
+		}
+	}
+	private void add(int type, String id, String name, Object value) {
+		if(id == null || name == null) {
+			return;
+		}
+
+		String key = type + ":" + id;
+		Item existing = items.get(key);
+		String normalized = normalize(name);
+		if(existing != null) {
+			if(existing.name.equals(normalized)) {
+				existing.value = value;
+				return;
+			}
+
+			// Renamed, so the old words don't point to it anymore
+			removeWords(existing);
+		} else if(items.size() >= MAX_ITEMS) {
+			return;
+		}
+
+		Item item = new Item(type, normalized, value);
+		items.put(key, item);
+		for(String word: item.words) {
+			List<Item> list = words.get(word);
+			if(list == null) {
+				list = new ArrayList<Item>(1);
+				words.put(word, list);
+			}
+			list.add(item);
+		}
+	}
+	private void removeWords(Item item) {
+		for(String word: item.words) {
+			List<Item> list = words.get(word);
+			if(list != null) {
+				list.remove(item);
+				if(list.isEmpty()) {
+					words.remove(word);
+				}
+			}
+		}
+	}
+
+	private void checkServer(Context context) {
+		int activeServer = Util.getActiveServer(context);
+		if(server != activeServer) {
+			items.clear();
+			words.clear();
+			server = activeServer;
+		}
+	}
+
+	static String normalize(String name) {
+		String normalized = Normalizer.normalize(name.toLowerCase(), Normalizer.Form.NFD);
+		return MARKS.matcher(normalized).replaceAll("");
+	}
+
+	private static class Item {
+		final int type;
+		final String name;
+		final String[] words;
+		Object value;
+
+		Item(int type, String name, Object value) {
+			this.type = type;
+			this.name = name;
+			this.value = value;
+
+			List<String> list = new ArrayList<String>();
+			for(String word: SEPARATORS.split(name)) {
+				if(!word.isEmpty()) {
+					list.add(word);
+				}
+			}
+			words = list.toArray(new String[list.size()]);
+		}
+
+		// Every term has to be the start of one of the words in the name
+		boolean matches(String[] terms) {
+			for(String term: terms) {
+				if(term.isEmpty()) {
+					continue;
+				}
+
+				boolean found = false;
+				for(String word: words) {
+					if(word.startsWith(term)) {
+						found = true;
+						break;
+					}
+				}
+				if(!found) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
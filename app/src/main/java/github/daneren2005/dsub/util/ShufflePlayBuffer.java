@@ -18,8 +18,8 @@
  */
 package github.daneren2005.dsub.util;
 
-import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -151,6 +151,11 @@ public class ShufflePlayBuffer {
 				}
 				Log.i(TAG, "Refilled shuffle play buffer with " + lastCount + " songs.");
 
+				// Songs are handed out from the end, so warm up their cover art in that order
+				List<MusicDirectory.Entry> next = new ArrayList<MusicDirectory.Entry>(buffer);
+				Collections.reverse(next);
+				Prefetcher.getInstance(context).prefetchCoverArt(next);
+
 				// Cache buffer
 				FileUtil.serialize(context, buffer, CACHE_FILENAME);
 			}
@@ -203,8 +208,7 @@ public class ShufflePlayBuffer {
 					firstRun = false;
 				} else {
 					// Clear cache
-					File file = new File(context.getCacheDir(), CACHE_FILENAME);
-					file.delete();
+					FileUtil.deleteSerialized(context, CACHE_FILENAME);
 				}
 			}
 		}
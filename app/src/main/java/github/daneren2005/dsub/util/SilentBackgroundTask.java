@@ -30,7 +30,7 @@ public abstract class SilentBackgroundTask<T> extends BackgroundTask<T> {
 
     @Override
     public void execute() {
-		queue.offer(task = new Task());
+		enqueue(task = new Task());
     }
 
 	@Override
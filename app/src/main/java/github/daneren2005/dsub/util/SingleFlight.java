@@ -0,0 +1,93 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+
+package github.daneren2005.dsub.util;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes sure only one call for a given key is in flight at a time.  Anyone else asking for the same key while it is
+ * running waits for it and gets the same result (or exception) back instead of starting their own.  Override
+ * {@link #copy} if callers change what they get back, so each one gets their own.
+ */
+public class SingleFlight<K, V> {
+	private final Map<K, Call<V>> calls = new HashMap<K, Call<V>>();
+	private final AtomicInteger shared = new AtomicInteger(0);
+
+	public V execute(K key, Callable<V> callable) throws Exception {
+		while(true) {
+			Call<V> call;
+			boolean owner = false;
+			synchronized (calls) {
+				call = calls.get(key);
+				if(call == null) {
+					call = new Call<V>();
+					calls.put(key, call);
+					owner = true;
+				}
+			}
+
+			if(owner) {
+				try {
+					call.result = callable.call();
+				} catch(Throwable e) {
+					call.error = e;
+				} finally {
+					synchronized (calls) {
+						calls.remove(key);
+					}
+					call.latch.countDown();
+				}
+			} else {
+				call.latch.await();
+
+				// Whoever was running it was cancelled, doesn't mean we are
+				if(call.error instanceof InterruptedException || call.error instanceof InterruptedIOException) {
+					continue;
+				}
+				shared.incrementAndGet();
+			}
+
+			if(call.error instanceof Exception) {
+				throw (Exception) call.error;
+			} else if(call.error instanceof Error) {
+				throw (Error) call.error;
+			}
+			return owner ? call.result : copy(call.result);
+		}
+	}
+
+	/**
+	 * Copy of the result to give to a caller who was waiting on someone else's call
+	 */
+	protected V copy(V value) {
+		return value;
+	}
+
+	public int getSharedCount() {
+		return shared.get();
+	}
+
+	private static class Call<V> {
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private V result;
+		private Throwable error;
+	}
+}
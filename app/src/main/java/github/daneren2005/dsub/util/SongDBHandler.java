@@ -15,24 +15,40 @@
 
 package github.daneren2005.dsub.util;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.Log;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.domain.OfflineAction;
 import github.daneren2005.dsub.service.DownloadFile;
 
 public class SongDBHandler extends SQLiteOpenHelper {
 	private static final String TAG = SongDBHandler.class.getSimpleName();
 	private static SongDBHandler dbHandler;
 
-	private static final int DATABASE_VERSION = 2;
+	private static final int DATABASE_VERSION = 8;
 	public static final String DATABASE_NAME = "SongsDB";
 
 	public static final String TABLE_SONGS = "RegisteredSongs";
@@ -43,11 +59,83 @@ public class SongDBHandler extends SQLiteOpenHelper {
 	public static final String SONGS_LAST_PLAYED = "lastPlayed";
 	public static final String SONGS_LAST_COMPLETED = "lastCompleted";
 
+	public static final String TABLE_CACHED_FILES = "CachedFiles";
+	public static final String CACHED_FILES_PATH = "path";
+	public static final String CACHED_FILES_SIZE = "size";
+	public static final String CACHED_FILES_LAST_ACCESSED = "lastAccessed";
+	public static final String CACHED_FILES_PINNED = "pinned";
+
+	public static final String TABLE_OFFLINE_SONGS = "OfflineSongs";
+	public static final String OFFLINE_SONGS_PATH = "path";
+	public static final String OFFLINE_SONGS_PARENT = "parent";
+	public static final String OFFLINE_SONGS_ARTIST = "artist";
+	public static final String OFFLINE_SONGS_ALBUM = "album";
+	public static final String OFFLINE_SONGS_TITLE = "title";
+	public static final String OFFLINE_SONGS_TRACK = "track";
+	public static final String OFFLINE_SONGS_DISC_NUMBER = "discNumber";
+	public static final String OFFLINE_SONGS_DURATION = "duration";
+	public static final String OFFLINE_SONGS_BIT_RATE = "bitRate";
+	public static final String OFFLINE_SONGS_YEAR = "year";
+	public static final String OFFLINE_SONGS_GENRE = "genre";
+	public static final String OFFLINE_SONGS_METADATA_LOADED = "metadataLoaded";
+	private static final String[] OFFLINE_SONGS_COLUMNS = {OFFLINE_SONGS_PATH, OFFLINE_SONGS_PARENT, OFFLINE_SONGS_ARTIST, OFFLINE_SONGS_ALBUM, OFFLINE_SONGS_TITLE, OFFLINE_SONGS_TRACK,
+			OFFLINE_SONGS_DISC_NUMBER, OFFLINE_SONGS_DURATION, OFFLINE_SONGS_BIT_RATE, OFFLINE_SONGS_YEAR, OFFLINE_SONGS_GENRE};
+
+	public static final String TABLE_REPLAY_GAIN = "ReplayGain";
+	public static final String REPLAY_GAIN_PATH = "path";
+	public static final String REPLAY_GAIN_TRACK = "trackGain";
+	public static final String REPLAY_GAIN_ALBUM = "albumGain";
+	public static final String REPLAY_GAIN_TRACK_PEAK = "trackPeak";
+	public static final String REPLAY_GAIN_ALBUM_PEAK = "albumPeak";
+
+	public static final String TABLE_OUTBOX = "Outbox";
+	public static final String OUTBOX_ID = "id";
+	public static final String OUTBOX_TYPE = "type";
+	public static final String OUTBOX_SERVER_ID = "serverId";
+	public static final String OUTBOX_SEARCH = "search";
+	public static final String OUTBOX_VALUE = "value";
+	public static final String OUTBOX_KIND = "kind";
+	public static final String OUTBOX_COMMENT = "comment";
+	public static final String OUTBOX_TIME = "time";
+	public static final String OUTBOX_COLLAPSE_KEY = "collapseKey";
+	public static final String OUTBOX_ATTEMPTS = "attempts";
+	public static final String OUTBOX_NEXT_ATTEMPT = "nextAttempt";
+	private static final String[] OUTBOX_COLUMNS = {OUTBOX_ID, OUTBOX_TYPE, OUTBOX_SERVER_ID, OUTBOX_SEARCH, OUTBOX_VALUE, OUTBOX_COMMENT, OUTBOX_TIME, OUTBOX_ATTEMPTS, OUTBOX_KIND};
+
+	// Stay under SQLite's limit on how many ? can be in one statement
+	private static final int MAX_QUERY_ARGS = 500;
+	// How long play state waits for more to be written with it, unless enough has already built up
+	private static final long PLAYED_FLUSH_DELAY = 10000L;
+	private static final int MAX_PENDING_PLAYED = 20;
+	// Offline actions which keep failing are retried less and less often until they are given up on
+	private static final long OUTBOX_RETRY_DELAY = 60000L;
+	private static final long OUTBOX_MAX_RETRY_DELAY = 24L * 60L * 60L * 1000L;
+	private static final int OUTBOX_MAX_ATTEMPTS = 10;
+
 	private Context context;
+	// Copy of the paths in CachedFiles so views can check whether a song is cached without going to disk.  Null until it
+	// has been loaded in the background, read without holding the database lock.
+	private volatile Set<String> cachedFilePaths;
+	private final AtomicBoolean cachedFilePathsLoading = new AtomicBoolean(false);
+	private final List<PendingPlayed> pendingPlayed = new ArrayList<>();
+	private Timer flushTimer;
 
 	private SongDBHandler(Context context) {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
 		this.context = context;
+
+		// Connection is kept open for the life of the app, so let readers go while something else is writing
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			enableWriteAheadLogging();
+		}
+
+		// Have the cache index ready before the first list of songs asks for it
+		loadCachedFilePathsAsync();
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private void enableWriteAheadLogging() {
+		setWriteAheadLoggingEnabled(true);
 	}
 
 	@Override
@@ -60,12 +148,94 @@ public class SongDBHandler extends SQLiteOpenHelper {
 				SONGS_LAST_PLAYED + " INTEGER, " +
 				SONGS_LAST_COMPLETED + " INTEGER, " +
 				"UNIQUE(" + SONGS_SERVER_KEY + ", " + SONGS_SERVER_ID + "))");
+		createSongsPathIndex(db);
+		createCachedFilesTable(db);
+		createOfflineSongsTable(db);
+		createReplayGainTable(db);
+		createOutboxTable(db);
+	}
+	private void createSongsPathIndex(SQLiteDatabase db) {
+		db.execSQL("CREATE INDEX " + TABLE_SONGS + "_completePath ON " + TABLE_SONGS + " (" + SONGS_COMPLETE_PATH + ")");
+	}
+	private void createCachedFilesTable(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_CACHED_FILES + " ( " +
+				CACHED_FILES_PATH + " TEXT PRIMARY KEY, " +
+				CACHED_FILES_SIZE + " INTEGER NOT NULL, " +
+				CACHED_FILES_LAST_ACCESSED + " INTEGER NOT NULL, " +
+				CACHED_FILES_PINNED + " INTEGER NOT NULL)");
+		db.execSQL("CREATE INDEX " + TABLE_CACHED_FILES + "_lru ON " + TABLE_CACHED_FILES + " (" + CACHED_FILES_PINNED + ", " + CACHED_FILES_LAST_ACCESSED + ")");
+	}
+
+	private void createOfflineSongsTable(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_OFFLINE_SONGS + " ( " +
+				OFFLINE_SONGS_PATH + " TEXT PRIMARY KEY, " +
+				OFFLINE_SONGS_PARENT + " TEXT NOT NULL, " +
+				OFFLINE_SONGS_ARTIST + " TEXT, " +
+				OFFLINE_SONGS_ALBUM + " TEXT, " +
+				OFFLINE_SONGS_TITLE + " TEXT, " +
+				OFFLINE_SONGS_TRACK + " INTEGER, " +
+				OFFLINE_SONGS_DISC_NUMBER + " INTEGER, " +
+				OFFLINE_SONGS_DURATION + " INTEGER, " +
+				OFFLINE_SONGS_BIT_RATE + " INTEGER, " +
+				OFFLINE_SONGS_YEAR + " INTEGER, " +
+				OFFLINE_SONGS_GENRE + " TEXT, " +
+				OFFLINE_SONGS_METADATA_LOADED + " INTEGER NOT NULL)");
+		db.execSQL("CREATE INDEX " + TABLE_OFFLINE_SONGS + "_parent ON " + TABLE_OFFLINE_SONGS + " (" + OFFLINE_SONGS_PARENT + ")");
+		db.execSQL("CREATE INDEX " + TABLE_OFFLINE_SONGS + "_genre ON " + TABLE_OFFLINE_SONGS + " (" + OFFLINE_SONGS_GENRE + ")");
+		db.execSQL("CREATE INDEX " + TABLE_OFFLINE_SONGS + "_year ON " + TABLE_OFFLINE_SONGS + " (" + OFFLINE_SONGS_YEAR + ")");
+	}
+	private void createReplayGainTable(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_REPLAY_GAIN + " ( " +
+				REPLAY_GAIN_PATH + " TEXT PRIMARY KEY, " +
+				REPLAY_GAIN_TRACK + " REAL NOT NULL, " +
+				REPLAY_GAIN_ALBUM + " REAL NOT NULL, " +
+				REPLAY_GAIN_TRACK_PEAK + " REAL NOT NULL, " +
+				REPLAY_GAIN_ALBUM_PEAK + " REAL NOT NULL)");
+	}
+	private void createOutboxTable(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_OUTBOX + " ( " +
+				OUTBOX_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+				OUTBOX_TYPE + " INTEGER NOT NULL, " +
+				OUTBOX_SERVER_ID + " TEXT, " +
+				OUTBOX_SEARCH + " TEXT, " +
+				OUTBOX_VALUE + " INTEGER NOT NULL, " +
+				OUTBOX_COMMENT + " TEXT, " +
+				OUTBOX_TIME + " INTEGER NOT NULL, " +
+				OUTBOX_COLLAPSE_KEY + " TEXT NOT NULL UNIQUE, " +
+				OUTBOX_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, " +
+				OUTBOX_NEXT_ATTEMPT + " INTEGER NOT NULL DEFAULT 0, " +
+				OUTBOX_KIND + " INTEGER NOT NULL DEFAULT 0)");
 	}
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		db.execSQL("DROP TABLE IF EXISTS " + TABLE_SONGS);
-		this.onCreate(db);
+		if(oldVersion < 2) {
+			db.execSQL("DROP TABLE IF EXISTS " + TABLE_SONGS);
+			db.execSQL("DROP TABLE IF EXISTS " + TABLE_CACHED_FILES);
+			db.execSQL("DROP TABLE IF EXISTS " + TABLE_OFFLINE_SONGS);
+			db.execSQL("DROP TABLE IF EXISTS " + TABLE_REPLAY_GAIN);
+			this.onCreate(db);
+			return;
+		}
+
+		if(oldVersion < 3) {
+			createCachedFilesTable(db);
+		}
+		if(oldVersion < 4) {
+			createOfflineSongsTable(db);
+		}
+		if(oldVersion < 5) {
+			createReplayGainTable(db);
+		}
+		if(oldVersion < 6) {
+			createSongsPathIndex(db);
+		}
+		if(oldVersion < 7) {
+			createOutboxTable(db);
+			importOfflineSync(db);
+		} else if(oldVersion < 8) {
+			db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN " + OUTBOX_KIND + " INTEGER NOT NULL DEFAULT 0");
+		}
 	}
 
 	public synchronized void addSong(DownloadFile downloadFile) {
@@ -74,7 +244,6 @@ public class SongDBHandler extends SQLiteOpenHelper {
 	public synchronized void addSong(int instance, DownloadFile downloadFile) {
 		SQLiteDatabase db = this.getWritableDatabase();
 		addSong(db, instance, downloadFile);
-		db.close();
 	}
 	protected synchronized void addSong(SQLiteDatabase db, DownloadFile downloadFile) {
 		addSong(db, Util.getMostRecentActiveServer(context), downloadFile);
@@ -106,8 +275,6 @@ public class SongDBHandler extends SQLiteOpenHelper {
 			pairs.add(new Pair<>(entry.getId(), FileUtil.getSongFile(context, entry).getAbsolutePath()));
 		}
 		addSongs(db, instance, pairs);
-
-		db.close();
 	}
 	public synchronized void addSongs(SQLiteDatabase db, int instance, List<Pair<String, String>> entries) {
 		addSongsImpl(db, Util.getRestUrlHash(context, instance), entries);
@@ -136,18 +303,54 @@ public class SongDBHandler extends SQLiteOpenHelper {
 		if(pair == null) {
 			return;
 		}
-		int serverKey = pair.getFirst();
-		String id = pair.getSecond();
 
-		// Open and make sure song is in db
-		SQLiteDatabase db = this.getWritableDatabase();
-		addSongImpl(db, serverKey, id, downloadFile.getSaveFile().getAbsolutePath());
+		// Written out with whatever else gets played in the next few seconds instead of on its own
+		pendingPlayed.add(new PendingPlayed(pair.getFirst(), pair.getSecond(), downloadFile.getSaveFile().getAbsolutePath(), submission, System.currentTimeMillis()));
+		if(pendingPlayed.size() >= MAX_PENDING_PLAYED) {
+			flushPlayed();
+		} else if(pendingPlayed.size() == 1) {
+			if(flushTimer == null) {
+				flushTimer = new Timer(TAG, true);
+			}
+			flushTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					flushPlayed();
+				}
+			}, PLAYED_FLUSH_DELAY);
+		}
+	}
 
-		// Update song's last played
-		ContentValues values = new ContentValues();
-		values.put(submission ? SONGS_LAST_COMPLETED : SONGS_LAST_PLAYED, System.currentTimeMillis());
-		db.update(TABLE_SONGS, values, SONGS_SERVER_KEY + " = ? AND " + SONGS_SERVER_ID + " = ?", new String[]{Integer.toString(serverKey), id});
-		db.close();
+	/**
+	 * Write out all of the play state changes which are still waiting in a single transaction
+	 */
+	public synchronized void flushPlayed() {
+		if(pendingPlayed.isEmpty()) {
+			return;
+		}
+
+		try {
+			SQLiteDatabase db = this.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				for(PendingPlayed played: pendingPlayed) {
+					// Make sure song is in db
+					addSongImpl(db, played.serverKey, played.id, played.path);
+
+					// Update song's last played
+					ContentValues values = new ContentValues();
+					values.put(played.submission ? SONGS_LAST_COMPLETED : SONGS_LAST_PLAYED, played.time);
+					db.update(TABLE_SONGS, values, SONGS_SERVER_KEY + " = ? AND " + SONGS_SERVER_ID + " = ?", new String[]{Integer.toString(played.serverKey), played.id});
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to save play state for " + pendingPlayed.size() + " songs", e);
+		} finally {
+			pendingPlayed.clear();
+		}
 	}
 
 	public boolean hasBeenPlayed(MusicDirectory.Entry entry) {
@@ -169,6 +372,7 @@ public class SongDBHandler extends SQLiteOpenHelper {
 		}
 	}
 	public synchronized Long[] getLastPlayed(int serverKey, String id) {
+		flushPlayed();
 		SQLiteDatabase db = this.getReadableDatabase();
 
 		String[] columns = {SONGS_LAST_PLAYED, SONGS_LAST_COMPLETED};
@@ -185,8 +389,69 @@ public class SongDBHandler extends SQLiteOpenHelper {
 			return null;
 		}
 		finally {
-			db.close();
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Same as calling getLastPlayed on each entry, but with one query per few hundred songs
+	 * @return [last played, last completed] for each entry in the same order, or null where the song has never been seen
+	 */
+	public synchronized List<Long[]> getLastPlayed(List<MusicDirectory.Entry> entries) {
+		List<Pair<Integer, String>> ids = getOnlineSongIds(entries);
+		flushPlayed();
+
+		List<Long[]> dates = new ArrayList<>(entries.size());
+		Map<Integer, Map<String, List<Integer>>> lookups = new HashMap<>();
+		for(int i = 0; i < ids.size(); i++) {
+			dates.add(null);
+
+			Pair<Integer, String> pair = ids.get(i);
+			if(pair == null) {
+				continue;
+			}
+
+			Map<String, List<Integer>> serverLookups = lookups.get(pair.getFirst());
+			if(serverLookups == null) {
+				serverLookups = new HashMap<>();
+				lookups.put(pair.getFirst(), serverLookups);
+			}
+			List<Integer> indexes = serverLookups.get(pair.getSecond());
+			if(indexes == null) {
+				indexes = new ArrayList<>();
+				serverLookups.put(pair.getSecond(), indexes);
+			}
+			indexes.add(i);
+		}
+
+		SQLiteDatabase db = this.getReadableDatabase();
+		String[] columns = {SONGS_SERVER_ID, SONGS_LAST_PLAYED, SONGS_LAST_COMPLETED};
+		for(Map.Entry<Integer, Map<String, List<Integer>>> server: lookups.entrySet()) {
+			Map<String, List<Integer>> serverLookups = server.getValue();
+			List<String> serverIds = new ArrayList<>(serverLookups.keySet());
+			for(int start = 0; start < serverIds.size(); start += MAX_QUERY_ARGS) {
+				List<String> batch = serverIds.subList(start, Math.min(start + MAX_QUERY_ARGS, serverIds.size()));
+
+				List<String> args = new ArrayList<>();
+				args.add(Integer.toString(server.getKey()));
+				args.addAll(batch);
+				String selection = SONGS_SERVER_KEY + " = ? AND " + getInClause(SONGS_SERVER_ID, batch.size());
+
+				Cursor cursor = db.query(TABLE_SONGS, columns, selection, args.toArray(new String[args.size()]), null, null, null, null);
+				try {
+					while(cursor.moveToNext()) {
+						Long[] songDates = new Long[] { cursor.getLong(1), cursor.getLong(2) };
+						for(Integer index: serverLookups.get(cursor.getString(0))) {
+							dates.set(index, songDates);
+						}
+					}
+				} finally {
+					cursor.close();
+				}
+			}
 		}
+
+		return dates;
 	}
 
 	public synchronized Pair<Integer, String> getOnlineSongId(MusicDirectory.Entry entry) {
@@ -216,7 +481,45 @@ public class SongDBHandler extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * Same as calling getOnlineSongId on each entry, but looks up all of the offline ones together
+	 * @return Online id for each entry in the same order, or null where there isn't one
+	 */
+	public synchronized List<Pair<Integer, String>> getOnlineSongIds(List<MusicDirectory.Entry> entries) {
+		int serverKey = Util.getRestUrlHash(context);
+		boolean requireServerKey = !Util.isOffline(context);
+		String cacheLocn = Util.getPreferences(context).getString(Constants.PREFERENCES_KEY_CACHE_LOCATION, null);
+
+		List<Pair<Integer, String>> ids = new ArrayList<>(entries.size());
+		List<String> paths = new ArrayList<>(entries.size());
+		Set<String> lookups = new HashSet<>();
+		for(MusicDirectory.Entry entry: entries) {
+			String id = entry.getId();
+			if(cacheLocn != null && id.indexOf(cacheLocn) != -1) {
+				String path = FileUtil.getSongFile(context, entry).getAbsolutePath();
+				lookups.add(path);
+				paths.add(path);
+				ids.add(null);
+			} else {
+				paths.add(null);
+				ids.add(new Pair<>(serverKey, id));
+			}
+		}
+
+		if(!lookups.isEmpty()) {
+			Map<String, Pair<Integer, String>> found = getIdsFromPaths(requireServerKey ? serverKey : null, lookups);
+			for(int i = 0; i < paths.size(); i++) {
+				if(paths.get(i) != null) {
+					ids.set(i, found.get(paths.get(i)));
+				}
+			}
+		}
+
+		return ids;
+	}
+
 	public synchronized Pair<Integer, String> getIdFromPath(String path) {
+		flushPlayed();
 		SQLiteDatabase db = this.getReadableDatabase();
 
 		String[] columns = {SONGS_SERVER_KEY, SONGS_SERVER_ID};
@@ -229,10 +532,11 @@ public class SongDBHandler extends SQLiteOpenHelper {
 			return null;
 		}
 		finally {
-			db.close();
+			cursor.close();
 		}
 	}
 	public synchronized Pair<Integer, String> getIdFromPath(int serverKey, String path) {
+		flushPlayed();
 		SQLiteDatabase db = this.getReadableDatabase();
 
 		String[] columns = {SONGS_SERVER_KEY, SONGS_SERVER_ID};
@@ -245,15 +549,579 @@ public class SongDBHandler extends SQLiteOpenHelper {
 			return null;
 		}
 		finally {
-			db.close();
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Same as calling getIdFromPath on each path, but with one query per few hundred paths
+	 * @param serverKey Only match songs from this server, or null to take whichever server played the file most recently
+	 * @return Server key and id keyed by path, paths which have never been seen are left out
+	 */
+	public synchronized Map<String, Pair<Integer, String>> getIdsFromPaths(Integer serverKey, Collection<String> paths) {
+		flushPlayed();
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		Map<String, Pair<Integer, String>> ids = new HashMap<>();
+		List<String> lookups = new ArrayList<>(paths);
+		String[] columns = {SONGS_COMPLETE_PATH, SONGS_SERVER_KEY, SONGS_SERVER_ID};
+		for(int start = 0; start < lookups.size(); start += MAX_QUERY_ARGS) {
+			List<String> batch = lookups.subList(start, Math.min(start + MAX_QUERY_ARGS, lookups.size()));
+
+			String selection = getInClause(SONGS_COMPLETE_PATH, batch.size());
+			List<String> args = new ArrayList<>();
+			if(serverKey != null) {
+				selection = SONGS_SERVER_KEY + " = ? AND " + selection;
+				args.add(Integer.toString(serverKey));
+			}
+			args.addAll(batch);
+
+			// Most recently played first so it wins when the same file has been seen on more than one server
+			Cursor cursor = db.query(TABLE_SONGS, columns, selection, args.toArray(new String[args.size()]), null, null, SONGS_LAST_PLAYED + " DESC", null);
+			try {
+				while(cursor.moveToNext()) {
+					String path = cursor.getString(0);
+					if(!ids.containsKey(path)) {
+						ids.put(path, new Pair<>(cursor.getInt(1), cursor.getString(2)));
+					}
+				}
+			} finally {
+				cursor.close();
+			}
+		}
+
+		return ids;
+	}
+
+	public synchronized void addCachedFile(File file, boolean pinned) {
+		SQLiteDatabase db = this.getWritableDatabase();
+		addCachedFileImpl(db, file.getAbsolutePath(), file.length(), file.lastModified(), pinned);
+	}
+	protected synchronized void addCachedFileImpl(SQLiteDatabase db, String path, long size, long lastAccessed, boolean pinned) {
+		ContentValues values = new ContentValues();
+		values.put(CACHED_FILES_PATH, path);
+		values.put(CACHED_FILES_SIZE, size);
+		values.put(CACHED_FILES_LAST_ACCESSED, lastAccessed);
+		values.put(CACHED_FILES_PINNED, pinned ? 1 : 0);
+
+		db.insertWithOnConflict(TABLE_CACHED_FILES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+		if(cachedFilePaths != null) {
+			cachedFilePaths.add(path);
+		}
+	}
+	public synchronized void renameCachedFile(File from, File to, boolean pinned) {
+		SQLiteDatabase db = this.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			db.delete(TABLE_CACHED_FILES, CACHED_FILES_PATH + " = ?", new String[] { from.getAbsolutePath() });
+			if(cachedFilePaths != null) {
+				cachedFilePaths.remove(from.getAbsolutePath());
+			}
+			addCachedFileImpl(db, to.getAbsolutePath(), to.length(), to.lastModified(), pinned);
+
+			ContentValues values = new ContentValues();
+			values.put(OFFLINE_SONGS_PATH, to.getAbsolutePath());
+			db.updateWithOnConflict(TABLE_OFFLINE_SONGS, values, OFFLINE_SONGS_PATH + " = ?", new String[] { from.getAbsolutePath() }, SQLiteDatabase.CONFLICT_REPLACE);
+
+			values = new ContentValues();
+			values.put(REPLAY_GAIN_PATH, to.getAbsolutePath());
+			db.updateWithOnConflict(TABLE_REPLAY_GAIN, values, REPLAY_GAIN_PATH + " = ?", new String[] { from.getAbsolutePath() }, SQLiteDatabase.CONFLICT_REPLACE);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+	public synchronized void removeCachedFiles(File... files) {
+		SQLiteDatabase db = this.getWritableDatabase();
+		for(File file: files) {
+			db.delete(TABLE_CACHED_FILES, CACHED_FILES_PATH + " = ?", new String[] { file.getAbsolutePath() });
+			db.delete(TABLE_OFFLINE_SONGS, OFFLINE_SONGS_PATH + " = ?", new String[] { file.getAbsolutePath() });
+			db.delete(TABLE_REPLAY_GAIN, REPLAY_GAIN_PATH + " = ?", new String[] { file.getAbsolutePath() });
+			if(cachedFilePaths != null) {
+				cachedFilePaths.remove(file.getAbsolutePath());
+			}
+		}
+	}
+	/**
+	 * Whether isCachedFile can be used yet.  Starts loading the index in the background if it hasn't been already, so
+	 * callers on the UI thread never wait on the database.
+	 */
+	public boolean hasCachedFilePaths() {
+		if(cachedFilePaths != null) {
+			return true;
+		}
+
+		loadCachedFilePathsAsync();
+		return false;
+	}
+	/**
+	 * Check whether the file is in the index without touching the database or the file system.  Only answers correctly
+	 * once hasCachedFilePaths is true.
+	 */
+	public boolean isCachedFile(File file) {
+		Set<String> paths = cachedFilePaths;
+		return paths != null && paths.contains(file.getAbsolutePath());
+	}
+	private void loadCachedFilePathsAsync() {
+		if(!cachedFilePathsLoading.compareAndSet(false, true)) {
+			return;
+		}
+
+		new Thread("SongDBHandler_cachedFiles") {
+			@Override
+			public void run() {
+				try {
+					loadCachedFilePaths();
+				} catch(Exception e) {
+					Log.w(TAG, "Failed to load cached file index", e);
+				} finally {
+					cachedFilePathsLoading.set(false);
+				}
+			}
+		}.start();
+	}
+	private synchronized void loadCachedFilePaths() {
+		if(cachedFilePaths != null) {
+			return;
+		}
+
+		SQLiteDatabase db = this.getReadableDatabase();
+		Set<String> paths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		Cursor cursor = db.query(TABLE_CACHED_FILES, new String[] { CACHED_FILES_PATH }, null, null, null, null, null, null);
+		try {
+			while(cursor.moveToNext()) {
+				paths.add(cursor.getString(0));
+			}
+		} finally {
+			cursor.close();
+		}
+		cachedFilePaths = paths;
+	}
+	public synchronized void setCachedFileAccessed(File file, long time) {
+		SQLiteDatabase db = this.getWritableDatabase();
+		ContentValues values = new ContentValues();
+		values.put(CACHED_FILES_LAST_ACCESSED, time);
+		db.update(TABLE_CACHED_FILES, values, CACHED_FILES_PATH + " = ?", new String[] { file.getAbsolutePath() });
+	}
+
+	/**
+	 * Get the total number of bytes used by files in the index
+	 * @return [unpinned bytes, pinned bytes]
+	 */
+	public synchronized long[] getCachedFilesSize() {
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		long[] sizes = new long[2];
+		Cursor cursor = db.rawQuery("SELECT " + CACHED_FILES_PINNED + ", SUM(" + CACHED_FILES_SIZE + ") FROM " + TABLE_CACHED_FILES + " GROUP BY " + CACHED_FILES_PINNED, null);
+		try {
+			while(cursor.moveToNext()) {
+				sizes[cursor.getInt(0) == 0 ? 0 : 1] = cursor.getLong(1);
+			}
+		} finally {
+			cursor.close();
+		}
+
+		return sizes;
+	}
+
+	/**
+	 * Get the least recently used unpinned files until at least minimumBytes have been returned
+	 */
+	public synchronized List<Pair<String, Long>> getLeastRecentlyUsedFiles(long minimumBytes, Set<String> skip) {
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		List<Pair<String, Long>> files = new ArrayList<>();
+		String[] columns = {CACHED_FILES_PATH, CACHED_FILES_SIZE};
+		Cursor cursor = db.query(TABLE_CACHED_FILES, columns, CACHED_FILES_PINNED + " = 0", null, null, null, CACHED_FILES_LAST_ACCESSED + " ASC", null);
+		try {
+			long total = 0;
+			while(total < minimumBytes && cursor.moveToNext()) {
+				if(skip.contains(cursor.getString(0))) {
+					continue;
+				}
+
+				long size = cursor.getLong(1);
+				files.add(new Pair<>(cursor.getString(0), size));
+				total += size;
+			}
+		} finally {
+			cursor.close();
+		}
+
+		return files;
+	}
+
+	/**
+	 * Replace the whole index with the results of a full scan of the cache directory
+	 */
+	public synchronized void replaceCachedFiles(List<File> files, List<File> pinned) {
+		SQLiteDatabase db = this.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			db.delete(TABLE_CACHED_FILES, null, null);
+			cachedFilePaths = null;
+			for(File file: files) {
+				addCachedFileImpl(db, file.getAbsolutePath(), file.length(), file.lastModified(), false);
+			}
+			for(File file: pinned) {
+				addCachedFileImpl(db, file.getAbsolutePath(), file.length(), file.lastModified(), true);
+			}
+
+			// Anything no longer on disk shouldn't show up in offline browsing
+			db.delete(TABLE_OFFLINE_SONGS, OFFLINE_SONGS_PATH + " NOT IN (SELECT " + CACHED_FILES_PATH + " FROM " + TABLE_CACHED_FILES + ")", null);
+			db.delete(TABLE_REPLAY_GAIN, REPLAY_GAIN_PATH + " NOT IN (SELECT " + CACHED_FILES_PATH + " FROM " + TABLE_CACHED_FILES + ")", null);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		// Views check the files themselves until this is done
+		loadCachedFilePathsAsync();
+	}
+
+	/**
+	 * Remember the tag values parsed out of a cached file
+	 * @param values [track gain, album gain, track peak, album peak]
+	 */
+	public synchronized void setReplayGain(String path, float[] values) {
+		SQLiteDatabase db = this.getWritableDatabase();
+
+		ContentValues contentValues = new ContentValues();
+		contentValues.put(REPLAY_GAIN_PATH, path);
+		contentValues.put(REPLAY_GAIN_TRACK, values[0]);
+		contentValues.put(REPLAY_GAIN_ALBUM, values[1]);
+		contentValues.put(REPLAY_GAIN_TRACK_PEAK, values[2]);
+		contentValues.put(REPLAY_GAIN_ALBUM_PEAK, values[3]);
+		db.insertWithOnConflict(TABLE_REPLAY_GAIN, null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+	}
+	/**
+	 * @return [track gain, album gain, track peak, album peak], or null if the file has not been scanned
+	 */
+	public synchronized float[] getReplayGain(String path) {
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		String[] columns = {REPLAY_GAIN_TRACK, REPLAY_GAIN_ALBUM, REPLAY_GAIN_TRACK_PEAK, REPLAY_GAIN_ALBUM_PEAK};
+		Cursor cursor = db.query(TABLE_REPLAY_GAIN, columns, REPLAY_GAIN_PATH + " = ?", new String[] { path }, null, null, null, null);
+
+		try {
+			if(cursor.moveToFirst()) {
+				return new float[] { cursor.getFloat(0), cursor.getFloat(1), cursor.getFloat(2), cursor.getFloat(3) };
+			} else {
+				return null;
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	public synchronized void addOfflineSong(File file, MusicDirectory.Entry entry, boolean metadataLoaded) {
+		SQLiteDatabase db = this.getWritableDatabase();
+		addOfflineSongImpl(db, file.getAbsolutePath(), file.getParent(), entry, metadataLoaded);
+	}
+	public synchronized void addOfflineSongs(List<MusicDirectory.Entry> entries, boolean metadataLoaded) {
+		SQLiteDatabase db = this.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			for(MusicDirectory.Entry entry: entries) {
+				addOfflineSongImpl(db, entry.getId(), entry.getParent(), entry, metadataLoaded);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+	protected synchronized void addOfflineSongImpl(SQLiteDatabase db, String path, String parent, MusicDirectory.Entry entry, boolean metadataLoaded) {
+		ContentValues values = new ContentValues();
+		values.put(OFFLINE_SONGS_PATH, path);
+		values.put(OFFLINE_SONGS_PARENT, parent);
+		values.put(OFFLINE_SONGS_ARTIST, entry.getArtist());
+		values.put(OFFLINE_SONGS_ALBUM, entry.getAlbum());
+		values.put(OFFLINE_SONGS_TITLE, entry.getTitle());
+		values.put(OFFLINE_SONGS_TRACK, entry.getTrack());
+		values.put(OFFLINE_SONGS_DISC_NUMBER, entry.getDiscNumber());
+		values.put(OFFLINE_SONGS_DURATION, entry.getDuration());
+		values.put(OFFLINE_SONGS_BIT_RATE, entry.getBitRate());
+		values.put(OFFLINE_SONGS_YEAR, entry.getYear());
+		values.put(OFFLINE_SONGS_GENRE, entry.getGenre());
+		values.put(OFFLINE_SONGS_METADATA_LOADED, metadataLoaded ? 1 : 0);
+
+		db.insertWithOnConflict(TABLE_OFFLINE_SONGS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+	}
+
+	/**
+	 * Get the indexed songs in a single folder which have had their tags read, keyed by path
+	 */
+	public synchronized Map<String, MusicDirectory.Entry> getOfflineSongsInFolder(String parent) {
+		Map<String, MusicDirectory.Entry> songs = new HashMap<>();
+		String selection = OFFLINE_SONGS_PARENT + " = ? AND " + OFFLINE_SONGS_METADATA_LOADED + " = 1";
+		for(MusicDirectory.Entry entry: getOfflineSongs(selection, new String[] { parent }, null, null, null)) {
+			songs.put(entry.getId(), entry);
+		}
+		return songs;
+	}
+	public synchronized List<MusicDirectory.Entry> searchOfflineSongs(String query) {
+		String like = getLikePattern(query);
+		return getOfflineSongs(OFFLINE_SONGS_TITLE + " LIKE ? ESCAPE '\\'", new String[] { like }, null, null, null);
+	}
+
+	/**
+	 * Get one song out of every folder whose album name matches the query
+	 */
+	public synchronized List<MusicDirectory.Entry> searchOfflineAlbums(String query) {
+		String like = getLikePattern(query);
+		return getOfflineSongs(OFFLINE_SONGS_ALBUM + " LIKE ? ESCAPE '\\'", new String[] { like }, OFFLINE_SONGS_PARENT, null, null);
+	}
+	public synchronized List<MusicDirectory.Entry> getRandomOfflineSongs(int size, String genre, String startYear, String endYear) {
+		List<String> clauses = new ArrayList<>();
+		List<String> args = new ArrayList<>();
+		if(genre != null) {
+			clauses.add(OFFLINE_SONGS_GENRE + " = ?");
+			args.add(genre);
+		}
+		if(startYear != null) {
+			clauses.add(OFFLINE_SONGS_YEAR + " >= ?");
+			args.add(startYear);
+		}
+		if(endYear != null) {
+			clauses.add(OFFLINE_SONGS_YEAR + " <= ?");
+			args.add(endYear);
+		}
+
+		String selection = clauses.isEmpty() ? null : TextUtils.join(" AND ", clauses);
+		return getOfflineSongs(selection, args.toArray(new String[args.size()]), null, "RANDOM()", Integer.toString(size));
+	}
+	protected synchronized List<MusicDirectory.Entry> getOfflineSongs(String selection, String[] selectionArgs, String groupBy, String orderBy, String limit) {
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		List<MusicDirectory.Entry> entries = new ArrayList<>();
+		Cursor cursor = db.query(TABLE_OFFLINE_SONGS, OFFLINE_SONGS_COLUMNS, selection, selectionArgs, groupBy, null, orderBy, limit);
+		try {
+			while(cursor.moveToNext()) {
+				MusicDirectory.Entry entry = new MusicDirectory.Entry(cursor.getString(0));
+				entry.setParent(cursor.getString(1));
+				entry.setArtist(cursor.getString(2));
+				entry.setAlbum(cursor.getString(3));
+				entry.setTitle(cursor.getString(4));
+				entry.setTrack(getInteger(cursor, 5));
+				entry.setDiscNumber(getInteger(cursor, 6));
+				entry.setDuration(getInteger(cursor, 7));
+				entry.setBitRate(getInteger(cursor, 8));
+				entry.setYear(getInteger(cursor, 9));
+				entry.setGenre(cursor.getString(10));
+				entries.add(entry);
+			}
+		} finally {
+			cursor.close();
 		}
+
+		return entries;
 	}
 
-	public static SongDBHandler getHandler(Context context) {
+	/**
+	 * Get the paths of cached songs which have not been added to the offline index yet
+	 */
+	public synchronized List<String> getUnindexedCachedFiles() {
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		List<String> paths = new ArrayList<>();
+		Cursor cursor = db.rawQuery("SELECT " + CACHED_FILES_PATH + " FROM " + TABLE_CACHED_FILES + " WHERE " + CACHED_FILES_PATH +
+				" NOT IN (SELECT " + OFFLINE_SONGS_PATH + " FROM " + TABLE_OFFLINE_SONGS + ")", null);
+		try {
+			while(cursor.moveToNext()) {
+				paths.add(cursor.getString(0));
+			}
+		} finally {
+			cursor.close();
+		}
+
+		return paths;
+	}
+
+	public synchronized void addOfflineAction(OfflineAction action) {
+		SQLiteDatabase db = this.getWritableDatabase();
+		addOfflineAction(db, action);
+	}
+	private void addOfflineAction(SQLiteDatabase db, OfflineAction action) {
+		ContentValues values = new ContentValues();
+		values.put(OUTBOX_TYPE, action.getType());
+		values.put(OUTBOX_SERVER_ID, action.getId());
+		values.put(OUTBOX_SEARCH, action.getSearch());
+		values.put(OUTBOX_VALUE, action.getValue());
+		values.put(OUTBOX_KIND, action.getKind());
+		values.put(OUTBOX_COMMENT, action.getComment());
+		values.put(OUTBOX_TIME, action.getTime());
+		values.put(OUTBOX_COLLAPSE_KEY, action.getCollapseKey());
+
+		// Starring and then unstarring the same thing only needs the unstar to be sent
+		db.insertWithOnConflict(TABLE_OUTBOX, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+	}
+
+	/**
+	 * Get the offline actions which are not waiting to be retried later
+	 */
+	public synchronized List<OfflineAction> getOfflineActions() {
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		List<OfflineAction> actions = new ArrayList<>();
+		Cursor cursor = db.query(TABLE_OUTBOX, OUTBOX_COLUMNS, OUTBOX_NEXT_ATTEMPT + " <= ?", new String[] { Long.toString(System.currentTimeMillis()) }, null, null, OUTBOX_ID);
+		try {
+			while(cursor.moveToNext()) {
+				OfflineAction action = new OfflineAction();
+				action.setRowId(cursor.getLong(0));
+				action.setType(cursor.getInt(1));
+				action.setId(cursor.getString(2));
+				action.setSearch(cursor.getString(3));
+				action.setValue(cursor.getInt(4));
+				action.setComment(cursor.getString(5));
+				action.setTime(cursor.getLong(6));
+				action.setAttempts(cursor.getInt(7));
+				action.setKind(cursor.getInt(8));
+				actions.add(action);
+			}
+		} finally {
+			cursor.close();
+		}
+
+		return actions;
+	}
+
+	/**
+	 * @return Number of offline actions of the given type, or of every type except that one, which getOfflineActions would return right now
+	 */
+	public synchronized int getOfflineActionCount(int type, boolean matching) {
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_OUTBOX + " WHERE " + OUTBOX_TYPE + (matching ? " = ?" : " != ?") + " AND " + OUTBOX_NEXT_ATTEMPT + " <= ?",
+				new String[] { Integer.toString(type), Long.toString(System.currentTimeMillis()) });
+		try {
+			return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	public synchronized void removeOfflineActions(Collection<OfflineAction> actions) {
+		SQLiteDatabase db = this.getWritableDatabase();
+
+		db.beginTransaction();
+		try {
+			for(OfflineAction action: actions) {
+				// Row id so anything done again after this was read is not lost
+				db.delete(TABLE_OUTBOX, OUTBOX_ID + " = ?", new String[] { Long.toString(action.getRowId()) });
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Push back when failed actions are tried again, dropping any which have failed too many times
+	 */
+	public synchronized void retryOfflineActions(Collection<OfflineAction> actions) {
+		SQLiteDatabase db = this.getWritableDatabase();
+		long now = System.currentTimeMillis();
+
+		db.beginTransaction();
+		try {
+			for(OfflineAction action: actions) {
+				String[] args = new String[] { Long.toString(action.getRowId()) };
+				int attempts = action.getAttempts() + 1;
+				if(attempts >= OUTBOX_MAX_ATTEMPTS) {
+					Log.w(TAG, "Giving up on offline action " + action.getCollapseKey() + " after " + attempts + " attempts");
+					db.delete(TABLE_OUTBOX, OUTBOX_ID + " = ?", args);
+				} else {
+					ContentValues values = new ContentValues();
+					values.put(OUTBOX_ATTEMPTS, attempts);
+					values.put(OUTBOX_NEXT_ATTEMPT, now + Math.min(OUTBOX_RETRY_DELAY << (attempts - 1), OUTBOX_MAX_RETRY_DELAY));
+					db.update(TABLE_OUTBOX, values, OUTBOX_ID + " = ?", args);
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	public synchronized void clearOfflineActions() {
+		SQLiteDatabase db = this.getWritableDatabase();
+		db.delete(TABLE_OUTBOX, null, null);
+	}
+
+	/**
+	 * Move scrobbles and stars saved the old way in shared preferences into the outbox
+	 */
+	private void importOfflineSync(SQLiteDatabase db) {
+		SharedPreferences offline = Util.getOfflineSync(context);
+		int scrobbles = offline.getInt(Constants.OFFLINE_SCROBBLE_COUNT, 0);
+		for(int i = 1; i <= scrobbles; i++) {
+			String id = offline.getString(Constants.OFFLINE_SCROBBLE_ID + i, null);
+			String search = id == null ? offline.getString(Constants.OFFLINE_SCROBBLE_SEARCH + i, null) : null;
+			long time = offline.getLong(Constants.OFFLINE_SCROBBLE_TIME + i, 0);
+			if(id != null || search != null) {
+				addOfflineAction(db, new OfflineAction(OfflineAction.TYPE_SCROBBLE, id, search, 1, time));
+			}
+		}
+
+		int stars = offline.getInt(Constants.OFFLINE_STAR_COUNT, 0);
+		for(int i = 1; i <= stars; i++) {
+			String id = offline.getString(Constants.OFFLINE_STAR_ID + i, null);
+			String search = id == null ? offline.getString(Constants.OFFLINE_STAR_SEARCH + i, null) : null;
+			boolean starred = offline.getBoolean(Constants.OFFLINE_STAR_SETTING + i, false);
+			if(id != null || search != null) {
+				addOfflineAction(db, new OfflineAction(OfflineAction.TYPE_STAR, id, search, starred ? 1 : 0, System.currentTimeMillis()));
+			}
+		}
+
+		SharedPreferences.Editor editor = offline.edit();
+		editor.putInt(Constants.OFFLINE_SCROBBLE_COUNT, 0);
+		editor.putInt(Constants.OFFLINE_STAR_COUNT, 0);
+		editor.commit();
+	}
+
+	private static Integer getInteger(Cursor cursor, int column) {
+		return cursor.isNull(column) ? null : cursor.getInt(column);
+	}
+	// Same matching as SearchCritera.getPattern, where spaces and '*' match anything
+	private static String getLikePattern(String query) {
+		StringBuilder builder = new StringBuilder("%");
+		for(String part: query.split("[ *]+")) {
+			if(!part.isEmpty()) {
+				builder.append(part.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_")).append('%');
+			}
+		}
+		return builder.toString();
+	}
+	private static String getInClause(String column, int count) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(column).append(" IN (");
+		for(int i = 0; i < count; i++) {
+			builder.append(i == 0 ? "?" : ", ?");
+		}
+		return builder.append(")").toString();
+	}
+
+	public static synchronized SongDBHandler getHandler(Context context) {
 		if(dbHandler == null) {
-			dbHandler = new SongDBHandler(context);
+			dbHandler = new SongDBHandler(context.getApplicationContext());
 		}
 
 		return dbHandler;
 	}
+
+	private static class PendingPlayed {
+		private final int serverKey;
+		private final String id;
+		private final String path;
+		private final boolean submission;
+		private final long time;
+
+		public PendingPlayed(int serverKey, String id, String path, boolean submission, long time) {
+			this.serverKey = serverKey;
+			this.id = id;
+			this.path = path;
+			this.submission = submission;
+			this.time = time;
+		}
+	}
 }
@@ -29,7 +29,10 @@ import android.widget.RatingBar;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import github.daneren2005.dsub.R;
 import github.daneren2005.dsub.domain.Artist;
@@ -68,6 +71,7 @@ public final class UpdateHelper {
 		for(Entry entry: entries) {
 			entry.setStarred(starred);
 		}
+		triggerUpdate(entries);
 		if(onStarChange != null) {
 			onStarChange.entries = entries;
 			onStarChange.starChange(starred);
@@ -123,6 +127,7 @@ public final class UpdateHelper {
 				for(Entry entry: entries) {
 					entry.setStarred(!starred);
 				}
+				triggerUpdate(entries);
 				if(onStarChange != null) {
 					onStarChange.starChange(!starred);
 				}
@@ -143,6 +148,7 @@ public final class UpdateHelper {
 	public static void toggleStarred(final Context context, final Artist entry) {
 		final boolean starred = !entry.isStarred();
 		entry.setStarred(starred);
+		UpdateView.triggerUpdate(entry.getId());
 
 		new SilentBackgroundTask<Void>(context) {
 			@Override
@@ -166,6 +172,7 @@ public final class UpdateHelper {
 			protected void error(Throwable error) {
 				Log.w(TAG, "Failed to star", error);
 				entry.setStarred(!starred);
+				UpdateView.triggerUpdate(entry.getId());
 
 				String msg;
 				if (error instanceof OfflineException || error instanceof ServerTooOldException) {
@@ -209,6 +216,7 @@ public final class UpdateHelper {
 	public static void setRating(final Context context, final Entry entry, final int rating, final OnRatingChange onRatingChange) {
 		final int oldRating = entry.getRating();
 		entry.setRating(rating);
+		UpdateView.triggerUpdate(entry.getId());
 
 		if(onRatingChange != null) {
 			onRatingChange.ratingChange(rating);
@@ -237,6 +245,7 @@ public final class UpdateHelper {
 			@Override
 			protected void error(Throwable error) {
 				entry.setRating(oldRating);
+				UpdateView.triggerUpdate(entry.getId());
 				if(onRatingChange != null) {
 					onRatingChange.ratingChange(oldRating);
 				}
@@ -254,6 +263,14 @@ public final class UpdateHelper {
 		}.execute();
 	}
 
+	private static void triggerUpdate(List<Entry> entries) {
+		String[] ids = new String[entries.size()];
+		for(int i = 0; i < ids.length; i++) {
+			ids[i] = entries.get(i).getId();
+		}
+		UpdateView.triggerUpdate(ids);
+	}
+
 	public static abstract class EntryInstanceUpdater {
 		private Entry entry;
 		protected int metadataUpdate = DownloadService.METADATA_UPDATED_ALL;
@@ -271,7 +288,7 @@ public final class UpdateHelper {
 		public void execute() {
 			DownloadService downloadService = DownloadService.getInstance();
 			if(downloadService != null && !entry.isDirectory()) {
-				boolean serializeChanges = false;
+				List<Entry> updated = new ArrayList<Entry>();
 				List<DownloadFile> downloadFiles = downloadService.getDownloads();
 				DownloadFile currentPlaying = downloadService.getCurrentPlaying();
 
@@ -279,7 +296,7 @@ public final class UpdateHelper {
 					Entry check = file.getSong();
 					if(entry.getId().equals(check.getId())) {
 						update(check);
-						serializeChanges = true;
+						updated.add(check);
 
 						if(currentPlaying != null && currentPlaying.getSong() != null && currentPlaying.getSong().getId().equals(entry.getId())) {
 							downloadService.onMetadataUpdate(metadataUpdate);
@@ -287,8 +304,8 @@ public final class UpdateHelper {
 					}
 				}
 
-				if(serializeChanges) {
-					downloadService.serializeQueue();
+				if(!updated.isEmpty()) {
+					downloadService.serializeQueue(updated);
 				}
 			}
 
@@ -296,6 +313,59 @@ public final class UpdateHelper {
 			if(find != null) {
 				update(find);
 			}
+			UpdateView.triggerUpdate(entry.getId());
+		}
+	}
+	/**
+	 * Same as EntryInstanceUpdater for a lot of entries at once, going through the play queue and saving it only once
+	 */
+	public static abstract class EntryListUpdater {
+		private Set<String> ids = new HashSet<String>();
+		protected int metadataUpdate = DownloadService.METADATA_UPDATED_ALL;
+
+		public EntryListUpdater(Collection<Entry> entries) {
+			for(Entry entry: entries) {
+				ids.add(entry.getId());
+			}
+		}
+
+		public abstract void update(Entry found);
+
+		public void execute() {
+			if(ids.isEmpty()) {
+				return;
+			}
+
+			DownloadService downloadService = DownloadService.getInstance();
+			if(downloadService != null) {
+				List<Entry> updated = new ArrayList<Entry>();
+				boolean currentUpdated = false;
+				DownloadFile currentPlaying = downloadService.getCurrentPlaying();
+
+				for(DownloadFile file: downloadService.getDownloads()) {
+					Entry check = file.getSong();
+					if(!check.isDirectory() && ids.contains(check.getId())) {
+						update(check);
+						updated.add(check);
+
+						if(file == currentPlaying) {
+							currentUpdated = true;
+						}
+					}
+				}
+
+				if(currentUpdated) {
+					downloadService.onMetadataUpdate(metadataUpdate);
+				}
+				if(!updated.isEmpty()) {
+					downloadService.serializeQueue(updated);
+				}
+			}
+
+			for(Entry find: UpdateView.findEntries(ids)) {
+				update(find);
+			}
+			UpdateView.triggerUpdate(ids.toArray(new String[ids.size()]));
 		}
 	}
 
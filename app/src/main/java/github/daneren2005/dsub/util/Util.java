@@ -55,6 +55,7 @@ import android.widget.Toast;
 import github.daneren2005.dsub.R;
 import github.daneren2005.dsub.adapter.DetailsAdapter;
 import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.domain.OfflineAction;
 import github.daneren2005.dsub.domain.PlayerState;
 import github.daneren2005.dsub.domain.RepeatMode;
 import github.daneren2005.dsub.domain.ServerInfo;
@@ -307,6 +308,11 @@ public final class Util {
         int preloadCount = Integer.parseInt(prefs.getString(wifi ? Constants.PREFERENCES_KEY_PRELOAD_COUNT_WIFI : Constants.PREFERENCES_KEY_PRELOAD_COUNT_MOBILE, "-1"));
         return preloadCount == -1 ? Integer.MAX_VALUE : preloadCount;
     }
+	public static int getConcurrentDownloadCount(Context context) {
+		SharedPreferences prefs = getPreferences(context);
+		int concurrent = Integer.parseInt(prefs.getString(Constants.PREFERENCES_KEY_CONCURRENT_DOWNLOADS, "2"));
+		return Math.max(1, concurrent);
+	}
 
     public static int getCacheSizeMB(Context context) {
         SharedPreferences prefs = getPreferences(context);
@@ -396,6 +402,9 @@ public final class Util {
 			builder.append("&v=").append(Constants.REST_PROTOCOL_VERSION_SUBSONIC);
 		}
 		builder.append("&c=").append(Constants.REST_CLIENT_ID);
+		if(method != null && prefs.getBoolean(Constants.PREFERENCES_KEY_SERVER_JSON + instance, false)) {
+			builder.append("&f=json");
+		}
 
 		return builder.toString();
 	}
@@ -452,6 +461,10 @@ public final class Util {
 		SharedPreferences prefs = getPreferences(context);
 		return prefs.getBoolean(Constants.PREFERENCES_KEY_SERVER_SYNC + instance, true);
 	}
+	public static boolean isJsonEnabled(Context context, int instance) {
+		SharedPreferences prefs = getPreferences(context);
+		return prefs.getBoolean(Constants.PREFERENCES_KEY_SERVER_JSON + instance, false);
+	}
 
 	public static String getParentFromEntry(Context context, MusicDirectory.Entry entry) {
 		if(Util.isTagBrowsing(context)) {
@@ -514,13 +527,25 @@ public final class Util {
 		return name + "-" + s.hashCode() + ".ser";
 	}
 	
+	/**
+	 * @return Server a name from getCacheName was made for, or CacheStore.NO_INSTANCE if it isn't for any server
+	 */
+	public static int getCacheNameInstance(Context context, String fileName) {
+		int count = getServerCount(context);
+		for(int i = 1; i <= count; i++) {
+			if(fileName.endsWith("-" + getRestUrl(context, null, i, false).hashCode() + ".ser")) {
+				return i;
+			}
+		}
+		return CacheStore.NO_INSTANCE;
+	}
+
 	public static int offlineScrobblesCount(Context context) {
-		SharedPreferences offline = getOfflineSync(context);
-		return offline.getInt(Constants.OFFLINE_SCROBBLE_COUNT, 0);
+		return SongDBHandler.getHandler(context).getOfflineActionCount(OfflineAction.TYPE_SCROBBLE, true);
 	}
+	// Stars along with ratings and bookmarks
 	public static int offlineStarsCount(Context context) {
-		SharedPreferences offline = getOfflineSync(context);
-		return offline.getInt(Constants.OFFLINE_STAR_COUNT, 0);
+		return SongDBHandler.getHandler(context).getOfflineActionCount(OfflineAction.TYPE_SCROBBLE, false);
 	}
 	
 	public static String parseOfflineIDSearch(Context context, String id, String cacheLocation) {
@@ -79,6 +79,9 @@ public class RemoteControlClientLP extends RemoteControlClientBase {
 	protected ImageLoader imageLoader;
 	protected List<DownloadFile> currentQueue;
 	protected int previousState;
+	// Last metadata sent to the session, so the same song's artwork doesn't have to be loaded and copied again
+	protected Entry metadataSong;
+	protected Bitmap metadataArt;
 
 	@Override
 	public void register(Context context, ComponentName mediaButtonReceiverComponent) {
@@ -172,6 +175,11 @@ public class RemoteControlClientLP extends RemoteControlClientBase {
 
 	@Override
 	public void updateMetadata(Context context, Entry currentSong) {
+		if(currentSong != null && metadataSong != null && metadataArt != null && currentSong.getId().equals(metadataSong.getId()) && Util.equals(currentSong.getCoverArt(), metadataSong.getCoverArt())) {
+			setMetadata(currentSong, metadataArt);
+			return;
+		}
+
 		setMetadata(currentSong, null);
 
 		if(currentSong != null && imageLoader != null) {
@@ -201,6 +209,8 @@ public class RemoteControlClientLP extends RemoteControlClientBase {
 		}
 
 		mediaSession.setMetadata(builder.build());
+		metadataSong = currentSong;
+		metadataArt = bitmap;
 	}
 
 	@Override
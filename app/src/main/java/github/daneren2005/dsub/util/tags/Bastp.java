@@ -66,6 +66,7 @@ public class Bastp {
 					/* add gain tags if not already present */
 					inheritTag("REPLAYGAIN_TRACK_GAIN", lameInfo, tags);
 					inheritTag("REPLAYGAIN_ALBUM_GAIN", lameInfo, tags);
+					inheritTag("REPLAYGAIN_TRACK_PEAK", lameInfo, tags);
 				}
 			}
 			tags.put("_magic", magic);
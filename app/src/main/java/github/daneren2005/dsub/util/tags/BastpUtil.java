@@ -17,39 +17,56 @@
  
 package github.daneren2005.dsub.util.tags;
 
+import android.content.Context;
 import android.support.v4.util.LruCache;
+
+import java.io.File;
 import java.util.HashMap;
 import java.util.Vector;
 
+import github.daneren2005.dsub.util.SongDBHandler;
+
 public final class BastpUtil {
-	private static final RGLruCache rgCache = new RGLruCache(16);
+	private static final RGLruCache rgCache = new RGLruCache(256);
 
-	/** Returns the ReplayGain values of 'path' as <track,album>
+	/** Returns the ReplayGain values already known for 'file' as <track,album,trackPeak,albumPeak> without touching the file itself, or null if it has not been scanned yet
 	 */
-	public static float[] getReplayGainValues(String path) {
+	public static float[] getCachedReplayGainValues(Context context, File file) {
+		String path = file.getAbsolutePath();
 		float[] cached = rgCache.get(path);
 
 		if(cached == null) {
-			cached = getReplayGainValuesFromFile(path);
-			rgCache.put(path, cached);
+			cached = SongDBHandler.getHandler(context).getReplayGain(path);
+			if(cached != null) {
+				rgCache.put(path, cached);
+			}
 		}
 		return cached;
 	}
+
+	/** Parse 'file' and remember the values under 'target', which is where the file will live once it is done being written.
+	 *  Only persisted when 'persist' is set so half downloaded files don't leave rows behind.
+	 */
+	public static float[] scanReplayGainValues(Context context, File file, File target, boolean persist) {
+		float[] values = getReplayGainValuesFromFile(file.getAbsolutePath());
+		rgCache.put(target.getAbsolutePath(), values);
+		if(persist) {
+			SongDBHandler.getHandler(context).setReplayGain(target.getAbsolutePath(), values);
+		}
+		return values;
+	}
 	
-	
-	
-	/** Parse given file and return track,album replay gain values
+	/** Parse given file and return track,album replay gain values and their peaks
 	 */
 	private static float[] getReplayGainValuesFromFile(String path) {
-		String[] keys = { "REPLAYGAIN_TRACK_GAIN", "REPLAYGAIN_ALBUM_GAIN" };
-		float[] adjust= { 0f                     , 0f                      };
+		String[] keys = { "REPLAYGAIN_TRACK_GAIN", "REPLAYGAIN_ALBUM_GAIN", "REPLAYGAIN_TRACK_PEAK", "REPLAYGAIN_ALBUM_PEAK" };
+		float[] adjust= { 0f                     , 0f                     , 0f                     , 0f                      };
 		HashMap tags  = (new Bastp()).getTags(path);
 		
 		for (int i=0; i<keys.length; i++) {
 			String curKey = keys[i];
 			if(tags.containsKey(curKey)) {
 				String rg_raw = (String)((Vector)tags.get(curKey)).get(0);
-				String rg_numonly = "";
 				float rg_float = 0f;
 				try {
 					String nums = rg_raw.replaceAll("[^0-9.-]","");
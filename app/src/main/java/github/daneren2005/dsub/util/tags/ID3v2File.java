@@ -118,7 +118,7 @@ public class ID3v2File extends Common {
 			String txData[] = getDecodedString(v).split(Character.toString('\0'), 2);
 			/* Check if we got replaygain info in key\0value style */
 			if(txData.length == 2) {
-				if(txData[0].matches("^(?i)REPLAYGAIN_(ALBUM|TRACK)_GAIN$")) {
+				if(txData[0].matches("^(?i)REPLAYGAIN_(ALBUM|TRACK)_(GAIN|PEAK)$")) {
 					rv[0] = txData[0].toUpperCase(); /* some tagwriters use lowercase for this */
 					rv[1] = txData[1];
 				} else {
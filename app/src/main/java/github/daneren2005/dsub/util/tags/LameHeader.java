@@ -42,7 +42,15 @@ public class LameHeader extends Common {
 		String lameMark = new String(chunk, 0, chunk.length, "ISO-8859-1");
 		
 		if(lameMark.equals("Info") || lameMark.equals("Xing")) {
-			s.seek(offset+0xAB);
+			s.seek(offset+0xA7);
+			s.read(chunk);
+			
+			/* peak amplitude is stored as fixed point with 1.0 == 1<<23, zero if unknown */
+			int peak_raw = b2be32(chunk, 0);
+			if(peak_raw > 0) {
+				addTagEntry(tags, "REPLAYGAIN_TRACK_PEAK", Float.toString((float)peak_raw / (1 << 23)));
+			}
+			
 			s.read(chunk);
 			
 			int raw = b2be32(chunk, 0);
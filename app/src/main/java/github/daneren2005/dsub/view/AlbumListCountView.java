@@ -86,7 +86,7 @@ public class AlbumListCountView extends UpdateView2<Integer, Void> {
 			while (recents.size() > 40) {
 				recents.remove(0);
 			}
-			FileUtil.serialize(context, recents, recentAddedFile);
+			FileUtil.serialize(context, recents, recentAddedFile, Util.getActiveServer(context));
 
 			if (!firstRun) {
 				// Add the old count which will get cleared out after viewing recents
@@ -93,6 +93,11 @@ public class AlbumView extends UpdateView2<MusicDirectory.Entry, ImageLoader> {
 		coverArtId = item.getCoverArt();
 	}
 
+	@Override
+	protected String getUpdateId() {
+		return item.getId();
+	}
+
 	@Override
 	protected void updateBackground() {
 		if(file == null) {
@@ -60,6 +60,11 @@ public class ArtistEntryView extends UpdateView<MusicDirectory.Entry> {
 		file = FileUtil.getArtistDirectory(context, artist);
     }
     
+	@Override
+	protected String getUpdateId() {
+		return item.getId();
+	}
+
 	@Override
 	protected void updateBackground() {
 		exists = file.exists();
@@ -61,6 +61,11 @@ public class ArtistView extends UpdateView<Artist> {
 		file = FileUtil.getArtistDirectory(context, artist);
     }
     
+    @Override
+	protected String getUpdateId() {
+		return item.getId();
+	}
+
     @Override
 	protected void updateBackground() {
 		exists = file.exists();
@@ -59,6 +59,11 @@ public class PlaylistView extends UpdateView<Playlist> {
 		imageTask = imageLoader.loadImage(coverArtView, item, false, true);
 	}
 
+	@Override
+	protected String getUpdateId() {
+		return item.getId();
+	}
+
 	@Override
 	protected void updateBackground() {
 		pinned = SyncUtil.isSyncedPlaylist(context, item.getId());
@@ -85,6 +85,11 @@ public class PodcastChannelView extends UpdateView<PodcastChannel> {
 		}
 	}
 	
+	@Override
+	protected String getUpdateId() {
+		return item.getId();
+	}
+
 	@Override
 	protected void updateBackground() {
 		if(SyncUtil.isSyncedPodcast(context, item.getId())) {
@@ -34,6 +34,8 @@ import github.daneren2005.dsub.util.ThemeUtil;
 import github.daneren2005.dsub.util.Util;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Used to display songs in a {@code ListView}.
@@ -71,6 +73,8 @@ public class SongView extends UpdateView2<MusicDirectory.Entry, Boolean> {
 	private boolean isBookmarkedShown = false;
 	private boolean showPodcast = false;
 	private boolean isPlayed = false;
+	// Entry isPlayed was last looked up for as part of a batch
+	private MusicDirectory.Entry playedEntry;
 	private boolean isPlayedShown = false;
 	private boolean showAlbum = false;
 
@@ -194,6 +198,11 @@ public class SongView extends UpdateView2<MusicDirectory.Entry, Boolean> {
 		return downloadFile;
 	}
 
+	@Override
+	protected String getUpdateId() {
+		return item.getId();
+	}
+
 	@Override
 	protected void updateBackground() {
 		if (downloadService == null) {
@@ -209,10 +218,10 @@ public class SongView extends UpdateView2<MusicDirectory.Entry, Boolean> {
 			revision = newRevision;
 		}
 
-		isWorkDone = downloadFile.isWorkDone();
-		isSaved = downloadFile.isSaved();
+		isWorkDone = downloadFile.isWorkDoneIndexed();
+		isSaved = downloadFile.isSavedIndexed();
 		partialFile = downloadFile.getPartialFile();
-		partialFileExists = partialFile.exists();
+		partialFileExists = downloadFile.isDownloading() && partialFile.exists();
 		isStarred = item.isStarred();
 		isBookmarked = item.getBookmark() != null;
 		isRated = item.getRating();
@@ -223,10 +232,45 @@ public class SongView extends UpdateView2<MusicDirectory.Entry, Boolean> {
 			loaded = true;
 		}
 
-		if(item instanceof PodcastEpisode || item.isAudioBook() || item.isPodcast()) {
-			isPlayed = SongDBHandler.getHandler(context).hasBeenCompleted(item);
+		if(hasPlayedState(item)) {
+			if(playedEntry != item) {
+				isPlayed = SongDBHandler.getHandler(context).hasBeenCompleted(item);
+			}
+			playedEntry = null;
+		}
+	}
+
+	/**
+	 * Look up whether the songs in a set of views have been played all at once
+	 */
+	static void loadPlayed(List<UpdateView> views) {
+		List<SongView> songViews = new ArrayList<SongView>();
+		List<MusicDirectory.Entry> entries = new ArrayList<MusicDirectory.Entry>();
+		for(UpdateView view: views) {
+			if(view instanceof SongView) {
+				SongView songView = (SongView) view;
+				MusicDirectory.Entry entry = songView.item;
+				if(entry != null && hasPlayedState(entry)) {
+					songViews.add(songView);
+					entries.add(entry);
+				}
+			}
+		}
+		if(entries.isEmpty()) {
+			return;
+		}
+
+		List<Long[]> dates = SongDBHandler.getHandler(songViews.get(0).context).getLastPlayed(entries);
+		for(int i = 0; i < songViews.size(); i++) {
+			Long[] lastPlayed = dates.get(i);
+			SongView songView = songViews.get(i);
+			songView.isPlayed = lastPlayed != null && lastPlayed[1] != null && lastPlayed[1] > 0;
+			songView.playedEntry = entries.get(i);
 		}
 	}
+	private static boolean hasPlayedState(MusicDirectory.Entry entry) {
+		return entry instanceof PodcastEpisode || entry.isAudioBook() || entry.isPodcast();
+	}
 
 	@Override
 	protected void update() {
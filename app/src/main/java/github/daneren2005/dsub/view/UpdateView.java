@@ -33,7 +33,10 @@ import android.widget.LinearLayout;
 import android.widget.RatingBar;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.WeakHashMap;
 
 import github.daneren2005.dsub.domain.MusicDirectory;
@@ -44,11 +47,19 @@ import github.daneren2005.dsub.util.SilentBackgroundTask;
 public abstract class UpdateView<T> extends LinearLayout {
 	private static final String TAG = UpdateView.class.getSimpleName();
 	private static final WeakHashMap<UpdateView, ?> INSTANCES = new WeakHashMap<UpdateView, Object>();
+	// Wait a little after a change comes in so a burst of them only refreshes each row once
+	private static final long UPDATE_DELAY = 100L;
 
 	protected static Handler backgroundHandler;
 	protected static Handler uiHandler;
 	private static Runnable updateRunnable;
 	private static int activeActivities = 0;
+	private static final Set<String> changedIds = new HashSet<String>();
+	private static boolean changedAll = false;
+	private static boolean updatePending = false;
+	// Views bound since the background thread last got to them
+	private static final Set<UpdateView> boundViews = new LinkedHashSet<UpdateView>();
+	private static boolean boundPending = false;
 
 	protected Context context;
 	protected T item;
@@ -107,6 +118,20 @@ public abstract class UpdateView<T> extends LinearLayout {
 			((ImageView) coverArtView).setImageDrawable(null);
 		}
 		setObjectImpl(obj);
+		if(coverArtView != null && coverArtView instanceof RecyclingImageView) {
+			// Nothing polls for recycled art anymore, so reload as soon as it is noticed
+			((RecyclingImageView) coverArtView).setOnInvalidated(new RecyclingImageView.OnInvalidated() {
+				@Override
+				public void onInvalidated(RecyclingImageView imageView) {
+					post(new Runnable() {
+						@Override
+						public void run() {
+							onUpdateImageView();
+						}
+					});
+				}
+			});
+		}
 		updateBackground();
 		update();
 	}
@@ -134,73 +159,126 @@ public abstract class UpdateView<T> extends LinearLayout {
 			public void run() {
 				Looper.prepare();
 				backgroundHandler = new Handler(Looper.myLooper());
-				uiHandler.post(updateRunnable);
 				Looper.loop();
 			}
 		}, "UpdateView").start();
     }
 
+	/**
+	 * Refresh every visible view
+	 */
 	public static synchronized void triggerUpdate() {
-		if(backgroundHandler != null) {
-			uiHandler.removeCallbacksAndMessages(null);
-			backgroundHandler.removeCallbacksAndMessages(null);
-			uiHandler.post(updateRunnable);
+		changedAll = true;
+		scheduleUpdate();
+	}
+	/**
+	 * Refresh only the visible views showing one of the given ids
+	 */
+	public static synchronized void triggerUpdate(String... ids) {
+		for(String id: ids) {
+			if(id != null) {
+				changedIds.add(id);
+			}
+		}
+		scheduleUpdate();
+	}
+	private static void scheduleUpdate() {
+		if(uiHandler != null && !updatePending) {
+			updatePending = true;
+			uiHandler.postDelayed(updateRunnable, UPDATE_DELAY);
 		}
 	}
 
     private static void updateAll() {
         try {
-			// If nothing can see this, stop updating
-			if(activeActivities == 0) {
-				activeActivities--;
+			boolean all;
+			Set<String> ids;
+			synchronized (UpdateView.class) {
+				all = changedAll;
+				ids = new HashSet<String>(changedIds);
+				changedAll = false;
+				changedIds.clear();
+				updatePending = false;
+			}
+
+			// Nothing can see this, whatever is shown next will get refreshed when it is bound
+			if(activeActivities <= 0) {
 				return;
 			}
 
 			List<UpdateView> views = new ArrayList<UpdateView>();
             for (UpdateView view : INSTANCES.keySet()) {
-                if (view.isShown()) {
+                if (view.isShown() && (all || ids.contains(view.getUpdateId()))) {
 					views.add(view);
                 }
             }
 			if(views.size() > 0) {
 				updateAllLive(views);
-			} else {
-				uiHandler.postDelayed(updateRunnable, 2000L);
 			}
         } catch (Throwable x) {
             Log.w(TAG, "Error when updating song views.", x);
         }
     }
 	private static void updateAllLive(final List<UpdateView> views) {
-		final Runnable runnable = new Runnable() {
+		backgroundHandler.post(new Runnable() {
 			@Override
             public void run() {
-				try {
-					for(UpdateView view: views) {
-						view.update();
-					}
-				} catch (Throwable x) {
-					Log.w(TAG, "Error when updating song views.", x);
-				}
-				uiHandler.postDelayed(updateRunnable, 1000L);
+				updateViews(views);
 			}
-		};
-		
+		});
+	}
+
+	/**
+	 * Refresh a view which was just bound.  Everything bound before the background thread gets to it is refreshed together.
+	 */
+	protected static void updateBound(UpdateView view) {
+		synchronized (boundViews) {
+			boundViews.add(view);
+			if(boundPending) {
+				return;
+			}
+			boundPending = true;
+		}
+
 		backgroundHandler.post(new Runnable() {
 			@Override
-            public void run() {
-				try {
-					for(UpdateView view: views) {
-						view.updateBackground();
-					}
-					uiHandler.post(runnable);
-				} catch (Throwable x) {
-					Log.w(TAG, "Error when updating song views.", x);
+			public void run() {
+				List<UpdateView> views;
+				synchronized (boundViews) {
+					views = new ArrayList<UpdateView>(boundViews);
+					boundViews.clear();
+					boundPending = false;
 				}
+				updateViews(views);
 			}
 		});
 	}
 
+	private static void updateViews(final List<UpdateView> views) {
+		try {
+			// One lookup for every row instead of one each
+			SongView.loadPlayed(views);
+
+			for(UpdateView view: views) {
+				view.updateBackground();
+			}
+			uiHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for(UpdateView view: views) {
+							view.update();
+						}
+					} catch (Throwable x) {
+						Log.w(TAG, "Error when updating song views.", x);
+					}
+				}
+			});
+		} catch (Throwable x) {
+			Log.w(TAG, "Error when updating song views.", x);
+		}
+	}
+
 	public static boolean hasActiveActivity() {
 		return activeActivities > 0;
 	}
@@ -208,10 +286,8 @@ public abstract class UpdateView<T> extends LinearLayout {
 	public static void addActiveActivity() {
 		activeActivities++;
 
-		if(activeActivities == 0 && uiHandler != null && updateRunnable != null) {
-			activeActivities++;
-			uiHandler.post(updateRunnable);
-		}
+		// Anything could have changed while nobody was looking
+		triggerUpdate();
 	}
 	public static void removeActiveActivity() {
 		activeActivities--;
@@ -233,7 +309,34 @@ public abstract class UpdateView<T> extends LinearLayout {
 
 		return null;
 	}
+	/**
+	 * Same as findEntry for a whole set of ids at once, including the instances any views are showing
+	 */
+	public static List<MusicDirectory.Entry> findEntries(Set<String> ids) {
+		List<MusicDirectory.Entry> found = new ArrayList<MusicDirectory.Entry>();
+		for(UpdateView view: INSTANCES.keySet()) {
+			MusicDirectory.Entry check = null;
+			if(view instanceof SongView) {
+				check = ((SongView) view).getEntry();
+			} else if(view instanceof AlbumView) {
+				check = ((AlbumView) view).getEntry();
+			}
+
+			if(check != null && ids.contains(check.getId())) {
+				found.add(check);
+			}
+		}
+
+		return found;
+	}
 	
+	/**
+	 * Id to match against triggerUpdate(String...) so only the affected views are refreshed, null to only refresh on triggerUpdate()
+	 */
+	protected String getUpdateId() {
+		return null;
+	}
+
 	protected void updateBackground() {
 		
 	}
@@ -34,18 +34,7 @@ public abstract class UpdateView2<T1, T2> extends UpdateView<T1> {
 		}
 
 		setObjectImpl(item, item2);
-		backgroundHandler.post(new Runnable() {
-			@Override
-			public void run() {
-				updateBackground();
-				uiHandler.post(new Runnable() {
-					@Override
-					public void run() {
-						update();
-					}
-				});
-			}
-		});
+		updateBound(this);
 	}
 
 	protected final void setObjectImpl(T1 obj1) {